@@ -0,0 +1,182 @@
+package libs.security;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.PromiseImpl;
+import com.facebook.react.bridge.ReadableMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(AndroidJUnit4.class)
+public class SecurityExecutorTest {
+    private static Promise createPromise(final CountDownLatch settled, final AtomicReference<String> rejectCode) {
+        return new PromiseImpl(
+                args -> settled.countDown(),
+                args -> {
+                    rejectCode.set(((ReadableMap) args[0]).getString("code"));
+                    settled.countDown();
+                }
+        );
+    }
+
+    @Test
+    public void LanesTest() throws Exception {
+        final SecurityExecutor executor = SecurityExecutor.sharedInstance();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch blocking = new CountDownLatch(1);
+
+        // block the interactive lane
+        executor.execute(SecurityExecutor.Lane.INTERACTIVE, "blocking", createPromise(blocking, new AtomicReference<>()), () -> {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            blocking.countDown();
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // background lane should not wait for the interactive lane
+        final CountDownLatch background = new CountDownLatch(1);
+        final AtomicReference<String> backgroundRejectCode = new AtomicReference<>();
+        final Promise backgroundPromise = createPromise(background, backgroundRejectCode);
+        executor.execute(SecurityExecutor.Lane.BACKGROUND, "background", backgroundPromise, () -> backgroundPromise.resolve(true));
+        Assert.assertTrue(background.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(backgroundRejectCode.get());
+
+        // queued operations should be cancelled and rejected
+        final CountDownLatch queued = new CountDownLatch(2);
+        final AtomicReference<String> queuedRejectCode = new AtomicReference<>();
+        final Promise queuedPromise = createPromise(queued, queuedRejectCode);
+        executor.execute(SecurityExecutor.Lane.INTERACTIVE, "queued", queuedPromise, () -> queuedPromise.resolve(true));
+        executor.execute(SecurityExecutor.Lane.INTERACTIVE, "queued", queuedPromise, () -> queuedPromise.resolve(true));
+
+        Assert.assertEquals(2, executor.getMetrics(SecurityExecutor.Lane.INTERACTIVE).queued);
+        Assert.assertTrue(executor.getMetrics(SecurityExecutor.Lane.INTERACTIVE).running);
+
+        Assert.assertEquals(2, executor.cancel("queued"));
+        Assert.assertTrue(queued.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(SecurityExecutor.ERROR_CANCELLED, queuedRejectCode.get());
+
+        release.countDown();
+        Assert.assertTrue(blocking.await(5, TimeUnit.SECONDS));
+
+        // nothing left to cancel
+        Assert.assertEquals(0, executor.cancel("queued"));
+
+        final SecurityExecutor.Metrics metrics = executor.getMetrics(SecurityExecutor.Lane.INTERACTIVE);
+        Assert.assertEquals(0, metrics.queued);
+        Assert.assertTrue(metrics.cancelled >= 2);
+        Assert.assertTrue(metrics.maxWait >= metrics.averageWait);
+    }
+
+    @Test
+    public void VaultLaneTest() throws Exception {
+        final SecurityExecutor executor = SecurityExecutor.sharedInstance();
+
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch settled = new CountDownLatch(2);
+        final AtomicReference<String> rejectCode = new AtomicReference<>();
+
+        // operations on different vaults should run at the same time
+        for (String name : new String[]{"vault_a", "vault_b"}) {
+            final Promise promise = createPromise(settled, rejectCode);
+            executor.execute(SecurityExecutor.Lane.VAULT, name, promise, () -> {
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                promise.resolve(true);
+            });
+        }
+
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(executor.isIdle(SecurityExecutor.Lane.VAULT));
+
+        // running operations of the lane should all be cancellable
+        Assert.assertEquals(1, executor.cancel("vault_b"));
+
+        release.countDown();
+        Assert.assertTrue(settled.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(rejectCode.get());
+    }
+
+    @Test
+    public void UserInitiatedLaneTest() throws Exception {
+        final SecurityExecutor executor = SecurityExecutor.sharedInstance();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch blocking = new CountDownLatch(1);
+
+        // block the background lane, like a running migration
+        executor.execute(SecurityExecutor.Lane.BACKGROUND, "migrating", createPromise(blocking, new AtomicReference<>()), () -> {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            blocking.countDown();
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // user initiated operations should not wait for the background lane
+        final CountDownLatch settled = new CountDownLatch(1);
+        final AtomicReference<String> rejectCode = new AtomicReference<>();
+        final Promise promise = createPromise(settled, rejectCode);
+        executor.execute(SecurityExecutor.Lane.USER_INITIATED, "reKey", promise, () -> promise.resolve(true));
+        Assert.assertTrue(settled.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(rejectCode.get());
+
+        release.countDown();
+        Assert.assertTrue(blocking.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void CancelRunningTest() throws Exception {
+        final SecurityExecutor executor = SecurityExecutor.sharedInstance();
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch settled = new CountDownLatch(1);
+        final AtomicReference<String> rejectCode = new AtomicReference<>();
+        final Promise promise = createPromise(settled, rejectCode);
+
+        // long running operation which checks its token, like key derivation
+        executor.execute(SecurityExecutor.Lane.BACKGROUND, "running", "token", promise, () -> {
+            started.countDown();
+            final long deadline = System.currentTimeMillis() + 10_000;
+            while (System.currentTimeMillis() < deadline) {
+                CancellationToken.current().throwIfCancelled();
+            }
+            promise.resolve(true);
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // cancel by token should stop the running operation
+        Assert.assertEquals(1, executor.cancel("token"));
+        Assert.assertTrue(settled.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(SecurityExecutor.ERROR_CANCELLED, rejectCode.get());
+
+        // token should not leak to the next operation on the same thread
+        final CountDownLatch next = new CountDownLatch(1);
+        final AtomicReference<String> nextRejectCode = new AtomicReference<>();
+        final Promise nextPromise = createPromise(next, nextRejectCode);
+        executor.execute(SecurityExecutor.Lane.BACKGROUND, "next", nextPromise, () -> {
+            CancellationToken.current().throwIfCancelled();
+            nextPromise.resolve(true);
+        });
+        Assert.assertTrue(next.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(nextRejectCode.get());
+    }
+}
@@ -9,6 +9,7 @@ import org.junit.runner.RunWith;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Map;
 
 @RunWith(AndroidJUnit4.class)
 public class CryptoTest {
@@ -50,6 +51,37 @@ public class CryptoTest {
         }
     }
 
+    @Test
+    public void HexTest() {
+        final byte[] BYTES = new byte[]{0, 10, (byte) 0xff, 0x7f};
+
+        // encode/decode with caller provided buffers
+        final char[] CHARS = new char[12];
+        Assert.assertEquals(8, Hex.encode(BYTES, 0, BYTES.length, CHARS, 2));
+        Assert.assertEquals("000aff7f", new String(CHARS, 2, 8));
+
+        final byte[] OUT = new byte[6];
+        Assert.assertEquals(4, Hex.decode("000aff7f", OUT, 1));
+        Assert.assertArrayEquals(new byte[]{0, 0, 10, (byte) 0xff, 0x7f, 0}, OUT);
+
+        final java.nio.ByteBuffer BUFFER = java.nio.ByteBuffer.allocate(4);
+        Assert.assertEquals(4, Hex.decode("000AFF7F", BUFFER));
+        Assert.assertArrayEquals(BYTES, BUFFER.array());
+
+        // should reject non hex characters
+        for (String invalid : new String[]{"0g", "zz", "0-", " 0", "\u0661\u0661"}) {
+            try {
+                Hex.decode(invalid);
+                Assert.fail("should reject " + invalid);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+
+        // lenient decoding should keep the legacy behaviour
+        Assert.assertArrayEquals(new byte[]{(byte) 0xff}, Hex.decodeLenient("0g"));
+        Assert.assertArrayEquals(new byte[]{10}, Hex.decodeLenient("0a"));
+    }
+
     @Test
     public void SHA1Test() throws NoSuchAlgorithmException {
         // echo -n "Hello World" | openssl sha1
@@ -92,6 +124,146 @@ public class CryptoTest {
         Assert.assertArrayEquals(BYTE_PBKDF2, Crypto.PBKDF2(CHARS, BYTES_SALT, 91337));
     }
 
+    @Test
+    public void Pbkdf2HmacSha512Test() throws NoSuchAlgorithmException, java.security.spec.InvalidKeySpecException {
+        final char[] CHARS = "Hello World".toCharArray();
+        final byte[] BYTES_SALT = Crypto.HexToBytes("e263d5ca3f8664326a453b6f6f34c67551ed9ea9e67e4fb1bfe51010f3dc5354");
+        final byte[] BYTE_PBKDF2 = Crypto.HexToBytes("3f6baa35c545b1815761d32e26fe381d53a1673518f9880e9258280c5e25b632");
+        Assert.assertArrayEquals(BYTE_PBKDF2, Pbkdf2HmacSha512.derive(CHARS, BYTES_SALT, 91337, 32));
+
+        // should produce the same result as the platform provider, including passwords longer than a block
+        final char[] LONG_CHARS = Crypto.BytesToHex(Crypto.RandomBytes(100)).toCharArray();
+        final byte[] RANDOM_SALT = Crypto.RandomBytes(32);
+        Assert.assertArrayEquals(
+                Crypto.PlatformPBKDF2(CHARS, RANDOM_SALT, 33),
+                Pbkdf2HmacSha512.derive(CHARS, RANDOM_SALT, 33, 32)
+        );
+        Assert.assertArrayEquals(
+                Crypto.PlatformPBKDF2(LONG_CHARS, RANDOM_SALT, 33),
+                Pbkdf2HmacSha512.derive(LONG_CHARS, RANDOM_SALT, 33, 32)
+        );
+    }
+
+    @Test
+    public void CryptoEngineTest() throws Exception {
+        final byte[] BYTES = "Hello World".getBytes(StandardCharsets.UTF_8);
+        final byte[] KEY = Crypto.HexToBytes("e263d5ca3f8664326a453b6f6f34c67551ed9ea9e67e4fb1bfe51010f3dc5354");
+
+        // reused instances should give the same results as fresh ones
+        final byte[] SHA256 = Crypto.SHA256Hash(BYTES);
+        final byte[] HMAC = Crypto.HMAC256(BYTES, KEY);
+
+        CryptoEngine.resetStats();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertArrayEquals(SHA256, Crypto.SHA256Hash(BYTES));
+            Assert.assertArrayEquals(HMAC, Crypto.HMAC256(BYTES, KEY));
+        }
+
+        Map<String, Long> stats = CryptoEngine.getStats();
+        Assert.assertEquals(10L, (long) stats.get("digest_hits"));
+        Assert.assertEquals(0L, (long) stats.get("digest_misses"));
+        Assert.assertEquals(10L, (long) stats.get("mac_hits"));
+        Assert.assertEquals(0L, (long) stats.get("mac_misses"));
+    }
+
+    @Test
+    public void BatchHashTest() throws NoSuchAlgorithmException, InvalidKeyException {
+        final byte[][] ENTRIES = new byte[][]{
+                "Hello".getBytes(StandardCharsets.UTF_8),
+                "World".getBytes(StandardCharsets.UTF_8),
+                new byte[0]
+        };
+        final byte[] KEY = Crypto.HexToBytes("e263d5ca3f8664326a453b6f6f34c67551ed9ea9e67e4fb1bfe51010f3dc5354");
+
+        // batch results should be the same as hashing entries one by one, in the same order
+        final byte[][] SHA256_RESULTS = Crypto.SHA256Hash(ENTRIES);
+        final byte[][] SHA512_RESULTS = Crypto.SHA512Hash(ENTRIES);
+        final byte[][] HMAC_RESULTS = Crypto.HMAC256(ENTRIES, KEY);
+
+        for (int i = 0; i < ENTRIES.length; i++) {
+            Assert.assertArrayEquals(Crypto.SHA256Hash(ENTRIES[i]), SHA256_RESULTS[i]);
+            Assert.assertArrayEquals(Crypto.SHA512Hash(ENTRIES[i]), SHA512_RESULTS[i]);
+            Assert.assertArrayEquals(Crypto.HMAC256(ENTRIES[i], KEY), HMAC_RESULTS[i]);
+        }
+    }
+
+    @Test
+    public void HmacKeyDecodingTest() throws Exception {
+        final byte[][] ENTRIES = new byte[][]{
+                "Hello".getBytes(StandardCharsets.UTF_8),
+                "World".getBytes(StandardCharsets.UTF_8)
+        };
+        // non canonical key, accepted by the legacy single entry method
+        final String KEY = "0g63d5ca3f8664326a453b6f6f34c67551ed9ea9e67e4fb1bfe51010f3dc53zz";
+        final byte[] KEY_BYTES = CryptoModule.decodeHmacKey(KEY);
+        Assert.assertArrayEquals(Hex.decodeLenient(KEY), KEY_BYTES);
+
+        // batch and streaming paths should give the same result as the single entry method
+        final byte[][] HMAC_RESULTS = Crypto.HMAC256(ENTRIES, KEY_BYTES);
+        for (int i = 0; i < ENTRIES.length; i++) {
+            Assert.assertArrayEquals(Crypto.HMAC256(ENTRIES[i], Hex.decodeLenient(KEY)), HMAC_RESULTS[i]);
+
+            final HashSession hmac = HashSession.createHmac("sha256", CryptoModule.decodeHmacKey(KEY));
+            hmac.update(ENTRIES[i]);
+            Assert.assertArrayEquals(HMAC_RESULTS[i], hmac.digest());
+        }
+    }
+
+    @Test
+    public void HashSessionTest() throws Exception {
+        final byte[] BYTES = Crypto.RandomBytes(HashSession.CHUNK_SIZE * 3 + 7);
+        final byte[] KEY = Crypto.HexToBytes("e263d5ca3f8664326a453b6f6f34c67551ed9ea9e67e4fb1bfe51010f3dc5354");
+
+        // chunked updates should give the same result as hashing at once
+        HashSession hash = HashSession.createHash("sha256");
+        hash.update(BYTES, 0, 100);
+        hash.update(BYTES, 100, BYTES.length - 100);
+        Assert.assertArrayEquals(Crypto.SHA256Hash(BYTES), hash.digest());
+
+        // hashing a stream
+        HashSession streamHash = HashSession.createHash("sha512");
+        streamHash.update(new java.io.ByteArrayInputStream(BYTES));
+        Assert.assertArrayEquals(Crypto.SHA512Hash(BYTES), streamHash.digest());
+
+        // hmac
+        HashSession hmac = HashSession.createHmac("sha256", KEY);
+        hmac.update(BYTES);
+        Assert.assertArrayEquals(Crypto.HMAC256(BYTES, KEY), hmac.digest());
+    }
+
+    @Test
+    public void HashSessionStoreTest() throws Exception {
+        final byte[] BYTES = "Hello World".getBytes(StandardCharsets.UTF_8);
+        final byte[] KEY = Crypto.HexToBytes("e263d5ca3f8664326a453b6f6f34c67551ed9ea9e67e4fb1bfe51010f3dc5354");
+        final java.util.concurrent.atomic.AtomicLong NOW = new java.util.concurrent.atomic.AtomicLong();
+        final HashSessionStore store = new HashSessionStore(2, 200, NOW::get);
+
+        // least recently used session should be evicted when the store is full
+        final String first = store.open(HashSession.createHash("sha256"));
+        final String second = store.open(HashSession.createHmac("sha256", KEY));
+        Assert.assertNotNull(store.get(first));
+        final String third = store.open(HashSession.createHash("sha256"));
+        Assert.assertEquals(2, store.size());
+        Assert.assertNotNull(store.get(first));
+        Assert.assertNull(store.get(second));
+
+        // sessions should not expire before the timeout
+        NOW.addAndGet(200);
+        Assert.assertNotNull(store.get(first));
+
+        // abandoned sessions should expire
+        NOW.addAndGet(201);
+        Assert.assertNull(store.get(first));
+        Assert.assertNull(store.get(third));
+        Assert.assertEquals(0, store.size());
+
+        // destroyed hmac session should not hold the key anymore
+        final HashSession hmac = HashSession.createHmac("sha256", KEY);
+        hmac.destroy();
+        hmac.update(BYTES);
+        Assert.assertFalse(java.util.Arrays.equals(Crypto.HMAC256(BYTES, KEY), hmac.digest()));
+    }
+
     @Test
     public void RandomBytesTest() {
         final int BYTES_LENGTH = 64;
@@ -99,6 +271,19 @@ public class CryptoTest {
         Assert.assertEquals(BYTES_LENGTH, RANDOM_BYTES.length);
     }
 
+    @Test
+    public void EntropyPoolTest() {
+        final EntropyPool POOL = EntropyPool.sharedInstance();
+        final java.util.Set<String> SEEN = new java.util.HashSet<>();
+
+        // bytes should never be served twice, from the pool or from the direct fallback
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(SEEN.add(Crypto.BytesToHex(POOL.nextBytes(32))));
+        }
+        Assert.assertEquals(1024, POOL.nextBytes(1024).length);
+        Assert.assertEquals(0, POOL.nextBytes(0).length);
+    }
+
 
     @Test
     public void AESCBCTest() throws Exception {
@@ -12,10 +12,15 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import libs.security.providers.UniqueIdProvider;
 import libs.security.vault.cipher.Cipher;
+import libs.security.vault.cipher.CipherV2AesGcm;
+import libs.security.vault.cipher.CipherV4AesGcm;
+import libs.security.vault.cipher.KdfCalibration;
+import libs.security.vault.cipher.SessionKeyCache;
 import libs.security.vault.exceptions.CryptoFailedException;
 
 import extentions.PerformanceLogger;
@@ -28,11 +33,13 @@ public class CipherTest {
 
     @BeforeClass
     public static void setUp() {
-        UniqueIdProvider.sharedInstance().init(
-                new ReactApplicationContext(
-                        InstrumentationRegistry.getInstrumentation().getTargetContext()
-                )
+        ReactApplicationContext context = new ReactApplicationContext(
+                InstrumentationRegistry.getInstrumentation().getTargetContext()
         );
+
+        UniqueIdProvider.sharedInstance().init(context);
+        SessionKeyCache.sharedInstance().init(context);
+        KdfCalibration.sharedInstance().init(context);
     }
 
     @Test
@@ -60,14 +67,14 @@ public class CipherTest {
 
     @Test
     public void EncryptDecryptTest() throws CryptoFailedException, JSONException {
-        // should be able to encrypt with cipher v2
+        // should be able to encrypt with cipher v4
         final String clearText = "Hello World";
         final String clearKey = "Secret Key";
         final String clearKeyLong = "jaefmsxpTq11C*V8PMoG1d80k3lje6EO$JW*QP8OK^X3ida&cFffSmp5WMB#olb2*aMhHWojYN90Ung5ZwnU36*awQ3Q&ztJ18jH";
 
-        performanceLogger.start("CIPHER_ENCRYPT_V2");
+        performanceLogger.start("CIPHER_ENCRYPT_V4");
         Map<String, Object> cipherResult = Cipher.encrypt(clearText, clearKey);
-        performanceLogger.end("CIPHER_ENCRYPT_V2");
+        performanceLogger.end("CIPHER_ENCRYPT_V4");
 
         // should return right values
         Assert.assertNotNull("cipherResult is null", cipherResult);
@@ -77,31 +84,150 @@ public class CipherTest {
         Cipher.DerivedKeys derivedKeys = (Cipher.DerivedKeys) cipherResult.get("derived_keys");
         String cipher = (String) cipherResult.get("cipher");
 
-        Assert.assertEquals(2, derivedKeys.version);
-        Assert.assertEquals(64, derivedKeys.iv.length());
-        Assert.assertEquals(64, derivedKeys.passcode_salt.length());
-        Assert.assertEquals(64, derivedKeys.pre_key_salt.length());
-        Assert.assertEquals(64, derivedKeys.encr_key_salt.length());
+        Assert.assertEquals(4, derivedKeys.version);
+        Assert.assertNotNull(derivedKeys.header);
+        Assert.assertEquals(CipherV4AesGcm.HEADER_LENGTH, derivedKeys.header.length);
 
+        // derived keys should be stored within the cipher envelope
+        final String derivedKeysString = derivedKeys.serialize();
+        Assert.assertEquals("", derivedKeysString);
+        Assert.assertEquals(4, Cipher.getCipherVersion(cipher, derivedKeysString));
+
+        final byte[] envelope = CipherV4AesGcm.decodeEnvelope(cipher);
+        Assert.assertNotNull(envelope);
+        Assert.assertArrayEquals(derivedKeys.header, Arrays.copyOf(envelope, CipherV4AesGcm.HEADER_LENGTH));
 
         // try to decrypt the same values
-        performanceLogger.start("CIPHER_DECRYPT_V2");
-        String decryptResult = Cipher.decrypt(cipher, clearKey, derivedKeys.toJSONString());
-        performanceLogger.end("CIPHER_DECRYPT_V2");
+        performanceLogger.start("CIPHER_DECRYPT_V4");
+        String decryptResult = Cipher.decrypt(cipher, clearKey, derivedKeysString);
+        performanceLogger.end("CIPHER_DECRYPT_V4");
         Assert.assertEquals(clearText, decryptResult);
 
+        // should be able to decrypt with the encryption key returned from encrypt, without the key derivation
+        final byte[] encrKey = (byte[]) cipherResult.get("encr_key");
+        Assert.assertNotNull("cipherResult encr_key is null", encrKey);
+
+        performanceLogger.start("CIPHER_DECRYPT_V4_ENCR_KEY");
+        String decryptResultEncrKey = Cipher.decryptWithEncrKey(cipher, encrKey, derivedKeysString);
+        performanceLogger.end("CIPHER_DECRYPT_V4_ENCR_KEY");
+        Assert.assertEquals(clearText, decryptResultEncrKey);
+
 
         // try to encrypt/decrypt with long key
-        performanceLogger.start("CIPHER_ENCRYPT_V2_LONG_KEY");
+        performanceLogger.start("CIPHER_ENCRYPT_V4_LONG_KEY");
         Map<String, Object> cipherResultLong = Cipher.encrypt(clearText, clearKeyLong);
-        performanceLogger.end("CIPHER_ENCRYPT_V2_LONG_KEY");
+        performanceLogger.end("CIPHER_ENCRYPT_V4_LONG_KEY");
 
-        performanceLogger.start("CIPHER_DECRYPT_V2_LONG_KEY");
-        String decryptResultLongKey = Cipher.decrypt((String) cipherResultLong.get("cipher"), clearKeyLong, ((Cipher.DerivedKeys) cipherResultLong.get("derived_keys")).toJSONString());
-        performanceLogger.end("CIPHER_DECRYPT_V2_LONG_KEY");
+        performanceLogger.start("CIPHER_DECRYPT_V4_LONG_KEY");
+        String decryptResultLongKey = Cipher.decrypt((String) cipherResultLong.get("cipher"), clearKeyLong, ((Cipher.DerivedKeys) cipherResultLong.get("derived_keys")).serialize());
+        performanceLogger.end("CIPHER_DECRYPT_V4_LONG_KEY");
         Assert.assertEquals(clearText, decryptResultLongKey);
     }
 
+    @Test
+    public void DecryptV2Test() throws CryptoFailedException, JSONException {
+        final String clearText = "Hello World";
+        final String clearKey = "Secret Key";
+
+        // vaults created with v2 should still be decrypted
+        Map<String, Object> cipherResult = CipherV2AesGcm.encrypt(clearText, clearKey);
+        Cipher.DerivedKeys derivedKeys = (Cipher.DerivedKeys) cipherResult.get("derived_keys");
+        Assert.assertEquals(2, derivedKeys.version);
+
+        performanceLogger.start("CIPHER_DECRYPT_V2");
+        String decryptResult = Cipher.decrypt((String) cipherResult.get("cipher"), clearKey, derivedKeys.toJSONString());
+        performanceLogger.end("CIPHER_DECRYPT_V2");
+        Assert.assertEquals(clearText, decryptResult);
+    }
+
+    @Test
+    public void EnvelopeSizeTest() throws CryptoFailedException, JSONException {
+        final String clearText = "sErEtKeYfAmIlYsEeD123456789ABC";
+        final String clearKey = "Secret Key";
+
+        Map<String, Object> cipherResultV2 = CipherV2AesGcm.encrypt(clearText, clearKey);
+        Map<String, Object> cipherResultV4 = Cipher.encrypt(clearText, clearKey);
+
+        final int sizeV2 = ((String) cipherResultV2.get("cipher")).length()
+                + ((Cipher.DerivedKeys) cipherResultV2.get("derived_keys")).toJSONString().length();
+        final int sizeV4 = ((String) cipherResultV4.get("cipher")).length()
+                + ((Cipher.DerivedKeys) cipherResultV4.get("derived_keys")).serialize().length();
+
+        // stored vault should be less than half of the v2 size
+        Assert.assertTrue(sizeV4 * 2 < sizeV2);
+    }
+
+    @Test
+    public void SessionKeyCacheTest() throws CryptoFailedException, JSONException {
+        final String clearText = "Hello World";
+        final String clearKey = "Secret Key";
+
+        SessionKeyCache.sharedInstance().lock();
+
+        Map<String, Object> cipherResult = Cipher.encrypt(clearText, clearKey);
+        Map<String, Object> cipherResultSecond = Cipher.encrypt(clearText, clearKey);
+
+        Cipher.DerivedKeys derivedKeys = (Cipher.DerivedKeys) cipherResult.get("derived_keys");
+        Cipher.DerivedKeys derivedKeysSecond = (Cipher.DerivedKeys) cipherResultSecond.get("derived_keys");
+
+        CipherV4AesGcm.Header header = CipherV4AesGcm.Header.parse(derivedKeys.header);
+        CipherV4AesGcm.Header headerSecond = CipherV4AesGcm.Header.parse(derivedKeysSecond.header);
+
+        // vaults should share the device passcode salt, but nothing else
+        Assert.assertArrayEquals(header.passcodeSalt, headerSecond.passcodeSalt);
+        Assert.assertFalse(Arrays.equals(header.preKeySalt, headerSecond.preKeySalt));
+        Assert.assertFalse(Arrays.equals(header.encrKeySalt, headerSecond.encrKeySalt));
+        Assert.assertFalse(Arrays.equals(header.iv, headerSecond.iv));
+
+        // decrypt with the cached passcode hash
+        performanceLogger.start("CIPHER_DECRYPT_V4_SESSION_CACHED");
+        String decryptResult = Cipher.decrypt((String) cipherResult.get("cipher"), clearKey, derivedKeys.serialize());
+        performanceLogger.end("CIPHER_DECRYPT_V4_SESSION_CACHED");
+        Assert.assertEquals(clearText, decryptResult);
+
+        // decrypt after session has been locked
+        SessionKeyCache.sharedInstance().lock();
+        performanceLogger.start("CIPHER_DECRYPT_V4_SESSION_LOCKED");
+        String decryptResultLocked = Cipher.decrypt((String) cipherResultSecond.get("cipher"), clearKey, derivedKeysSecond.serialize());
+        performanceLogger.end("CIPHER_DECRYPT_V4_SESSION_LOCKED");
+        Assert.assertEquals(clearText, decryptResultLocked);
+
+        // wrong key should not be served from the cache
+        try {
+            Cipher.decrypt((String) cipherResult.get("cipher"), "Wrong Key", derivedKeys.serialize());
+            Assert.fail("decrypt with wrong key should fail");
+        } catch (CryptoFailedException ignored) {
+        }
+    }
+
+    @Test
+    public void KdfCalibrationTest() throws Exception {
+        final String clearText = "Hello World";
+        final String clearKey = "Secret Key";
+
+        performanceLogger.start("KDF_CALIBRATE");
+        KdfCalibration.Result result = KdfCalibration.sharedInstance().calibrate();
+        performanceLogger.end("KDF_CALIBRATE");
+
+        // should pick iterations in bounds and report the timings
+        Assert.assertTrue(result.iterations >= KdfCalibration.MIN_ITERATIONS);
+        Assert.assertTrue(result.iterations <= KdfCalibration.MAX_ITERATIONS);
+        Assert.assertTrue(result.medianDuration > 0);
+        Assert.assertEquals(result.iterations, KdfCalibration.sharedInstance().getIterations());
+
+        // new vaults should record the calibrated iterations
+        Map<String, Object> cipherResult = Cipher.encrypt(clearText, clearKey);
+        Cipher.DerivedKeys derivedKeys = (Cipher.DerivedKeys) cipherResult.get("derived_keys");
+        CipherV4AesGcm.Header header = CipherV4AesGcm.Header.parse(derivedKeys.header);
+        Assert.assertEquals(result.iterations, header.kdfIterations);
+
+        SessionKeyCache.sharedInstance().lock();
+        performanceLogger.start("CIPHER_DECRYPT_V4_CALIBRATED");
+        String decryptResult = Cipher.decrypt((String) cipherResult.get("cipher"), clearKey, derivedKeys.serialize());
+        performanceLogger.end("CIPHER_DECRYPT_V4_CALIBRATED");
+        Assert.assertEquals(clearText, decryptResult);
+    }
+
     @Test
     public void DecryptV1Test() throws CryptoFailedException {
         final String clearText = "Hello World";
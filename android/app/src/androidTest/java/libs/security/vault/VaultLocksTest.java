@@ -0,0 +1,106 @@
+package libs.security.vault;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class VaultLocksTest {
+    static final String VAULT_NAME = "VAULT_TEST";
+
+    @Test
+    public void SameVaultTest() throws Exception {
+        final VaultLocks vaultLocks = new VaultLocks(64);
+
+        // recovery vault should map to the same lock as the vault
+        Assert.assertEquals(
+                vaultLocks.getStripe(VAULT_NAME),
+                vaultLocks.getStripe(VaultManagerModule.getRecoveryVaultName(VAULT_NAME))
+        );
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread thread;
+
+        try (VaultLocks.Handle ignored = vaultLocks.acquire(VAULT_NAME)) {
+            // locks are reentrant
+            try (VaultLocks.Handle ignoredRecovery = vaultLocks.acquire(VaultManagerModule.getRecoveryVaultName(VAULT_NAME))) {
+                Assert.assertNotNull(ignoredRecovery);
+            }
+
+            thread = new Thread(() -> {
+                try (VaultLocks.Handle ignoredOther = vaultLocks.acquire(VaultManagerModule.getRecoveryVaultName(VAULT_NAME))) {
+                    acquired.countDown();
+                }
+            });
+            thread.start();
+
+            // operation on the same vault should wait
+            Assert.assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        }
+
+        Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        thread.join();
+    }
+
+    @Test
+    public void BatchTest() throws Exception {
+        final VaultLocks vaultLocks = new VaultLocks(64);
+
+        final List<String> vaultNames = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            vaultNames.add(String.format("%s%s", VAULT_NAME, i));
+        }
+
+        // batches with the same vaults in different order should never deadlock
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            final Random random = new Random(t);
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    final List<String> batch = new ArrayList<>(vaultNames);
+                    Collections.shuffle(batch, random);
+                    try (VaultLocks.Handle ignored = vaultLocks.acquireAll(batch.subList(0, 1 + random.nextInt(5)))) {
+                        Assert.assertNotNull(ignored);
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // all stripes should be released
+        try (VaultLocks.Handle ignored = vaultLocks.acquireAll()) {
+            final CountDownLatch acquired = new CountDownLatch(1);
+            final Thread thread = new Thread(() -> {
+                try (VaultLocks.Handle ignoredBatch = vaultLocks.acquireAll(Arrays.asList(VAULT_NAME, vaultNames.get(0)))) {
+                    acquired.countDown();
+                }
+            });
+            thread.start();
+
+            // whole keychain lock should block every vault
+            Assert.assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+            ignored.close();
+            Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+            thread.join();
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package libs.security.vault;
 
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.platform.app.InstrumentationRegistry;
 
 import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 
 import org.junit.After;
@@ -15,12 +20,18 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 
 import extentions.PerformanceLogger;
 import libs.security.providers.UniqueIdProvider;
 import libs.security.vault.cipher.Cipher;
+import libs.security.vault.cipher.CipherV2AesGcm;
+import libs.security.vault.cipher.SessionKeyCache;
 import libs.security.vault.storage.Keychain;
+import libs.security.vault.storage.SqliteStorage;
+import libs.security.vault.storage.VaultMetadata;
 
 @RunWith(AndroidJUnit4.class)
 public class VaultMangerTest {
@@ -136,6 +147,149 @@ public class VaultMangerTest {
     }
 
 
+    @Test
+    public void CreateVaultTimingsTest() throws Exception {
+        Assert.assertTrue(vaultManager.createVault(
+                VAULT_NAME,
+                VAULT_DATA,
+                VAULT_KEY
+        ));
+
+        final WritableMap timings = vaultManager.getOperationTimings().getMap("create_vault");
+
+        // every stage should be recorded, durations depend on the device so they are not compared
+        Assert.assertNotNull(timings);
+        for (String stage : new String[]{"encrypt", "keychain_write", "verify", StageTimer.TOTAL}) {
+            Assert.assertTrue(timings.hasKey(stage));
+            Assert.assertTrue(timings.getDouble(stage) >= 0);
+        }
+    }
+
+    @Test
+    public void OpenVaultTimingsTest() throws Exception {
+        Assert.assertTrue(vaultManager.createVault(
+                VAULT_NAME,
+                VAULT_DATA,
+                VAULT_KEY
+        ));
+
+        // simulate a cold start, the work factor of the created vault is read from the keychain
+        // NOTE: also drops cached passcode hashes, so the key derivation runs next to the keychain read
+        SessionKeyCache.sharedInstance().reset();
+
+        performanceLogger.start("OPEN_VAULT_PIPELINED");
+        Assert.assertEquals(VAULT_DATA, vaultManager.openVault(
+                VAULT_NAME,
+                VAULT_KEY,
+                false
+        ));
+        performanceLogger.end("OPEN_VAULT_PIPELINED");
+
+        final WritableMap timings = vaultManager.getOperationTimings().getMap("open_vault");
+
+        // every stage should be recorded, durations depend on the device so they are not compared
+        Assert.assertNotNull(timings);
+        for (String stage : new String[]{"keychain_read", "passcode_kdf", "decrypt", StageTimer.TOTAL}) {
+            Assert.assertTrue(timings.hasKey(stage));
+            Assert.assertTrue(timings.getDouble(stage) >= 0);
+        }
+    }
+
+    @Test
+    public void OpenVaultsTest() throws Exception {
+        final String vaultName1 = String.format("%s%s", VAULT_NAME, "1");
+        final String vaultName2 = String.format("%s%s", VAULT_NAME, "2");
+        final String vaultNameMissing = String.format("%s%s", VAULT_NAME, "MISSING");
+
+        Assert.assertTrue(vaultManager.createVault(vaultName1, VAULT_DATA, VAULT_KEY));
+        // only recovery vault is available for the second vault
+        Assert.assertTrue(vaultManager.createVault(VaultManagerModule.getRecoveryVaultName(vaultName2), VAULT_DATA, VAULT_KEY));
+
+        vaultManager.lockSession();
+
+        performanceLogger.start("OPEN_VAULTS");
+        final WritableMap results = vaultManager.openVaults(
+                Arrays.asList(vaultName1, vaultName2, vaultNameMissing),
+                VAULT_KEY,
+                true
+        );
+        performanceLogger.end("OPEN_VAULTS");
+
+        Assert.assertEquals(VAULT_DATA, results.getMap(vaultName1).getString("clear_text"));
+        Assert.assertEquals(VAULT_DATA, results.getMap(vaultName2).getString("clear_text"));
+        Assert.assertFalse(results.getMap(vaultNameMissing).hasKey("clear_text"));
+        Assert.assertEquals("VAULT_NOT_EXIST", results.getMap(vaultNameMissing).getString("error"));
+
+        // recovered vault should be restored under the original name
+        Assert.assertNotNull(keychain.getItem(vaultName2));
+        Assert.assertNull(keychain.getItem(VaultManagerModule.getRecoveryVaultName(vaultName2)));
+
+        // wrong key should fail every vault without throwing
+        final WritableMap wrongKeyResults = vaultManager.openVaults(
+                Arrays.asList(vaultName1, vaultName2),
+                VAULT_NEW_KEY,
+                false
+        );
+        Assert.assertTrue(wrongKeyResults.getMap(vaultName1).hasKey("error"));
+        Assert.assertTrue(wrongKeyResults.getMap(vaultName2).hasKey("error"));
+    }
+
+    @Test
+    public void VaultIndexTest() throws Exception {
+        final String vaultName1 = String.format("%s%s", VAULT_NAME, "1");
+        final String vaultName2 = String.format("%s%s", VAULT_NAME, "2");
+
+        Assert.assertTrue(vaultManager.createVault(vaultName1, VAULT_DATA, VAULT_KEY));
+        Assert.assertTrue(vaultManager.createVault(vaultName2, VAULT_DATA, VAULT_KEY));
+        // not a vault, should not be listed
+        Assert.assertNotNull(vaultManager.getStorageEncryptionKey());
+
+        // metadata should be stored with the vault
+        final VaultMetadata metadata = keychain.getMetadata(vaultName1);
+        Assert.assertNotNull(metadata);
+        Assert.assertEquals(Cipher.getLatestCipherVersion(), metadata.cipherVersion);
+        Assert.assertTrue(metadata.createdAt > 0);
+        Assert.assertEquals(metadata.createdAt, metadata.updatedAt);
+
+        performanceLogger.start("LIST_VAULTS");
+        final WritableArray vaults = vaultManager.listVaults();
+        performanceLogger.end("LIST_VAULTS");
+
+        Assert.assertEquals(2, vaults.size());
+        Assert.assertEquals(vaultName1, vaults.getMap(0).getString("vault"));
+        Assert.assertEquals(vaultName2, vaults.getMap(1).getString("vault"));
+        Assert.assertFalse(vaults.getMap(0).getBoolean("migration_required"));
+
+        // vaults stored without metadata should be indexed on first access
+        final Map<String, Object> legacyCipherResult = CipherV2AesGcm.encrypt(VAULT_DATA, VAULT_KEY);
+        keychain.deleteItem(vaultName2);
+        keychain.setItem(
+                vaultName2,
+                ((Cipher.DerivedKeys) legacyCipherResult.get("derived_keys")).toJSONString(),
+                (String) legacyCipherResult.get("cipher")
+        );
+        // simulate an entry which has been stored before the index
+        final ContentValues noMetadata = new ContentValues();
+        noMetadata.putNull(SqliteStorage.COLUMN_METADATA);
+        try (SQLiteDatabase db = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .openOrCreateDatabase(SqliteStorage.DATABASE_NAME, Context.MODE_PRIVATE, null)) {
+            db.update(SqliteStorage.TABLE_ENTRIES, noMetadata, SqliteStorage.COLUMN_ALIAS + " = ?", new String[]{vaultName2});
+        }
+        Assert.assertNull(keychain.getMetadata(vaultName2));
+        Assert.assertTrue(vaultManager.vaultExist(vaultName2));
+
+        final WritableMap migrationRequiredResult = vaultManager.isMigrationRequired(vaultName2);
+        Assert.assertEquals(2, migrationRequiredResult.getInt("current_cipher_version"));
+        Assert.assertTrue(migrationRequiredResult.getBoolean("migration_required"));
+        Assert.assertEquals(2, keychain.getMetadata(vaultName2).cipherVersion);
+
+        // metadata should be removed with the vault
+        Assert.assertTrue(vaultManager.purgeVault(vaultName1));
+        Assert.assertNull(keychain.getMetadata(vaultName1));
+        Assert.assertFalse(vaultManager.vaultExist(vaultName1));
+        Assert.assertEquals(1, vaultManager.listVaults().size());
+    }
+
     @Test
     public void VaultRecoveryTest() throws Exception {
         // check if vault && recovery vault is not exist
@@ -236,6 +390,264 @@ public class VaultMangerTest {
         }
     }
 
+    @Test
+    public void VaultReKeyBatchDuplicateTest() throws Exception {
+        Assert.assertTrue(vaultManager.createVault(VAULT_NAME, VAULT_DATA, VAULT_KEY));
+
+        // same vault twice in the batch should be re-keyed once
+        ArrayList<String> vaults = new ArrayList<>();
+        vaults.add(VAULT_NAME);
+        vaults.add(VAULT_NAME);
+        Assert.assertTrue(vaultManager.reKeyBatchVaults(vaults, VAULT_KEY, VAULT_NEW_KEY));
+
+        Assert.assertEquals(VAULT_DATA, vaultManager.openVault(VAULT_NAME, VAULT_NEW_KEY, false));
+        Assert.assertNull(keychain.getItem(VAULT_NAME_RECOVERY));
+    }
+
+
+    @Test
+    public void VaultReKeyBatchRecoveryTest() throws Exception {
+        ReactApplicationContext context = new ReactApplicationContext(
+                InstrumentationRegistry.getInstrumentation().getTargetContext()
+        );
+        ReKeyJournal journal = new ReKeyJournal(context);
+
+        // create the vault
+        Assert.assertTrue(vaultManager.createVault(
+                VAULT_NAME,
+                VAULT_DATA,
+                VAULT_KEY
+        ));
+
+        // simulate a batch which has been interrupted while swapping the vaults
+        Map<String, String> item = keychain.getItem(VAULT_NAME);
+        ReKeyJournal.Entry entry = journal.begin(Collections.singletonList(VAULT_NAME));
+        keychain.setItem(VAULT_NAME_RECOVERY, item.get("username"), item.get("password"));
+        journal.markBackedUp(entry, VAULT_NAME);
+        journal.setState(entry, ReKeyJournal.State.SWAP);
+        vaultManager.purgeVault(VAULT_NAME);
+        vaultManager.createVault(VAULT_NAME, VAULT_DATA, VAULT_NEW_KEY);
+
+        // initiating the module should rollback the interrupted batch
+        performanceLogger.start("VAULT_BATCH_RE_KEY_RECOVER");
+        VaultManagerModule recoveredVaultManager = new VaultManagerModule(context);
+        performanceLogger.end("VAULT_BATCH_RE_KEY_RECOVER");
+
+        // vault should be restored and opened with the old key
+        Assert.assertEquals(VAULT_DATA, recoveredVaultManager.openVault(
+                VAULT_NAME,
+                VAULT_KEY,
+                false
+        ));
+
+        // the recovery vault and journal should be removed
+        Assert.assertNull(keychain.getItem(VAULT_NAME_RECOVERY));
+        Assert.assertNull(journal.read());
+    }
+
+    @Test
+    public void VaultReKeyBatchUnmarkedBackupRecoveryTest() throws Exception {
+        ReactApplicationContext context = new ReactApplicationContext(
+                InstrumentationRegistry.getInstrumentation().getTargetContext()
+        );
+        ReKeyJournal journal = new ReKeyJournal(context);
+
+        Assert.assertTrue(vaultManager.createVault(VAULT_NAME, VAULT_DATA, VAULT_KEY));
+
+        // simulate a process death after storing the recovery copy, before marking it as backed up
+        Map<String, String> item = keychain.getItem(VAULT_NAME);
+        journal.begin(Collections.singletonList(VAULT_NAME));
+        keychain.setItem(VAULT_NAME_RECOVERY, item.get("username"), item.get("password"));
+
+        // initiating the module should rollback the batch and remove the copy with the old key
+        VaultManagerModule recoveredVaultManager = new VaultManagerModule(context);
+
+        Assert.assertEquals(VAULT_DATA, recoveredVaultManager.openVault(VAULT_NAME, VAULT_KEY, false));
+        Assert.assertNull(keychain.getItem(VAULT_NAME_RECOVERY));
+        Assert.assertNull(journal.read());
+    }
+
+
+    @Test
+    public void MigrateAllVaultsTest() throws Exception {
+        ReactApplicationContext context = new ReactApplicationContext(
+                InstrumentationRegistry.getInstrumentation().getTargetContext()
+        );
+
+        ArrayList<String> vaults = new ArrayList<>();
+        vaults.add(String.format("%s%s", VAULT_NAME, "1"));
+        vaults.add(String.format("%s%s", VAULT_NAME, "2"));
+        vaults.add(String.format("%s%s", VAULT_NAME, "3"));
+
+        // create the vaults with the legacy cipher
+        for (String vaultName : vaults) {
+            final Map<String, Object> legacyCipherResult = CipherV2AesGcm.encrypt(VAULT_DATA, VAULT_KEY);
+            keychain.setItem(
+                    vaultName,
+                    ((Cipher.DerivedKeys) legacyCipherResult.get("derived_keys")).toJSONString(),
+                    (String) legacyCipherResult.get("cipher"),
+                    CipherV2AesGcm.getCipherVersion()
+            );
+        }
+
+        // no migration in progress
+        Assert.assertNull(vaultManager.getMigrationStatus());
+
+        // simulate a migration which has been interrupted after the first vault
+        VaultMigrator migrator = new VaultMigrator(context, new ReKeyEngine(keychain, new ReKeyJournal(context)));
+        try {
+            migrator.migrate(vaults, VAULT_KEY, (vaultName, checkpoint, error) -> {
+                throw new RuntimeException("PROCESS_DEATH");
+            });
+            Assert.fail("migration should be interrupted");
+        } catch (RuntimeException ignored) {
+        }
+
+        final WritableMap status = vaultManager.getMigrationStatus();
+        Assert.assertNotNull(status);
+        Assert.assertEquals(1, status.getInt("migrated"));
+        Assert.assertEquals(3, status.getInt("total"));
+
+        // migration should continue from the checkpoint
+        performanceLogger.start("VAULT_MIGRATE_ALL");
+        final WritableMap result = vaultManager.migrateAllVaults(VAULT_KEY);
+        performanceLogger.end("VAULT_MIGRATE_ALL");
+
+        Assert.assertEquals(3, result.getInt("migrated"));
+        Assert.assertEquals(3, result.getInt("total"));
+        Assert.assertNull(vaultManager.getMigrationStatus());
+
+        // all vaults should be migrated to the latest cipher and opened with the same key
+        for (String vaultName : vaults) {
+            Assert.assertFalse(vaultManager.isMigrationRequired(vaultName).getBoolean("migration_required"));
+            Assert.assertEquals(VAULT_DATA, vaultManager.openVault(vaultName, VAULT_KEY, false));
+            Assert.assertNull(keychain.getItem(VaultManagerModule.getRecoveryVaultName(vaultName)));
+        }
+
+        // nothing left to migrate
+        Assert.assertEquals(0, vaultManager.migrateAllVaults(VAULT_KEY).getInt("total"));
+    }
+
+    @Test
+    public void MigrateAllVaultsFailureTest() throws Exception {
+        ReactApplicationContext context = new ReactApplicationContext(
+                InstrumentationRegistry.getInstrumentation().getTargetContext()
+        );
+
+        final String failingVaultName = String.format("%s%s", VAULT_NAME, "1");
+        final String vaultName = String.format("%s%s", VAULT_NAME, "2");
+        final String removedVaultName = String.format("%s%s", VAULT_NAME, "3");
+        final String otherKeyVaultName = String.format("%s%s", VAULT_NAME, "4");
+
+        // create the vaults with the legacy cipher, last vault is encrypted with another key (e.g. passphrase)
+        for (String name : Arrays.asList(failingVaultName, vaultName, removedVaultName, otherKeyVaultName)) {
+            final Map<String, Object> legacyCipherResult = CipherV2AesGcm.encrypt(
+                    VAULT_DATA,
+                    name.equals(otherKeyVaultName) ? VAULT_NEW_KEY : VAULT_KEY
+            );
+            keychain.setItem(
+                    name,
+                    ((Cipher.DerivedKeys) legacyCipherResult.get("derived_keys")).toJSONString(),
+                    (String) legacyCipherResult.get("cipher"),
+                    CipherV2AesGcm.getCipherVersion()
+            );
+        }
+
+        // vault which fails on every run
+        keychain.setItem(
+                failingVaultName,
+                keychain.getItem(failingVaultName).get("username"),
+                "INVALID_CIPHER",
+                CipherV2AesGcm.getCipherVersion()
+        );
+
+        // failure should not stop the migration, simulate a process death after the next vault
+        final ArrayList<String> failures = new ArrayList<>();
+        VaultMigrator migrator = new VaultMigrator(context, new ReKeyEngine(keychain, new ReKeyJournal(context)));
+        try {
+            migrator.migrate(Arrays.asList(failingVaultName, vaultName, removedVaultName), VAULT_KEY,
+                    (name, checkpoint, error) -> {
+                        if (error != null) {
+                            failures.add(name);
+                            return;
+                        }
+                        throw new RuntimeException("PROCESS_DEATH");
+                    });
+            Assert.fail("migration should be interrupted");
+        } catch (RuntimeException ignored) {
+        }
+
+        Assert.assertEquals(Collections.singletonList(failingVaultName), failures);
+
+        final WritableMap status = vaultManager.getMigrationStatus();
+        Assert.assertNotNull(status);
+        Assert.assertEquals(1, status.getInt("migrated"));
+        Assert.assertEquals(1, status.getInt("failed"));
+        Assert.assertEquals(3, status.getInt("total"));
+
+        vaultManager.purgeVault(removedVaultName);
+
+        // vaults which can not be opened with the key are not queued, removed vault should not count as migrated
+        final WritableMap result = vaultManager.migrateAllVaults(VAULT_KEY);
+
+        Assert.assertEquals(1, result.getInt("migrated"));
+        Assert.assertEquals(2, result.getInt("skipped"));
+        Assert.assertEquals(0, result.getInt("failed"));
+        Assert.assertEquals(3, result.getInt("total"));
+        Assert.assertNull(vaultManager.getMigrationStatus());
+
+        Assert.assertFalse(vaultManager.isMigrationRequired(vaultName).getBoolean("migration_required"));
+        Assert.assertTrue(vaultManager.isMigrationRequired(otherKeyVaultName).getBoolean("migration_required"));
+        Assert.assertEquals(VAULT_DATA, vaultManager.openVault(otherKeyVaultName, VAULT_NEW_KEY, false));
+    }
+
+    @Test
+    public void VaultMetricsTest() throws Exception {
+        vaultManager.resetVaultMetrics();
+        Assert.assertTrue(VaultMetrics.sharedInstance().getHistograms().isEmpty());
+
+        // create and open a vault with the latest cipher
+        Assert.assertTrue(vaultManager.createVault(VAULT_NAME, VAULT_DATA, VAULT_KEY));
+        Assert.assertEquals(VAULT_DATA, vaultManager.openVault(VAULT_NAME, VAULT_KEY, false));
+
+        // open a vault with the legacy cipher
+        final String legacyVaultName = String.format("%s%s", VAULT_NAME, "_LEGACY");
+        final Map<String, Object> legacyCipherResult = CipherV2AesGcm.encrypt(VAULT_DATA, VAULT_KEY);
+        keychain.setItem(
+                legacyVaultName,
+                ((Cipher.DerivedKeys) legacyCipherResult.get("derived_keys")).toJSONString(),
+                (String) legacyCipherResult.get("cipher"),
+                CipherV2AesGcm.getCipherVersion()
+        );
+        Assert.assertEquals(VAULT_DATA, vaultManager.openVault(legacyVaultName, VAULT_KEY, false));
+
+        final Map<String, VaultMetrics.Histogram> histograms = VaultMetrics.sharedInstance().getHistograms();
+
+        // operation stages
+        Assert.assertEquals(1, histograms.get("create_vault.total").count);
+        Assert.assertEquals(2, histograms.get("open_vault.total").count);
+
+        // stages should be labeled per cipher version and cipher storage
+        final String latestVersion = "v" + Cipher.getLatestCipherVersion();
+        final String legacyVersion = "v" + CipherV2AesGcm.getCipherVersion();
+        Assert.assertTrue(histograms.containsKey("cipher_encrypt." + latestVersion));
+        Assert.assertTrue(histograms.containsKey("passcode_hash." + latestVersion));
+        Assert.assertTrue(histograms.containsKey("aes_gcm_decrypt." + latestVersion));
+        Assert.assertTrue(histograms.containsKey("cipher_decrypt." + legacyVersion));
+        Assert.assertTrue(histograms.containsKey("encr_key." + legacyVersion));
+        Assert.assertTrue(histograms.containsKey("keystore_decrypt." + Keychain.KnownCiphers.ENVELOPE_FRAMED));
+        Assert.assertTrue(histograms.containsKey("storage_read." + SqliteStorage.STORAGE_NAME));
+        Assert.assertTrue(histograms.containsKey("storage_write." + SqliteStorage.STORAGE_NAME));
+        Assert.assertTrue(histograms.containsKey("device_id"));
+
+        // metrics should be reported to JS with the bucket bounds
+        final WritableMap metrics = vaultManager.getVaultMetrics();
+        Assert.assertEquals(VaultMetrics.BUCKET_BOUNDS.length, metrics.getArray("bucket_bounds").size());
+        Assert.assertEquals(
+                VaultMetrics.BUCKET_BOUNDS.length + 1,
+                metrics.getMap("stages").getMap("open_vault.total").getArray("buckets").size()
+        );
+    }
 
     @Test
     public void StorageEncryptionKeyTest() throws Exception {
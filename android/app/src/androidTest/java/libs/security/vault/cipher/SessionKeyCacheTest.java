@@ -0,0 +1,51 @@
+package libs.security.vault.cipher;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import libs.security.crypto.Crypto;
+
+@RunWith(AndroidJUnit4.class)
+public class SessionKeyCacheTest {
+    static final String PASSCODE = "Secret Key";
+    static final int ITERATIONS = 1000;
+
+    @Test
+    public void LockDuringDerivationTest() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // derivation which waits until the session has been locked
+        final SessionKeyCache sessionKeyCache = new SessionKeyCache((password, salt, iterations) -> {
+            started.countDown();
+            if (!release.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Derivation has not been released");
+            }
+            return Crypto.PBKDF2(password, salt, iterations);
+        });
+        final byte[] salt = new byte[SessionKeyCache.PASSCODE_SALT_LENGTH];
+
+        final FutureTask<byte[]> derivation = new FutureTask<>(() -> sessionKeyCache.getPasscodeHash(PASSCODE, salt, ITERATIONS));
+        new Thread(derivation).start();
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        sessionKeyCache.lock();
+        release.countDown();
+
+        // result of the locked session should be returned, but not cached
+        Assert.assertNotNull(derivation.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, sessionKeyCache.getCachedCount());
+
+        // derivations of the new session should be cached
+        sessionKeyCache.getPasscodeHash(PASSCODE, salt, ITERATIONS);
+        Assert.assertEquals(1, sessionKeyCache.getCachedCount());
+        sessionKeyCache.lock();
+    }
+}
@@ -0,0 +1,340 @@
+package libs.security.vault.storage;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import libs.security.vault.exceptions.CryptoFailedException;
+import libs.security.vault.storage.cipherStorage.CipherStorage;
+import libs.security.vault.storage.cipherStorage.CipherStorage.EncryptionResult;
+import libs.security.vault.storage.cipherStorage.CipherStorageKeystoreAesGcm;
+import libs.security.vault.storage.cipherStorage.CipherStorageKeystoreEnvelope;
+import libs.security.vault.storage.cipherStorage.CipherStorageKeystoreEnvelopeFramed;
+
+import extentions.PerformanceLogger;
+
+@RunWith(AndroidJUnit4.class)
+public class CipherStorageTest {
+    static final String ITEM_NAME = "ITEM_TEST";
+    static final String ITEM_USERNAME = "ITEM_TEST_USERNAME";
+    static final String ITEM_PASSWORD = "ITEM_TEST_PASSWORD";
+    static final String DATABASE_NAME = "RN_KEYCHAIN_CIPHER_TEST.db";
+    static final String MASTER_KEY_ALIAS = "RN_KEYCHAIN_TEST_MASTER_KEY";
+
+    private static final PerformanceLogger performanceLogger = new PerformanceLogger(
+            "CipherStorageTestReport"
+    );
+
+    private Context context;
+    private SqliteStorage storage;
+    private Keychain keychain;
+
+    @Before
+    public void beforeEach() throws Exception {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        // own storage and master key, the keychain of the app is never touched
+        context.deleteDatabase(DATABASE_NAME);
+        storage = new SqliteStorage(context, DATABASE_NAME);
+        keychain = new Keychain(storage, MASTER_KEY_ALIAS);
+    }
+
+    @After
+    public void afterEach() throws Exception {
+        keychain.clear();
+        storage.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void EnvelopeTest() throws Exception {
+        final CipherStorageKeystoreEnvelope envelope = new CipherStorageKeystoreEnvelope(MASTER_KEY_ALIAS);
+
+        final EncryptionResult result = envelope.encrypt(ITEM_NAME, ITEM_USERNAME, ITEM_PASSWORD);
+        Assert.assertEquals(Keychain.KnownCiphers.ENVELOPE, result.cipherName);
+        Assert.assertEquals(
+                ITEM_PASSWORD,
+                envelope.decrypt(ITEM_NAME, result.username, result.password).password
+        );
+
+        // items should only use the master key
+        Assert.assertTrue(envelope.getAllKeys().contains(MASTER_KEY_ALIAS));
+        Assert.assertFalse(envelope.getAllKeys().contains(ITEM_NAME));
+
+        // wrapped data key should be bound to the alias
+        try {
+            envelope.decrypt(ITEM_NAME + "2", result.username, result.password);
+            Assert.fail("Decrypted the item with another alias");
+        } catch (CryptoFailedException ignored) {
+        }
+
+        // should be readable by another instance
+        Assert.assertEquals(
+                ITEM_USERNAME,
+                new CipherStorageKeystoreEnvelope(MASTER_KEY_ALIAS).decrypt(ITEM_NAME, result.username, result.password).username
+        );
+    }
+
+    @Test
+    public void EnvelopeFramedTest() throws Exception {
+        final CipherStorageKeystoreEnvelopeFramed framed = new CipherStorageKeystoreEnvelopeFramed(MASTER_KEY_ALIAS);
+
+        // both fields should be stored in a single frame
+        final EncryptionResult result = framed.encrypt(ITEM_NAME, ITEM_USERNAME, ITEM_PASSWORD);
+        Assert.assertEquals(Keychain.KnownCiphers.ENVELOPE_FRAMED, result.cipherName);
+        Assert.assertEquals(0, result.password.length);
+
+        final CipherStorage.DecryptionResult decryptionResult = framed.decrypt(ITEM_NAME, result.username, result.password);
+        Assert.assertEquals(ITEM_USERNAME, decryptionResult.username);
+        Assert.assertEquals(ITEM_PASSWORD, decryptionResult.password);
+
+        // empty fields should survive the frame
+        final EncryptionResult emptyResult = framed.encrypt(ITEM_NAME, "", "");
+        Assert.assertEquals("", framed.decrypt(ITEM_NAME, emptyResult.username, emptyResult.password).username);
+        Assert.assertEquals("", framed.decrypt(ITEM_NAME, emptyResult.username, emptyResult.password).password);
+
+        // tampered frame should not decrypt
+        final byte[] tampered = result.username.clone();
+        tampered[tampered.length - 1] ^= 1;
+        try {
+            framed.decrypt(ITEM_NAME, tampered, result.password);
+            Assert.fail("Decrypted a tampered frame");
+        } catch (CryptoFailedException ignored) {
+        }
+    }
+
+    @Test
+    public void LegacyItemTest() throws Exception {
+        final CipherStorageKeystoreAesGcm aesGcm = new CipherStorageKeystoreAesGcm();
+
+        // item stored with a key per alias
+        final long now = System.currentTimeMillis();
+        storage.storeEncryptedEntry(
+                ITEM_NAME,
+                aesGcm.encrypt(ITEM_NAME, ITEM_USERNAME, ITEM_PASSWORD),
+                new VaultMetadata(ITEM_NAME, VaultMetadata.NO_CIPHER_VERSION, now, now, Keychain.KnownCiphers.AESGCM)
+        );
+        Assert.assertTrue(aesGcm.getAllKeys().contains(ITEM_NAME));
+
+        // reading the item should move it to the latest cipher storage and remove its key
+        Map<String, String> item = keychain.getItem(ITEM_NAME);
+        Assert.assertEquals(ITEM_PASSWORD, item.get("password"));
+        Assert.assertEquals(Keychain.KnownCiphers.ENVELOPE_FRAMED, keychain.getMetadata(ITEM_NAME).cipherStorageName);
+        Assert.assertEquals(now, keychain.getMetadata(ITEM_NAME).createdAt);
+        Assert.assertEquals(now, keychain.getMetadata(ITEM_NAME).updatedAt);
+        Assert.assertFalse(aesGcm.getAllKeys().contains(ITEM_NAME));
+
+        item = keychain.getItem(ITEM_NAME);
+        Assert.assertEquals(ITEM_USERNAME, item.get("username"));
+        Assert.assertEquals(ITEM_PASSWORD, item.get("password"));
+
+        // clear should remove the master key
+        keychain.clear();
+        Assert.assertFalse(aesGcm.getAllKeys().contains(MASTER_KEY_ALIAS));
+        Assert.assertNull(keychain.getItem(ITEM_NAME));
+    }
+
+    @Test
+    public void LegacyItemWithoutMetadataTest() throws Exception {
+        final CipherStorageKeystoreAesGcm aesGcm = new CipherStorageKeystoreAesGcm();
+
+        // item stored with a key per alias before the index, e.g. the device unique id
+        final long now = System.currentTimeMillis();
+        storage.storeEncryptedEntry(
+                ITEM_NAME,
+                aesGcm.encrypt(ITEM_NAME, ITEM_USERNAME, ITEM_PASSWORD),
+                new VaultMetadata(ITEM_NAME, VaultMetadata.NO_CIPHER_VERSION, now, now, Keychain.KnownCiphers.AESGCM)
+        );
+        final ContentValues noMetadata = new ContentValues();
+        noMetadata.putNull(SqliteStorage.COLUMN_METADATA);
+        try (SQLiteDatabase db = context.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null)) {
+            db.update(SqliteStorage.TABLE_ENTRIES, noMetadata, SqliteStorage.COLUMN_ALIAS + " = ?", new String[]{ITEM_NAME});
+        }
+        Assert.assertNull(keychain.getMetadata(ITEM_NAME));
+
+        // reading the item should move it to the latest cipher storage, cipher version is left for the owner to index
+        Assert.assertEquals(ITEM_PASSWORD, keychain.getItem(ITEM_NAME).get("password"));
+
+        final VaultMetadata metadata = keychain.getMetadata(ITEM_NAME);
+        Assert.assertNotNull(metadata);
+        Assert.assertEquals(Keychain.KnownCiphers.ENVELOPE_FRAMED, metadata.cipherStorageName);
+        Assert.assertFalse(metadata.isIndexed());
+        Assert.assertFalse(aesGcm.getAllKeys().contains(ITEM_NAME));
+
+        keychain.indexItem(ITEM_NAME, VaultMetadata.NO_CIPHER_VERSION);
+        Assert.assertTrue(keychain.getMetadata(ITEM_NAME).isIndexed());
+        Assert.assertEquals(ITEM_USERNAME, keychain.getItem(ITEM_NAME).get("username"));
+    }
+
+    @Test
+    public void ConcurrentAccessTest() throws Exception {
+        final CipherStorageKeystoreAesGcm aesGcm = new CipherStorageKeystoreAesGcm();
+        final int itemCount = 8;
+        final int threadCount = 16;
+        final int iterations = 200;
+
+        // half of the items stored with a key per alias, they get migrated while being read
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < itemCount; i++) {
+            final String alias = ITEM_NAME + i;
+            if (i % 2 == 0) {
+                keychain.setItem(alias, ITEM_USERNAME + i, ITEM_PASSWORD + i);
+            } else {
+                storage.storeEncryptedEntry(
+                        alias,
+                        aesGcm.encrypt(alias, ITEM_USERNAME + i, ITEM_PASSWORD + i),
+                        new VaultMetadata(alias, VaultMetadata.NO_CIPHER_VERSION, now, now, Keychain.KnownCiphers.AESGCM)
+                );
+            }
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount + 1);
+        final List<Future<?>> futures = new ArrayList<>();
+
+        // readers, every read should return the value of its own item
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    final int index = (offset + i) % itemCount;
+                    final Map<String, String> item = keychain.getItem(ITEM_NAME + index);
+                    Assert.assertEquals(ITEM_USERNAME + index, item.get("username"));
+                    Assert.assertEquals(ITEM_PASSWORD + index, item.get("password"));
+                }
+                return null;
+            }));
+        }
+
+        // writer on other items, from another keychain instance
+        final Keychain writer = new Keychain(storage, MASTER_KEY_ALIAS);
+        futures.add(executor.submit(() -> {
+            for (int i = 0; i < iterations / 4; i++) {
+                writer.setItem(ITEM_NAME + "_WRITE", ITEM_USERNAME, ITEM_PASSWORD + i);
+                Assert.assertEquals(ITEM_PASSWORD + i, writer.getItem(ITEM_NAME + "_WRITE").get("password"));
+            }
+            return null;
+        }));
+
+        performanceLogger.start("CONCURRENT_READS_" + threadCount * iterations);
+        for (Future<?> future : futures) {
+            future.get(120, TimeUnit.SECONDS);
+        }
+        performanceLogger.end("CONCURRENT_READS_" + threadCount * iterations);
+        executor.shutdown();
+
+        // all items should be migrated without losing any value
+        for (int i = 0; i < itemCount; i++) {
+            Assert.assertEquals(Keychain.KnownCiphers.ENVELOPE_FRAMED, keychain.getMetadata(ITEM_NAME + i).cipherStorageName);
+            Assert.assertEquals(ITEM_PASSWORD + i, keychain.getItem(ITEM_NAME + i).get("password"));
+            Assert.assertFalse(aesGcm.getAllKeys().contains(ITEM_NAME + i));
+        }
+    }
+
+    @Test
+    public void BatchTest() throws Exception {
+        final CipherStorageKeystoreAesGcm aesGcm = new CipherStorageKeystoreAesGcm();
+        final List<String> aliases = new ArrayList<>();
+
+        // mix of latest and legacy items
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            final String alias = ITEM_NAME + i;
+            aliases.add(alias);
+            if (i % 3 == 0) {
+                storage.storeEncryptedEntry(
+                        alias,
+                        aesGcm.encrypt(alias, ITEM_USERNAME + i, ITEM_PASSWORD + i),
+                        new VaultMetadata(alias, VaultMetadata.NO_CIPHER_VERSION, now, now, Keychain.KnownCiphers.AESGCM)
+                );
+            } else {
+                keychain.setItem(alias, ITEM_USERNAME + i, ITEM_PASSWORD + i);
+            }
+        }
+
+        // all items should be read at once, missing items map to null
+        final List<String> requested = new ArrayList<>(aliases);
+        requested.add(ITEM_NAME + "_MISSING");
+        final Map<String, Map<String, String>> items = keychain.getItems(requested);
+        Assert.assertEquals(requested.size(), items.size());
+        Assert.assertNull(items.get(ITEM_NAME + "_MISSING"));
+        for (int i = 0; i < aliases.size(); i++) {
+            Assert.assertEquals(ITEM_USERNAME + i, items.get(aliases.get(i)).get("username"));
+            Assert.assertEquals(ITEM_PASSWORD + i, items.get(aliases.get(i)).get("password"));
+            Assert.assertEquals(Keychain.KnownCiphers.ENVELOPE_FRAMED, keychain.getMetadata(aliases.get(i)).cipherStorageName);
+        }
+
+        // legacy item which has not been read yet, its key should be removed with it
+        storage.storeEncryptedEntry(
+                ITEM_NAME + "_LEGACY",
+                aesGcm.encrypt(ITEM_NAME + "_LEGACY", ITEM_USERNAME, ITEM_PASSWORD),
+                new VaultMetadata(ITEM_NAME + "_LEGACY", VaultMetadata.NO_CIPHER_VERSION, now, now, Keychain.KnownCiphers.AESGCM)
+        );
+
+        final List<String> deleted = new ArrayList<>(aliases.subList(0, 5));
+        deleted.add(ITEM_NAME + "_LEGACY");
+        deleted.add(ITEM_NAME + "_MISSING");
+        keychain.deleteItems(deleted);
+
+        for (String alias : deleted) {
+            Assert.assertFalse(keychain.itemExist(alias));
+        }
+        Assert.assertFalse(aesGcm.getAllKeys().contains(ITEM_NAME + "_LEGACY"));
+        Assert.assertEquals(5, keychain.getAllItems().size());
+    }
+
+    @Test
+    public void StaleKeyHandleTest() throws Exception {
+        final CipherStorageKeystoreAesGcm aesGcm = new CipherStorageKeystoreAesGcm();
+        final CipherStorageKeystoreEnvelopeFramed framed = new CipherStorageKeystoreEnvelopeFramed(MASTER_KEY_ALIAS);
+
+        // cache the key handles
+        aesGcm.encrypt(ITEM_NAME, ITEM_USERNAME, ITEM_PASSWORD);
+        final EncryptionResult staleResult = framed.encrypt(ITEM_NAME, ITEM_USERNAME, ITEM_PASSWORD);
+
+        // remove the keys behind the cached handles, without going through the cipher storage
+        final KeyStore keyStore = aesGcm.getKeyStoreAndLoad();
+        keyStore.deleteEntry(ITEM_NAME);
+        keyStore.deleteEntry(MASTER_KEY_ALIAS);
+
+        // dead handles should be dropped and the operations succeed with new keys
+        final EncryptionResult aesGcmResult = aesGcm.encrypt(ITEM_NAME, ITEM_USERNAME, ITEM_PASSWORD);
+        Assert.assertEquals(ITEM_PASSWORD, aesGcm.decrypt(ITEM_NAME, aesGcmResult.username, aesGcmResult.password).password);
+
+        final EncryptionResult framedResult = framed.encrypt(ITEM_NAME, ITEM_USERNAME, ITEM_PASSWORD);
+        Assert.assertEquals(ITEM_PASSWORD, framed.decrypt(ITEM_NAME, framedResult.username, framedResult.password).password);
+
+        // items of the removed key are lost, but should fail on their own without breaking the alias
+        try {
+            framed.decrypt(ITEM_NAME, staleResult.username, staleResult.password);
+            Assert.fail("Decrypted an item of a removed key");
+        } catch (CryptoFailedException ignored) {
+        }
+        Assert.assertEquals(ITEM_USERNAME, framed.decrypt(ITEM_NAME, framedResult.username, framedResult.password).username);
+
+        aesGcm.removeKey(ITEM_NAME);
+    }
+
+    @AfterClass
+    public static void afterAll() {
+        performanceLogger.log();
+    }
+}
@@ -0,0 +1,174 @@
+package libs.security.vault.storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import libs.security.vault.storage.cipherStorage.CipherStorage.EncryptionResult;
+
+import extentions.PerformanceLogger;
+
+@RunWith(AndroidJUnit4.class)
+public class KeychainStorageTest {
+    static final String PREFS_NAME = "RN_KEYCHAIN_TEST";
+    static final String DATABASE_NAME = "RN_KEYCHAIN_TEST.db";
+    static final String ENTRY_NAME = "ENTRY_TEST";
+    static final int[] BENCHMARK_SIZES = {10, 100, 1000};
+
+    private static final PerformanceLogger performanceLogger = new PerformanceLogger(
+            "KeychainStorageTestReport"
+    );
+
+    private Context context;
+    private PrefsStorage prefsStorage;
+    private SqliteStorage sqliteStorage;
+
+    @Before
+    public void beforeEach() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        prefsStorage = new PrefsStorage(context, PREFS_NAME);
+        prefsStorage.removeEntries(prefsStorage.getAllEntries());
+
+        context.deleteDatabase(DATABASE_NAME);
+        sqliteStorage = new SqliteStorage(context, DATABASE_NAME);
+    }
+
+    @After
+    public void afterEach() {
+        prefsStorage.removeEntries(prefsStorage.getAllEntries());
+        sqliteStorage.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    private static EncryptionResult createEncryptionResult(final SecureRandom random) {
+        final byte[] username = new byte[64];
+        final byte[] password = new byte[256];
+        random.nextBytes(username);
+        random.nextBytes(password);
+        return new EncryptionResult(username, password, Keychain.KnownCiphers.AESGCM);
+    }
+
+    private static VaultMetadata createMetadata(final String alias) {
+        final long now = System.currentTimeMillis();
+        return new VaultMetadata(alias, 4, now, now, Keychain.KnownCiphers.AESGCM);
+    }
+
+    @Test
+    public void MigrationTest() throws Exception {
+        final SecureRandom random = new SecureRandom();
+
+        // legacy entries, one of them stored before the metadata index
+        final EncryptionResult result = createEncryptionResult(random);
+        prefsStorage.storeEncryptedEntry(ENTRY_NAME, result, createMetadata(ENTRY_NAME));
+        prefsStorage.storeEncryptedEntry(ENTRY_NAME + "2", createEncryptionResult(random), createMetadata(ENTRY_NAME + "2"));
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .remove(PrefsStorage.getKeyForMetadata(ENTRY_NAME + "2"))
+                .commit();
+
+        // should move all entries to the sqlite storage
+        Assert.assertSame(sqliteStorage, StorageMigrator.migrate(prefsStorage, sqliteStorage));
+        Assert.assertTrue(prefsStorage.getAllEntries().isEmpty());
+        Assert.assertEquals(2, sqliteStorage.getAllEntries().size());
+
+        final KeychainStorage.ResultSet resultSet = sqliteStorage.getEncryptedEntry(ENTRY_NAME);
+        Assert.assertNotNull(resultSet);
+        Assert.assertArrayEquals(result.username, resultSet.username);
+        Assert.assertArrayEquals(result.password, resultSet.password);
+        Assert.assertEquals(Keychain.KnownCiphers.AESGCM, resultSet.cipherStorageName);
+        Assert.assertEquals(4, sqliteStorage.getMetadata(ENTRY_NAME).cipherVersion);
+
+        // entries without metadata should be migrated without metadata
+        Assert.assertTrue(sqliteStorage.hasEntry(ENTRY_NAME + "2"));
+        Assert.assertNull(sqliteStorage.getMetadata(ENTRY_NAME + "2"));
+
+        // should be a no-op when already migrated
+        Assert.assertSame(sqliteStorage, StorageMigrator.migrate(prefsStorage, sqliteStorage));
+        Assert.assertEquals(2, sqliteStorage.getAllEntries().size());
+
+        // entries left in prefs after an import (failed removal) should never overwrite or bring back sqlite rows
+        final EncryptionResult newer = createEncryptionResult(random);
+        sqliteStorage.storeEncryptedEntry(ENTRY_NAME, newer, createMetadata(ENTRY_NAME));
+        sqliteStorage.removeEntry(ENTRY_NAME + "2");
+        prefsStorage.storeEncryptedEntry(ENTRY_NAME, result, createMetadata(ENTRY_NAME));
+        prefsStorage.storeEncryptedEntry(ENTRY_NAME + "2", createEncryptionResult(random), createMetadata(ENTRY_NAME + "2"));
+
+        Assert.assertSame(sqliteStorage, StorageMigrator.migrate(prefsStorage, sqliteStorage));
+        Assert.assertTrue(prefsStorage.getAllEntries().isEmpty());
+        Assert.assertArrayEquals(newer.username, sqliteStorage.getEncryptedEntry(ENTRY_NAME).username);
+        Assert.assertFalse(sqliteStorage.hasEntry(ENTRY_NAME + "2"));
+
+        // entries should be removed in a single write
+        sqliteStorage.storeEncryptedEntry(ENTRY_NAME + "2", createEncryptionResult(random), createMetadata(ENTRY_NAME + "2"));
+        sqliteStorage.removeEntries(Arrays.asList(ENTRY_NAME, ENTRY_NAME + "2"));
+        Assert.assertFalse(sqliteStorage.hasEntry(ENTRY_NAME));
+        Assert.assertTrue(sqliteStorage.getAllEntries().isEmpty());
+    }
+
+    @Test
+    public void BenchmarkTest() throws Exception {
+        final SecureRandom random = new SecureRandom();
+        final SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        for (int size : BENCHMARK_SIZES) {
+            for (KeychainStorage storage : Arrays.<KeychainStorage>asList(prefsStorage, sqliteStorage)) {
+                final String name = storage.getStorageName().toUpperCase() + "_" + size;
+
+                final List<String> aliases = new ArrayList<>();
+                for (int i = 0; i < size; i++) {
+                    aliases.add(ENTRY_NAME + i);
+                }
+
+                performanceLogger.start(name + "_WRITE");
+                for (String alias : aliases) {
+                    storage.storeEncryptedEntry(alias, createEncryptionResult(random), createMetadata(alias));
+                    // apply() returns before the entry is on disk, wait for it like the sqlite write does
+                    if (storage == prefsStorage) {
+                        Assert.assertTrue(prefs.edit().commit());
+                    }
+                }
+                performanceLogger.end(name + "_WRITE");
+
+                performanceLogger.start(name + "_READ");
+                for (String alias : aliases) {
+                    Assert.assertNotNull(storage.getEncryptedEntry(alias));
+                    Assert.assertNotNull(storage.getMetadata(alias));
+                }
+                performanceLogger.end(name + "_READ");
+
+                performanceLogger.start(name + "_READ_BATCH");
+                Assert.assertEquals(size, storage.getEncryptedEntries(aliases).size());
+                performanceLogger.end(name + "_READ_BATCH");
+
+                performanceLogger.start(name + "_LIST");
+                Assert.assertEquals(size, storage.getAllEntries().size());
+                performanceLogger.end(name + "_LIST");
+
+                performanceLogger.start(name + "_REMOVE");
+                storage.removeEntries(aliases);
+                performanceLogger.end(name + "_REMOVE");
+                Assert.assertTrue(storage.getAllEntries().isEmpty());
+            }
+        }
+    }
+
+    @AfterClass
+    public static void afterAll() {
+        performanceLogger.log();
+    }
+}
@@ -0,0 +1,96 @@
+package libs.security;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Cancellation signal of a running security operation
+ * <p>
+ * The token of the running operation is bound to its thread by the {@link SecurityExecutor} and carried over to the
+ * {@link WorkerPool} tasks it submits, so long running work (e.g. PBKDF2) can check it without passing it around.
+ * Work which is cancelled throws {@link OperationCancelledException}.
+ */
+public class CancellationToken {
+    /**
+     * Token of work which does not run as a cancellable operation, never cancelled
+     */
+    public static final CancellationToken NONE = new CancellationToken(false);
+
+    private static final ThreadLocal<CancellationToken> current = new ThreadLocal<>();
+
+    private final boolean cancellable;
+    private volatile boolean cancelled = false;
+
+    public CancellationToken() {
+        this(true);
+    }
+
+    private CancellationToken(final boolean cancellable) {
+        this.cancellable = cancellable;
+    }
+
+    public void cancel() {
+        if (cancellable) {
+            cancelled = true;
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new OperationCancelledException();
+        }
+    }
+
+    /**
+     * Token bound to the current thread, {@link #NONE} if not running as an operation
+     */
+    @NonNull
+    public static CancellationToken current() {
+        final CancellationToken token = current.get();
+        return token != null ? token : NONE;
+    }
+
+    /**
+     * Bind the token to the current thread, returns the previous token to be restored with {@link #restore}
+     */
+    static CancellationToken bind(@NonNull final CancellationToken token) {
+        final CancellationToken previous = current.get();
+        current.set(token);
+        return previous;
+    }
+
+    static void restore(final CancellationToken previous) {
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Carry the token of the current thread over to the thread which runs the task
+     */
+    @NonNull
+    static <T> Callable<T> propagate(@NonNull final Callable<T> task) {
+        final CancellationToken token = current();
+
+        if (token == NONE) {
+            return task;
+        }
+
+        return () -> {
+            final CancellationToken previous = bind(token);
+            try {
+                token.throwIfCancelled();
+                return task.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+}
@@ -0,0 +1,29 @@
+package libs.security;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Thrown by work which has been cancelled with its {@link CancellationToken}
+ * NOTE: unchecked, so it can leave the PBKDF2 loop, callers often wrap it as cause of their own exception
+ */
+public class OperationCancelledException extends RuntimeException {
+    public OperationCancelledException() {
+        super(SecurityExecutor.ERROR_CANCELLED);
+    }
+
+    /**
+     * Check the exception or any of its causes is a cancellation
+     */
+    public static boolean isCancellation(@Nullable final Throwable throwable) {
+        Throwable cause = throwable;
+
+        while (cause != null) {
+            if (cause instanceof OperationCancelledException) {
+                return true;
+            }
+            cause = cause.getCause();
+        }
+
+        return false;
+    }
+}
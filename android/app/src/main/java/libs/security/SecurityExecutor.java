@@ -0,0 +1,251 @@
+package libs.security;
+
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Promise;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for the promise based methods of the security modules, so they don't block the shared native modules thread
+ * <p>
+ * Operations run in one of four lanes. Interactive, user initiated and background lanes are a single thread, so
+ * operations in the same lane keep their order. Vault lane runs vault operations (e.g. opening a vault) on several
+ * threads, operations on the same vault are serialized by the vault locks while operations on different vaults run in
+ * parallel. User initiated lane runs long operations the user is waiting for (e.g. changing the passcode), so they
+ * never wait behind background operations (e.g. migrating all vaults). Background lane runs with a lower thread
+ * priority, and nothing else waits behind it.
+ * <p>
+ * Operations which are still queued can be cancelled, their promise is rejected with {@link #ERROR_CANCELLED}.
+ * Running operations are signalled through their {@link CancellationToken}, they stop at the next check and reject
+ * their promise with {@link #ERROR_CANCELLED} as well.
+ */
+public class SecurityExecutor {
+    public static final String ERROR_CANCELLED = "CANCELLED";
+
+    public enum Lane {
+        INTERACTIVE(Process.THREAD_PRIORITY_DEFAULT, 1),
+        USER_INITIATED(Process.THREAD_PRIORITY_DEFAULT, 1),
+        BACKGROUND(Process.THREAD_PRIORITY_BACKGROUND, 1),
+        // NOTE: operations in this lane must hold the vault locks, they don't keep their order
+        VAULT(Process.THREAD_PRIORITY_DEFAULT, 4);
+
+        final int threadPriority;
+        final int threads;
+
+        Lane(final int threadPriority, final int threads) {
+            this.threadPriority = threadPriority;
+            this.threads = threads;
+        }
+    }
+
+    /**
+     * Snapshot of the lane counters, durations are in milliseconds
+     */
+    public static class Metrics {
+        public int queued;
+        public boolean running;
+        public long completed;
+        public long cancelled;
+        public double lastWait;
+        public double maxWait;
+        public double averageWait;
+    }
+
+    private static class Operation implements Runnable {
+        final String name;
+        // cancellation token provided by the caller, optional
+        @Nullable
+        final String token;
+        final Promise promise;
+        final Runnable task;
+        final LaneExecutor lane;
+        final CancellationToken cancellationToken = new CancellationToken();
+        final long queuedAt = System.nanoTime();
+
+        Operation(final String name, @Nullable final String token, final Promise promise, final Runnable task, final LaneExecutor lane) {
+            this.name = name;
+            this.token = token;
+            this.promise = promise;
+            this.task = task;
+            this.lane = lane;
+        }
+
+        boolean matches(@NonNull final String nameOrToken) {
+            return nameOrToken.equals(name) || nameOrToken.equals(token);
+        }
+
+        @Override
+        public void run() {
+            lane.recordWait(System.nanoTime() - queuedAt);
+            lane.running.add(this);
+
+            final CancellationToken previous = CancellationToken.bind(cancellationToken);
+
+            try {
+                task.run();
+            } catch (OperationCancelledException e) {
+                promise.reject(ERROR_CANCELLED, String.format("%s has been cancelled", name));
+            } catch (RuntimeException e) {
+                // tasks settle their promise, this is only a safety net so the promise never hangs
+                promise.reject("-1", e.getMessage());
+            } finally {
+                CancellationToken.restore(previous);
+                lane.running.remove(this);
+                lane.completed.incrementAndGet();
+            }
+        }
+    }
+
+    private static class LaneExecutor {
+        final ThreadPoolExecutor executor;
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong cancelled = new AtomicLong();
+        final AtomicLong totalWait = new AtomicLong();
+        final AtomicLong maxWait = new AtomicLong();
+        final AtomicLong lastWait = new AtomicLong();
+        final AtomicLong waitSamples = new AtomicLong();
+        // operations which are running right now, one per thread of the lane
+        final Set<Operation> running = ConcurrentHashMap.newKeySet();
+
+        LaneExecutor(@NonNull final Lane lane) {
+            final AtomicInteger threadCount = new AtomicInteger();
+
+            executor = new ThreadPoolExecutor(
+                    lane.threads,
+                    lane.threads,
+                    0L,
+                    TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        final Thread thread = new Thread(() -> {
+                            Process.setThreadPriority(lane.threadPriority);
+                            runnable.run();
+                        }, lane.threads > 1
+                                ? "Security-" + lane.name().toLowerCase() + "-" + threadCount.incrementAndGet()
+                                : "Security-" + lane.name().toLowerCase());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+            );
+        }
+
+        void recordWait(final long waitNanos) {
+            lastWait.set(waitNanos);
+            totalWait.addAndGet(waitNanos);
+            waitSamples.incrementAndGet();
+
+            long max;
+            do {
+                max = maxWait.get();
+            } while (waitNanos > max && !maxWait.compareAndSet(max, waitNanos));
+        }
+    }
+
+    private final LaneExecutor[] lanes = new LaneExecutor[Lane.values().length];
+
+    public static SecurityExecutor sharedInstance() {
+        return SingletonHolder.instance;
+    }
+
+    private static class SingletonHolder {
+        static final SecurityExecutor instance = new SecurityExecutor();
+    }
+
+    private SecurityExecutor() {
+        for (Lane lane : Lane.values()) {
+            lanes[lane.ordinal()] = new LaneExecutor(lane);
+        }
+    }
+
+    /**
+     * Queue the operation in the given lane
+     * NOTE: task is responsible for settling the promise, the promise is only rejected here when the operation is cancelled
+     */
+    public void execute(@NonNull final Lane lane, @NonNull final String name, @NonNull final Promise promise, @NonNull final Runnable task) {
+        execute(lane, name, null, promise, task);
+    }
+
+    /**
+     * Queue the operation in the given lane, the operation can be cancelled with its name or the provided token
+     */
+    public void execute(@NonNull final Lane lane, @NonNull final String name, @Nullable final String token,
+                        @NonNull final Promise promise, @NonNull final Runnable task) {
+        final LaneExecutor laneExecutor = lanes[lane.ordinal()];
+        laneExecutor.executor.execute(new Operation(name, token, promise, task, laneExecutor));
+    }
+
+    /**
+     * Cancel all operations with the given name or token in all lanes
+     * queued operations are rejected right away, running operations are signalled and reject when they stop
+     * returns the number of cancelled operations
+     */
+    public int cancel(@NonNull final String nameOrToken) {
+        int count = 0;
+
+        for (LaneExecutor lane : lanes) {
+            for (Operation running : lane.running) {
+                if (running.matches(nameOrToken) && !running.cancellationToken.isCancelled()) {
+                    running.cancellationToken.cancel();
+                    lane.cancelled.incrementAndGet();
+                    count++;
+                }
+            }
+
+            final List<Operation> operations = new ArrayList<>();
+
+            for (Runnable runnable : lane.executor.getQueue()) {
+                if (runnable instanceof Operation && ((Operation) runnable).matches(nameOrToken)) {
+                    operations.add((Operation) runnable);
+                }
+            }
+
+            for (Operation operation : operations) {
+                // operation can be taken by the lane in the meantime, only reject when it's not going to run
+                if (lane.executor.remove(operation)) {
+                    lane.cancelled.incrementAndGet();
+                    operation.promise.reject(ERROR_CANCELLED, String.format("%s has been cancelled", operation.name));
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Check the lane has nothing running or queued, used by background work to give way to interactive operations
+     */
+    public boolean isIdle(@NonNull final Lane lane) {
+        final LaneExecutor laneExecutor = lanes[lane.ordinal()];
+        return laneExecutor.executor.getQueue().isEmpty() && laneExecutor.executor.getActiveCount() == 0;
+    }
+
+    @NonNull
+    public Metrics getMetrics(@NonNull final Lane lane) {
+        final LaneExecutor laneExecutor = lanes[lane.ordinal()];
+        final long waitSamples = laneExecutor.waitSamples.get();
+
+        final Metrics metrics = new Metrics();
+        metrics.queued = laneExecutor.executor.getQueue().size();
+        metrics.running = laneExecutor.executor.getActiveCount() > 0;
+        metrics.completed = laneExecutor.completed.get();
+        metrics.cancelled = laneExecutor.cancelled.get();
+        metrics.lastWait = laneExecutor.lastWait.get() / 1e6;
+        metrics.maxWait = laneExecutor.maxWait.get() / 1e6;
+        metrics.averageWait = waitSamples > 0 ? laneExecutor.totalWait.get() / 1e6 / waitSamples : 0;
+
+        return metrics;
+    }
+}
@@ -0,0 +1,54 @@
+package libs.security;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.module.annotations.ReactModule;
+
+@ReactModule(name = SecurityExecutorModule.NAME)
+public class SecurityExecutorModule extends ReactContextBaseJavaModule {
+
+    public SecurityExecutorModule(ReactApplicationContext reactContext) {
+        super(reactContext);
+    }
+
+    static final String NAME = "SecurityExecutorModule";
+
+    @NonNull
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @ReactMethod
+    public void cancel(String operation, Promise promise) {
+        promise.resolve(SecurityExecutor.sharedInstance().cancel(operation));
+    }
+
+    @ReactMethod
+    public void getMetrics(Promise promise) {
+        final WritableMap results = Arguments.createMap();
+
+        for (SecurityExecutor.Lane lane : SecurityExecutor.Lane.values()) {
+            final SecurityExecutor.Metrics metrics = SecurityExecutor.sharedInstance().getMetrics(lane);
+
+            final WritableMap laneMetrics = Arguments.createMap();
+            laneMetrics.putInt("queued", metrics.queued);
+            laneMetrics.putBoolean("running", metrics.running);
+            laneMetrics.putDouble("completed", metrics.completed);
+            laneMetrics.putDouble("cancelled", metrics.cancelled);
+            laneMetrics.putDouble("last_wait", metrics.lastWait);
+            laneMetrics.putDouble("max_wait", metrics.maxWait);
+            laneMetrics.putDouble("average_wait", metrics.averageWait);
+
+            results.putMap(lane.name().toLowerCase(), laneMetrics);
+        }
+
+        promise.resolve(results);
+    }
+}
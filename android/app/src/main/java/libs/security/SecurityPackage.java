@@ -22,7 +22,8 @@ public class SecurityPackage implements ReactPackage {
                 new CryptoModule(reactContext),
                 new BiometricModule(reactContext),
                 new UniqueIdProviderModule(reactContext),
-                new VaultManagerModule(reactContext)
+                new VaultManagerModule(reactContext),
+                new SecurityExecutorModule(reactContext)
         );
     }
 
@@ -0,0 +1,124 @@
+package libs.security;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of worker threads for CPU bound security work (key derivation, encryption).
+ * Tasks run with the {@link CancellationToken} of the thread which submitted them.
+ * NOTE: tasks submitted to this pool should never submit and wait on other tasks in the same pool
+ */
+public class WorkerPool {
+    /**
+     * Upper bound of worker threads, key derivation is memory bandwidth bound on most devices
+     */
+    private static final int MAX_THREADS = 4;
+    /**
+     * Idle workers will be released after this timeout
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    public static WorkerPool sharedInstance() {
+        return SingletonHolder.instance;
+    }
+
+    private static class SingletonHolder {
+        static final WorkerPool instance = new WorkerPool();
+    }
+
+    private WorkerPool() {
+        parallelism = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+
+        final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+                parallelism,
+                parallelism,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new WorkerThreadFactory()
+        );
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+
+        executor = threadPoolExecutor;
+    }
+
+    /**
+     * Number of tasks which can run at the same time
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Run all tasks in the pool and wait for all of them to finish
+     * results are returned in the same order as the tasks, first failure will be thrown after all tasks are done
+     */
+    @NonNull
+    public <T> List<T> invokeAll(@NonNull final List<? extends Callable<T>> tasks) throws Exception {
+        // no need to hop threads for a single task
+        if (tasks.size() == 1) {
+            return Collections.singletonList(tasks.get(0).call());
+        }
+
+        final List<Callable<T>> propagatedTasks = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            propagatedTasks.add(CancellationToken.propagate(task));
+        }
+
+        final List<Future<T>> futures = executor.invokeAll(propagatedTasks);
+        final List<T> results = new ArrayList<>(futures.size());
+
+        Exception failure = null;
+
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                results.add(null);
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        return results;
+    }
+
+    /**
+     * Run the task in the pool without waiting for it
+     */
+    @NonNull
+    public <T> Future<T> submit(@NonNull final Callable<T> task) {
+        return executor.submit(CancellationToken.propagate(task));
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "SecurityWorker-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -17,6 +17,8 @@ import com.facebook.react.bridge.UiThreadUtil;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
+import libs.security.SecurityExecutor;
+
 
 @ReactModule(name = BiometricModule.NAME)
 public class BiometricModule extends ReactContextBaseJavaModule {
@@ -157,52 +159,58 @@ public class BiometricModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void authenticate(String reason, final Promise promise) {
-        // check for any error before starting authentication
-        String error = getSensorErrors();
-
-        // there is an error
-        if (error != null) {
-            promise.reject(error, "");
-            return;
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "authenticate", promise, () -> {
+            // check for any error before starting authentication
+            String error = getSensorErrors();
+
+            // there is an error
+            if (error != null) {
+                promise.reject(error, "");
+                return;
+            }
 
-        // before authentication check for finger print change
-        // we can do this before authentication but for consonant with iOS we check after auth
-        if (SecurityProvider.checkDeviceBiometricChanged()) {
-            promise.reject(ERROR_BIOMETRIC_HAS_BEEN_CHANGED, TYPE_BIOMETRICS);
-            return;
-        }
+            // before authentication check for finger print change
+            // we can do this before authentication but for consonant with iOS we check after auth
+            if (SecurityProvider.checkDeviceBiometricChanged()) {
+                promise.reject(ERROR_BIOMETRIC_HAS_BEEN_CHANGED, TYPE_BIOMETRICS);
+                return;
+            }
 
-        // start authentication process
-        biometricAuthenticate(reason, promise);
+            // start authentication process
+            biometricAuthenticate(reason, promise);
+        });
     }
 
     @ReactMethod
     public void isSensorAvailable(final Promise promise) {
-        String error = getSensorErrors();
-
-        // there is error
-        if (error != null) {
-            promise.reject(error, "");
-        } else {
-            // can authorize
-            promise.resolve(TYPE_BIOMETRICS);
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "isSensorAvailable", promise, () -> {
+            String error = getSensorErrors();
+
+            // there is error
+            if (error != null) {
+                promise.reject(error, "");
+            } else {
+                // can authorize
+                promise.resolve(TYPE_BIOMETRICS);
+            }
+        });
     }
 
     @ReactMethod
     public void refreshAuthenticationKey(final Promise promise) {
-        // remove old invalidated key
-        SecurityProvider.deleteInvalidKey();
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "refreshAuthenticationKey", promise, () -> {
+            // remove old invalidated key
+            SecurityProvider.deleteInvalidKey();
 
-        // generate new key
-        SecurityProvider.generateKey();
+            // generate new key
+            SecurityProvider.generateKey();
 
-        // check if new key is ready
-        if (SecurityProvider.isKeyReady()) {
-            promise.resolve(true);
-            return;
-        }
-        promise.reject(ERROR_UNABLE_REFRESH_AUTHENTICATION_KEY, "");
+            // check if new key is ready
+            if (SecurityProvider.isKeyReady()) {
+                promise.resolve(true);
+                return;
+            }
+            promise.reject(ERROR_UNABLE_REFRESH_AUTHENTICATION_KEY, "");
+        });
     }
 }
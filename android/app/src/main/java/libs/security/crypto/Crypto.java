@@ -5,7 +5,6 @@ import androidx.annotation.NonNull;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 
 import javax.crypto.Cipher;
@@ -16,6 +15,8 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import libs.security.CancellationToken;
+
 public class Crypto {
     public enum AESAlgo {
         CBC,
@@ -24,46 +25,17 @@ public class Crypto {
 
     @NonNull
     public static String BytesToHex(@NonNull final byte[] data) {
-        final char[] HEX_DIGITS = {
-                '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
-        };
-
-        int l = data.length;
-        char[] out = new char[l << 1];
-
-        // two characters form the hex value.
-        for (int i = 0, j = 0; i < l; i++) {
-            out[j++] = HEX_DIGITS[(0xF0 & data[i]) >>> 4];
-            out[j++] = HEX_DIGITS[0x0F & data[i]];
-        }
-
-        return new String(out);
+        return Hex.encode(data);
     }
 
     @NonNull
     public static byte[] HexToBytes(@NonNull final String hexString) throws RuntimeException {
-        char[] chars = hexString.toCharArray();
-        int len = chars.length;
-
-        if ((len & 0x01) != 0) {
-            throw new RuntimeException("Odd number of characters.");
-        }
-        byte[] out = new byte[len >> 1];
-        // two characters form the hex value.
-        for (int i = 0, j = 0; j < len; i++) {
-            int f = Character.digit(chars[j], 16) << 4;
-            j++;
-            f = f | Character.digit(chars[j], 16);
-            j++;
-            out[i] = (byte) (f & 0xFF);
-        }
-
-        return out;
+        return Hex.decode(hexString);
     }
 
     @NonNull
     public static byte[] SHA1Hash(@NonNull final byte[] data) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        MessageDigest digest = CryptoEngine.getDigest("SHA-1");
         digest.update(data);
         return digest.digest();
     }
@@ -71,33 +43,94 @@ public class Crypto {
 
     @NonNull
     public static byte[] SHA256Hash(@NonNull final byte[] data) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        MessageDigest digest = CryptoEngine.getDigest("SHA-256");
         digest.update(data);
         return digest.digest();
     }
 
     @NonNull
     public static byte[] SHA512Hash(@NonNull final byte[] data) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-512");
+        MessageDigest digest = CryptoEngine.getDigest("SHA-512");
         digest.update(data);
         return digest.digest();
     }
 
     @NonNull
     public static byte[] HMAC256(@NonNull final byte[] data, @NonNull final byte[] key) throws NoSuchAlgorithmException, InvalidKeyException {
-        Mac HmacSha256 = Mac.getInstance("HmacSHA256");
+        Mac HmacSha256 = CryptoEngine.getMac("HmacSHA256");
         SecretKey secretKey = new SecretKeySpec(key, "HmacSHA256");
         HmacSha256.init(secretKey);
         return HmacSha256.doFinal(data);
     }
 
+    /**
+     * Hash all entries with a single engine lookup
+     */
+    @NonNull
+    public static byte[][] SHA256Hash(@NonNull final byte[][] data) throws NoSuchAlgorithmException {
+        return DigestAll("SHA-256", data);
+    }
+
+    @NonNull
+    public static byte[][] SHA512Hash(@NonNull final byte[][] data) throws NoSuchAlgorithmException {
+        return DigestAll("SHA-512", data);
+    }
+
+    /**
+     * HMAC all entries with the same key, key is only initiated once
+     */
+    @NonNull
+    public static byte[][] HMAC256(@NonNull final byte[][] data, @NonNull final byte[] key) throws NoSuchAlgorithmException, InvalidKeyException {
+        Mac HmacSha256 = CryptoEngine.getMac("HmacSHA256");
+        SecretKey secretKey = new SecretKeySpec(key, "HmacSHA256");
+        HmacSha256.init(secretKey);
+
+        final byte[][] results = new byte[data.length][];
+        for (int i = 0; i < data.length; i++) {
+            // doFinal resets the mac with the same key for the next entry
+            results[i] = HmacSha256.doFinal(data[i]);
+        }
+        return results;
+    }
+
+    @NonNull
+    private static byte[][] DigestAll(@NonNull final String algorithm, @NonNull final byte[][] data) throws NoSuchAlgorithmException {
+        MessageDigest digest = CryptoEngine.getDigest(algorithm);
+
+        final byte[][] results = new byte[data.length][];
+        for (int i = 0; i < data.length; i++) {
+            // digest resets the engine for the next entry
+            results[i] = digest.digest(data[i]);
+        }
+        return results;
+    }
+
     @NonNull
     public static byte[] PBKDF2(@NonNull final char[] password, @NonNull final byte[] salt, @NonNull final int iteration) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        // NOTE: platform derivation cannot be interrupted, cancellation is only checked before
+        CancellationToken.current().throwIfCancelled();
+
+        if (Pbkdf2Selector.sharedInstance().useOptimized()) {
+            return Pbkdf2HmacSha512.derive(password, salt, iteration, Pbkdf2Selector.KEY_LENGTH);
+        }
+
+        return PlatformPBKDF2(password, salt, iteration);
+    }
+
+    /**
+     * Check if the optimized pure Java PBKDF2 has been selected on this device
+     */
+    public static boolean IsOptimizedPBKDF2() {
+        return Pbkdf2Selector.sharedInstance().useOptimized();
+    }
+
+    @NonNull
+    static byte[] PlatformPBKDF2(@NonNull final char[] password, @NonNull final byte[] salt, final int iteration) throws NoSuchAlgorithmException, InvalidKeySpecException {
         // constants
         final String HMAC_HASH_ALGO = "PBKDF2WithHmacSHA512";
-        final int KEY_LENGTH = 32 * 8; // 256 bits = 32 bytes
+        final int KEY_LENGTH = Pbkdf2Selector.KEY_LENGTH * 8; // 256 bits = 32 bytes
 
-        SecretKeyFactory factory = SecretKeyFactory.getInstance(HMAC_HASH_ALGO);
+        SecretKeyFactory factory = CryptoEngine.getSecretKeyFactory(HMAC_HASH_ALGO);
         PBEKeySpec keySpec = new PBEKeySpec(password, salt, iteration, KEY_LENGTH);
         SecretKey hash = factory.generateSecret(keySpec);
         return hash.getEncoded();
@@ -105,10 +138,7 @@ public class Crypto {
 
     @NonNull
     public static byte[] RandomBytes(@NonNull final Integer length) {
-        byte[] bytes = new byte[length];
-        SecureRandom rand = new SecureRandom();
-        rand.nextBytes(bytes);
-        return bytes;
+        return EntropyPool.sharedInstance().nextBytes(length);
     }
 
 
@@ -165,7 +195,7 @@ public class Crypto {
                 @NonNull final byte[] iv
         ) throws Exception {
             SecretKey secretKey = new SecretKeySpec(key, KEY_ALGORITHM);
-            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            Cipher cipher = CryptoEngine.getCipher(CIPHER_ALGORITHM);
             cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(iv));
             return cipher.doFinal(data);
         }
@@ -201,7 +231,7 @@ public class Crypto {
                 @NonNull final Operation operation
         ) throws Exception {
             SecretKey secretKey = new SecretKeySpec(key, KEY_ALGORITHM);
-            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            Cipher cipher = CryptoEngine.getCipher(CIPHER_ALGORITHM);
             cipher.init(operation.getCipherMode(), secretKey, new IvParameterSpec(iv));
             cipher.updateAAD(aad);
             return cipher.doFinal(data);
@@ -0,0 +1,146 @@
+package libs.security.crypto;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKeyFactory;
+
+/**
+ * Thread confined cache of the JCA engine instances used by {@link Crypto}
+ * <p>
+ * Provider lookup with getInstance() is expensive compared to hashing small inputs, instances are kept
+ * per thread and per algorithm and handed out again in a reset state.
+ * <p>
+ * NOTE: instances must only be used within a single call and never be held across calls on the same thread
+ */
+public final class CryptoEngine {
+    private enum Kind {
+        DIGEST,
+        MAC,
+        CIPHER,
+        KEY_FACTORY
+    }
+
+    private static final ThreadLocal<Map<String, Object>> instances = new ThreadLocal<Map<String, Object>>() {
+        @Override
+        protected Map<String, Object> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private static final AtomicLong[] hits = new AtomicLong[Kind.values().length];
+    private static final AtomicLong[] misses = new AtomicLong[Kind.values().length];
+
+    static {
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = new AtomicLong();
+            misses[i] = new AtomicLong();
+        }
+    }
+
+    private CryptoEngine() {
+    }
+
+    @NonNull
+    public static MessageDigest getDigest(@NonNull final String algorithm) throws NoSuchAlgorithmException {
+        MessageDigest digest = (MessageDigest) lookup(Kind.DIGEST, algorithm);
+
+        if (digest == null) {
+            digest = MessageDigest.getInstance(algorithm);
+            store(Kind.DIGEST, algorithm, digest);
+        }
+
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * NOTE: returned Mac needs to be initiated with the key before use
+     */
+    @NonNull
+    public static Mac getMac(@NonNull final String algorithm) throws NoSuchAlgorithmException {
+        Mac mac = (Mac) lookup(Kind.MAC, algorithm);
+
+        if (mac == null) {
+            mac = Mac.getInstance(algorithm);
+            store(Kind.MAC, algorithm, mac);
+        }
+
+        mac.reset();
+        return mac;
+    }
+
+    /**
+     * NOTE: returned Cipher needs to be initiated with the key and params before use
+     */
+    @NonNull
+    public static Cipher getCipher(@NonNull final String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Cipher cipher = (Cipher) lookup(Kind.CIPHER, transformation);
+
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            store(Kind.CIPHER, transformation, cipher);
+        }
+
+        return cipher;
+    }
+
+    @NonNull
+    public static SecretKeyFactory getSecretKeyFactory(@NonNull final String algorithm) throws NoSuchAlgorithmException {
+        SecretKeyFactory factory = (SecretKeyFactory) lookup(Kind.KEY_FACTORY, algorithm);
+
+        if (factory == null) {
+            factory = SecretKeyFactory.getInstance(algorithm);
+            store(Kind.KEY_FACTORY, algorithm, factory);
+        }
+
+        return factory;
+    }
+
+    /**
+     * Get the hit/miss counters for all threads since start, keyed as "{kind}_hits" and "{kind}_misses"
+     */
+    @NonNull
+    public static Map<String, Long> getStats() {
+        final Map<String, Long> stats = new HashMap<>();
+        for (Kind kind : Kind.values()) {
+            final String name = kind.name().toLowerCase();
+            stats.put(name + "_hits", hits[kind.ordinal()].get());
+            stats.put(name + "_misses", misses[kind.ordinal()].get());
+        }
+        return stats;
+    }
+
+    public static void resetStats() {
+        for (int i = 0; i < hits.length; i++) {
+            hits[i].set(0);
+            misses[i].set(0);
+        }
+    }
+
+    @Nullable
+    private static Object lookup(@NonNull final Kind kind, @NonNull final String algorithm) {
+        final Object instance = instances.get().get(kind.name() + ":" + algorithm);
+
+        if (instance != null) {
+            hits[kind.ordinal()].incrementAndGet();
+        } else {
+            misses[kind.ordinal()].incrementAndGet();
+        }
+
+        return instance;
+    }
+
+    private static void store(@NonNull final Kind kind, @NonNull final String algorithm, @NonNull final Object instance) {
+        instances.get().put(kind.name() + ":" + algorithm, instance);
+    }
+}
@@ -1,88 +1,176 @@
 package libs.security.crypto;
 
+import android.net.Uri;
+import android.util.Base64;
+
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import androidx.annotation.NonNull;
 
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.module.annotations.ReactModule;
 
+import libs.security.SecurityExecutor;
+import libs.security.WorkerPool;
+
 
 @ReactModule(name = CryptoModule.NAME)
 public class CryptoModule extends ReactContextBaseJavaModule {
     public CryptoModule(ReactApplicationContext reactContext) {
         super(reactContext);
+
+        // fill the entropy pool in background, so randomKeySync doesn't need to wait for SecureRandom
+        EntropyPool.sharedInstance().prefill();
+        // select the PBKDF2 implementation in background, so the benchmark never runs on a key derivation
+        Pbkdf2Selector.sharedInstance().init(reactContext);
     }
 
     static final String NAME = "CryptoModule";
 
+    // batches smaller than this per worker are processed on the calling thread
+    private static final int BATCH_MIN_CHUNK_SIZE = 64;
+
+    // upper bound of pbkdf2Sync iterations (e.g. BIP39 seed), higher work factors block the JS thread, use pbkdf2
+    static final int MAX_SYNC_PBKDF2_ITERATIONS = 2048;
+
+    // upper bound of open hash sessions, least recently used sessions are evicted beyond this
+    private static final int MAX_HASH_SESSIONS = 32;
+    // sessions which are not used for this long are expired, JS may never finish a session
+    private static final long HASH_SESSION_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+    private interface BatchOperation {
+        byte[][] apply(byte[][] entries) throws Exception;
+    }
+
+    private final HashSessionStore hashSessions = new HashSessionStore(MAX_HASH_SESSIONS, HASH_SESSION_IDLE_TIMEOUT_MS);
+
     @NonNull
     @Override
     public String getName() {
         return NAME;
     }
 
+    @Override
+    public void invalidate() {
+        hashSessions.clear();
+        super.invalidate();
+    }
+
     @ReactMethod
     public void hmac256(String input, String key, Promise promise) {
-        try {
-            byte[] data = Crypto.HMAC256(
-                    input.getBytes(StandardCharsets.UTF_8),
-                    Crypto.HexToBytes(key)
-            );
-            promise.resolve(Crypto.BytesToHex(data));
-        } catch (Exception e) {
-            promise.reject("-1", e.getMessage());
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "hmac256", promise, () -> {
+            try {
+                byte[] data = Crypto.HMAC256(
+                        input.getBytes(StandardCharsets.UTF_8),
+                        decodeHmacKey(key)
+                );
+                promise.resolve(Crypto.BytesToHex(data));
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
     }
 
     @ReactMethod
     public void sha1(String input, Promise promise) {
-        try {
-            byte[] data = Crypto.SHA1Hash(
-                    input.getBytes(StandardCharsets.UTF_8)
-            );
-            promise.resolve(Crypto.BytesToHex(data));
-        } catch (Exception e) {
-            promise.reject("-1", e.getMessage());
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "sha1", promise, () -> {
+            try {
+                byte[] data = Crypto.SHA1Hash(
+                        input.getBytes(StandardCharsets.UTF_8)
+                );
+                promise.resolve(Crypto.BytesToHex(data));
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
     }
 
     @ReactMethod
     public void sha256(String input, Promise promise) {
-        try {
-            byte[] data = Crypto.SHA256Hash(
-                    input.getBytes(StandardCharsets.UTF_8)
-            );
-            promise.resolve(Crypto.BytesToHex(data));
-        } catch (Exception e) {
-            promise.reject("-1", e.getMessage());
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "sha256", promise, () -> {
+            try {
+                byte[] data = Crypto.SHA256Hash(
+                        input.getBytes(StandardCharsets.UTF_8)
+                );
+                promise.resolve(Crypto.BytesToHex(data));
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
     }
 
 
     @ReactMethod
     public void sha512(String input, Promise promise) {
-        try {
-            byte[] data = Crypto.SHA512Hash(
-                    input.getBytes(StandardCharsets.UTF_8)
-            );
-            promise.resolve(Crypto.BytesToHex(data));
-        } catch (Exception e) {
-            promise.reject("-1", e.getMessage());
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "sha512", promise, () -> {
+            try {
+                byte[] data = Crypto.SHA512Hash(
+                        input.getBytes(StandardCharsets.UTF_8)
+                );
+                promise.resolve(Crypto.BytesToHex(data));
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void hmac256Batch(ReadableArray entries, String key, Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "hmac256Batch", promise, () -> {
+            try {
+                final byte[] keyBytes = decodeHmacKey(key);
+                promise.resolve(processBatch(entries, chunk -> Crypto.HMAC256(chunk, keyBytes)));
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void sha256Batch(ReadableArray entries, Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "sha256Batch", promise, () -> {
+            try {
+                promise.resolve(processBatch(entries, Crypto::SHA256Hash));
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void sha512Batch(ReadableArray entries, Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "sha512Batch", promise, () -> {
+            try {
+                promise.resolve(processBatch(entries, Crypto::SHA512Hash));
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
     }
 
     @ReactMethod
     public void randomKey(Integer length, Promise promise) {
-        try {
-            byte[] randomBytes = Crypto.RandomBytes(length);
-            promise.resolve(Crypto.BytesToHex(randomBytes));
-        } catch (Exception e) {
-            promise.reject("-1", e.getMessage());
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "randomKey", promise, () -> {
+            try {
+                byte[] randomBytes = Crypto.RandomBytes(length);
+                promise.resolve(Crypto.BytesToHex(randomBytes));
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
     }
 
     @ReactMethod(isBlockingSynchronousMethod = true)
@@ -90,4 +178,245 @@ public class CryptoModule extends ReactContextBaseJavaModule {
         byte[] randomBytes = Crypto.RandomBytes(length);
         return Crypto.BytesToHex(randomBytes);
     }
+
+    //region Streaming hash sessions
+
+    @ReactMethod
+    public void createHash(String algorithm, Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "createHash", promise, () -> {
+            try {
+                promise.resolve(openHashSession(HashSession.createHash(algorithm)));
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void createHmac(String algorithm, String key, Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "createHmac", promise, () -> {
+            try {
+                final byte[] keyBytes = decodeHmacKey(key);
+                try {
+                    promise.resolve(openHashSession(HashSession.createHmac(algorithm, keyBytes)));
+                } finally {
+                    Arrays.fill(keyBytes, (byte) 0);
+                }
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void update(String handle, String chunk, String encoding, Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "update", promise, () -> {
+            try {
+                getHashSession(handle).update(decodeChunk(chunk, encoding));
+                promise.resolve(true);
+            } catch (Exception e) {
+                // session is not usable anymore after a failed update
+                hashSessions.destroy(handle);
+                promise.reject("-1", e.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void digest(String handle, Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "digest", promise, () -> {
+            try {
+                final HashSession session = hashSessions.remove(handle);
+
+                if (session == null) {
+                    throw new Exception("HASH_SESSION_NOT_EXIST");
+                }
+
+                try {
+                    promise.resolve(Crypto.BytesToHex(session.digest()));
+                } finally {
+                    session.destroy();
+                }
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void destroyHash(String handle, Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "destroyHash", promise, () -> {
+            promise.resolve(hashSessions.destroy(handle));
+        });
+    }
+
+    @ReactMethod
+    public void pbkdf2(String password, String salt, Integer iterations, Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.USER_INITIATED, "pbkdf2", promise, () -> {
+            try {
+                promise.resolve(derivePbkdf2(password, salt, iterations));
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void hashFile(String uri, String algorithm, Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.BACKGROUND, "hashFile", promise, () -> {
+            try {
+                final HashSession session = HashSession.createHash(algorithm);
+
+                try (InputStream stream = getReactApplicationContext().getContentResolver().openInputStream(Uri.parse(uri))) {
+                    if (stream == null) {
+                        throw new Exception("UNABLE_TO_OPEN_FILE");
+                    }
+                    session.update(stream);
+                }
+
+                promise.resolve(Crypto.BytesToHex(session.digest()));
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
+    }
+
+    private String openHashSession(@NonNull final HashSession session) {
+        return hashSessions.open(session);
+    }
+
+    @NonNull
+    private HashSession getHashSession(@NonNull final String handle) throws Exception {
+        final HashSession session = hashSessions.get(handle);
+
+        if (session == null) {
+            throw new Exception("HASH_SESSION_NOT_EXIST");
+        }
+
+        return session;
+    }
+
+    /**
+     * Decode the hex key of the HMAC methods, all of them decode the same way so they give the same result for a key
+     * NOTE: lenient decoding, the device id is used as key for the passcode hash and has never been validated
+     */
+    @NonNull
+    static byte[] decodeHmacKey(@NonNull final String key) {
+        return Hex.decodeLenient(key);
+    }
+
+    @NonNull
+    private static byte[] decodeChunk(@NonNull final String chunk, @NonNull final String encoding) {
+        switch (encoding) {
+            case "base64":
+                return Base64.decode(chunk, Base64.NO_WRAP);
+            case "hex":
+                return Crypto.HexToBytes(chunk);
+            case "utf8":
+                return chunk.getBytes(StandardCharsets.UTF_8);
+            default:
+                throw new IllegalArgumentException("Unsupported encoding " + encoding);
+        }
+    }
+
+    //endregion
+
+    //region Synchronous binary primitives
+    // NOTE: binary values are passed as base64, these methods block the JS thread and are meant for small inputs
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public String sha256Sync(String data) throws Exception {
+        return Base64.encodeToString(Crypto.SHA256Hash(Base64.decode(data, Base64.NO_WRAP)), Base64.NO_WRAP);
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public String sha512Sync(String data) throws Exception {
+        return Base64.encodeToString(Crypto.SHA512Hash(Base64.decode(data, Base64.NO_WRAP)), Base64.NO_WRAP);
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public String hmac256Sync(String data, String key) throws Exception {
+        return Base64.encodeToString(
+                Crypto.HMAC256(Base64.decode(data, Base64.NO_WRAP), Base64.decode(key, Base64.NO_WRAP)),
+                Base64.NO_WRAP
+        );
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public String randomBytesSync(Integer length) {
+        return Base64.encodeToString(Crypto.RandomBytes(length), Base64.NO_WRAP);
+    }
+
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public String pbkdf2Sync(String password, String salt, Integer iterations) throws Exception {
+        // NOTE: only low work factors are derived on the JS thread
+        if (iterations > MAX_SYNC_PBKDF2_ITERATIONS) {
+            throw new Exception("TOO_MANY_ITERATIONS");
+        }
+
+        return derivePbkdf2(password, salt, iterations);
+    }
+
+    @NonNull
+    private static String derivePbkdf2(@NonNull final String password, @NonNull final String salt, final int iterations) throws Exception {
+        final char[] passwordChars = password.toCharArray();
+
+        try {
+            return Base64.encodeToString(
+                    Crypto.PBKDF2(passwordChars, Base64.decode(salt, Base64.NO_WRAP), iterations),
+                    Base64.NO_WRAP
+            );
+        } finally {
+            Arrays.fill(passwordChars, '\0');
+        }
+    }
+
+    //endregion
+
+    @ReactMethod
+    public void getEngineStats(Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "getEngineStats", promise, () -> {
+            try {
+                final WritableMap stats = Arguments.createMap();
+                for (Map.Entry<String, Long> entry : CryptoEngine.getStats().entrySet()) {
+                    stats.putDouble(entry.getKey(), entry.getValue());
+                }
+                promise.resolve(stats);
+            } catch (Exception e) {
+                promise.reject("-1", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Apply the operation to all entries, large batches are split across the worker pool
+     * results are returned in the same order as the entries
+     */
+    private static WritableArray processBatch(@NonNull final ReadableArray entries, @NonNull final BatchOperation operation)
+            throws Exception {
+        final int size = entries.size();
+        final byte[][] inputs = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            inputs[i] = entries.getString(i).getBytes(StandardCharsets.UTF_8);
+        }
+
+        final WorkerPool workerPool = WorkerPool.sharedInstance();
+        final int chunks = Math.max(1, Math.min(workerPool.getParallelism(), size / BATCH_MIN_CHUNK_SIZE));
+        final int chunkSize = (size + chunks - 1) / chunks;
+
+        final List<Callable<byte[][]>> tasks = new ArrayList<>(chunks);
+        for (int start = 0; start < size; start += chunkSize) {
+            final byte[][] chunk = Arrays.copyOfRange(inputs, start, Math.min(size, start + chunkSize));
+            tasks.add(() -> operation.apply(chunk));
+        }
+
+        final WritableArray results = Arguments.createArray();
+        for (byte[][] chunkResults : workerPool.invokeAll(tasks)) {
+            for (byte[] result : chunkResults) {
+                results.pushString(Crypto.BytesToHex(result));
+            }
+        }
+
+        return results;
+    }
 }
@@ -0,0 +1,120 @@
+package libs.security.crypto;
+
+import androidx.annotation.NonNull;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Pool of random bytes from a single SecureRandom, refilled by a background thread
+ * <p>
+ * Requests are served by copying from the pool, served bytes are wiped from the pool right away so they
+ * are never handed out twice. When the pool cannot serve the request it is generated directly.
+ */
+public class EntropyPool {
+    private static final int POOL_SIZE = 4096;
+    // refill is requested when less than this many bytes are available
+    private static final int REFILL_THRESHOLD = POOL_SIZE / 4;
+    // larger requests are generated directly, so they don't drain the pool for the small ones
+    private static final int MAX_POOLED_REQUEST = 512;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    private final byte[] pool = new byte[POOL_SIZE];
+    // valid bytes are always at the end of the pool: [POOL_SIZE - available, POOL_SIZE)
+    private int available = 0;
+    private boolean refillRequested = false;
+    private Thread refillThread;
+
+    public static EntropyPool sharedInstance() {
+        return SingletonHolder.instance;
+    }
+
+    private static class SingletonHolder {
+        static final EntropyPool instance = new EntropyPool();
+    }
+
+    private EntropyPool() {
+    }
+
+    /**
+     * Start filling the pool in background, so first requests can be served from the pool
+     */
+    public synchronized void prefill() {
+        requestRefill();
+    }
+
+    @NonNull
+    public byte[] nextBytes(final int length) {
+        final byte[] bytes = new byte[length];
+
+        if (length > MAX_POOLED_REQUEST || !takeFromPool(bytes)) {
+            // SecureRandom is thread safe, no need to hold the pool lock
+            secureRandom.nextBytes(bytes);
+        }
+
+        return bytes;
+    }
+
+    private synchronized boolean takeFromPool(@NonNull final byte[] bytes) {
+        final boolean served = bytes.length <= available;
+
+        if (served) {
+            final int offset = POOL_SIZE - available;
+            System.arraycopy(pool, offset, bytes, 0, bytes.length);
+            // wipe served bytes
+            Arrays.fill(pool, offset, offset + bytes.length, (byte) 0);
+            available -= bytes.length;
+        }
+
+        if (available < REFILL_THRESHOLD) {
+            requestRefill();
+        }
+
+        return served;
+    }
+
+    private void requestRefill() {
+        if (refillRequested) {
+            return;
+        }
+
+        refillRequested = true;
+
+        if (refillThread == null) {
+            refillThread = new Thread(this::refillLoop, "EntropyPoolRefill");
+            refillThread.setDaemon(true);
+            refillThread.start();
+        } else {
+            notifyAll();
+        }
+    }
+
+    private void refillLoop() {
+        final byte[] fresh = new byte[POOL_SIZE];
+
+        while (true) {
+            synchronized (this) {
+                while (!refillRequested) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+
+            // generate outside the lock, so requests can still be served in the meantime
+            secureRandom.nextBytes(fresh);
+
+            synchronized (this) {
+                // fill the whole consumed region, including bytes taken while generating
+                System.arraycopy(fresh, 0, pool, 0, POOL_SIZE - available);
+                available = POOL_SIZE;
+                refillRequested = false;
+            }
+
+            Arrays.fill(fresh, (byte) 0);
+        }
+    }
+}
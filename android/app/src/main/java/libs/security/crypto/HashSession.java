@@ -0,0 +1,136 @@
+package libs.security.crypto;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Incremental hash or HMAC over data which is provided in chunks
+ * <p>
+ * NOTE: sessions own their engine instance, as they live across calls they never use the {@link CryptoEngine} cache
+ */
+public abstract class HashSession {
+    // buffer size for hashing streams
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    public abstract void update(@NonNull byte[] data, int offset, int length);
+
+    /**
+     * Finish the hash, session cannot be used after this
+     */
+    @NonNull
+    public abstract byte[] digest();
+
+    /**
+     * Drop the hash state, for HMAC sessions the key state as well. Session cannot be used after this
+     */
+    public abstract void destroy();
+
+    public void update(@NonNull final byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    /**
+     * Hash the whole stream in fixed size chunks, the stream is not closed
+     */
+    public void update(@NonNull final InputStream stream) throws IOException {
+        final byte[] buffer = new byte[CHUNK_SIZE];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            update(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Create a hash session for "sha1", "sha256" or "sha512"
+     */
+    @NonNull
+    public static HashSession createHash(@NonNull final String algorithm) throws NoSuchAlgorithmException {
+        final MessageDigest digest = MessageDigest.getInstance(getDigestAlgorithm(algorithm));
+
+        return new HashSession() {
+            @Override
+            public void update(@NonNull final byte[] data, final int offset, final int length) {
+                digest.update(data, offset, length);
+            }
+
+            @NonNull
+            @Override
+            public byte[] digest() {
+                return digest.digest();
+            }
+
+            @Override
+            public void destroy() {
+                digest.reset();
+            }
+        };
+    }
+
+    /**
+     * Create a HMAC session for "sha256" or "sha512"
+     */
+    @NonNull
+    public static HashSession createHmac(@NonNull final String algorithm, @NonNull final byte[] key)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        final String macAlgorithm = getMacAlgorithm(algorithm);
+        final Mac mac = Mac.getInstance(macAlgorithm);
+        mac.init(new SecretKeySpec(key, macAlgorithm));
+
+        return new HashSession() {
+            @Override
+            public void update(@NonNull final byte[] data, final int offset, final int length) {
+                mac.update(data, offset, length);
+            }
+
+            @NonNull
+            @Override
+            public byte[] digest() {
+                return mac.doFinal();
+            }
+
+            @Override
+            public void destroy() {
+                // Mac has no way to drop its key, replace the derived key state with a dummy key
+                try {
+                    mac.init(new SecretKeySpec(new byte[1], macAlgorithm));
+                } catch (InvalidKeyException ignored) {
+                    mac.reset();
+                }
+            }
+        };
+    }
+
+    @NonNull
+    private static String getDigestAlgorithm(@NonNull final String algorithm) throws NoSuchAlgorithmException {
+        switch (algorithm) {
+            case "sha1":
+                return "SHA-1";
+            case "sha256":
+                return "SHA-256";
+            case "sha512":
+                return "SHA-512";
+            default:
+                throw new NoSuchAlgorithmException("Unsupported hash algorithm " + algorithm);
+        }
+    }
+
+    @NonNull
+    private static String getMacAlgorithm(@NonNull final String algorithm) throws NoSuchAlgorithmException {
+        switch (algorithm) {
+            case "sha256":
+                return "HmacSHA256";
+            case "sha512":
+                return "HmacSHA512";
+            default:
+                throw new NoSuchAlgorithmException("Unsupported hmac algorithm " + algorithm);
+        }
+    }
+}
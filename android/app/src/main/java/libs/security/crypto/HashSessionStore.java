@@ -0,0 +1,137 @@
+package libs.security.crypto;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Open hash sessions by handle
+ * <p>
+ * Sessions are only closed by JS (digest or destroy), a session which is never finished (e.g. after an exception or a
+ * navigation) is expired after being idle for the timeout. When the store is full the least recently used session is
+ * evicted, so abandoned sessions never block new ones. Removed sessions are destroyed, so no HMAC key state is left.
+ */
+class HashSessionStore {
+    private final int maxSessions;
+    private final long idleTimeoutMs;
+    // monotonic time in milliseconds
+    private final LongSupplier clock;
+
+    // access ordered, so the least recently used session comes first
+    private final LinkedHashMap<String, HashSession> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> lastAccessAt = new LinkedHashMap<>();
+    private long counter;
+
+    HashSessionStore(final int maxSessions, final long idleTimeoutMs) {
+        this(maxSessions, idleTimeoutMs, SystemClock::elapsedRealtime);
+    }
+
+    HashSessionStore(final int maxSessions, final long idleTimeoutMs, @NonNull final LongSupplier clock) {
+        this.maxSessions = maxSessions;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.clock = clock;
+    }
+
+    /**
+     * Store the session and return its handle
+     */
+    @NonNull
+    synchronized String open(@NonNull final HashSession session) {
+        evictIdle();
+
+        // drop the least recently used sessions
+        final Iterator<Map.Entry<String, HashSession>> iterator = sessions.entrySet().iterator();
+        while (sessions.size() >= maxSessions && iterator.hasNext()) {
+            final Map.Entry<String, HashSession> entry = iterator.next();
+            iterator.remove();
+            lastAccessAt.remove(entry.getKey());
+            entry.getValue().destroy();
+        }
+
+        final String handle = String.valueOf(++counter);
+        sessions.put(handle, session);
+        lastAccessAt.put(handle, clock.getAsLong());
+        return handle;
+    }
+
+    /**
+     * Get the session and mark it as used, null if not exist or expired
+     */
+    @Nullable
+    synchronized HashSession get(@NonNull final String handle) {
+        evictIdle();
+
+        final HashSession session = sessions.get(handle);
+        if (session != null) {
+            lastAccessAt.put(handle, clock.getAsLong());
+        }
+        return session;
+    }
+
+    /**
+     * Remove the session without destroying it, the caller owns the session from now on
+     */
+    @Nullable
+    synchronized HashSession remove(@NonNull final String handle) {
+        evictIdle();
+
+        lastAccessAt.remove(handle);
+        return sessions.remove(handle);
+    }
+
+    /**
+     * Remove and destroy the session, returns false if the session not exist
+     */
+    synchronized boolean destroy(@NonNull final String handle) {
+        final HashSession session = remove(handle);
+
+        if (session == null) {
+            return false;
+        }
+
+        session.destroy();
+        return true;
+    }
+
+    /**
+     * Remove and destroy all sessions
+     */
+    synchronized void clear() {
+        for (HashSession session : sessions.values()) {
+            session.destroy();
+        }
+        sessions.clear();
+        lastAccessAt.clear();
+    }
+
+    synchronized int size() {
+        return sessions.size();
+    }
+
+    private void evictIdle() {
+        final long now = clock.getAsLong();
+        final List<String> expired = new ArrayList<>();
+
+        for (Map.Entry<String, Long> entry : lastAccessAt.entrySet()) {
+            if (now - entry.getValue() > idleTimeoutMs) {
+                expired.add(entry.getKey());
+            }
+        }
+
+        for (String handle : expired) {
+            lastAccessAt.remove(handle);
+            final HashSession session = sessions.remove(handle);
+            if (session != null) {
+                session.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package libs.security.crypto;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Table driven lowercase hex codec
+ * <p>
+ * Decoding is strict, any non hex character or odd length input is rejected.
+ * Encode/decode overloads write into caller provided arrays/buffers, so hot paths can avoid the intermediate copies.
+ */
+public final class Hex {
+    private static final char[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    // byte value -> two hex chars
+    private static final char[] ENCODE_TABLE = new char[256 * 2];
+    // ascii char -> nibble value, -1 for non hex chars
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            ENCODE_TABLE[i << 1] = HEX_DIGITS[i >>> 4];
+            ENCODE_TABLE[(i << 1) + 1] = HEX_DIGITS[i & 0x0F];
+        }
+
+        for (int i = 0; i < DECODE_TABLE.length; i++) {
+            DECODE_TABLE[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            DECODE_TABLE['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            DECODE_TABLE['a' + i] = (byte) (10 + i);
+            DECODE_TABLE['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private Hex() {
+    }
+
+    @NonNull
+    public static String encode(@NonNull final byte[] data) {
+        final char[] out = new char[data.length << 1];
+        encode(data, 0, data.length, out, 0);
+        return new String(out);
+    }
+
+    /**
+     * Encode bytes into the provided chars, returns number of chars written
+     */
+    public static int encode(@NonNull final byte[] data, final int offset, final int length, @NonNull final char[] out, final int outOffset) {
+        if (outOffset + (length << 1) > out.length) {
+            throw new IndexOutOfBoundsException("Output is too small.");
+        }
+
+        for (int i = offset, j = outOffset; i < offset + length; i++) {
+            final int index = (data[i] & 0xFF) << 1;
+            out[j++] = ENCODE_TABLE[index];
+            out[j++] = ENCODE_TABLE[index + 1];
+        }
+
+        return length << 1;
+    }
+
+    /**
+     * Encode the remaining bytes of the buffer into the provided chars, returns number of chars written
+     */
+    public static int encode(@NonNull final ByteBuffer data, @NonNull final char[] out, final int outOffset) {
+        final int length = data.remaining();
+
+        if (outOffset + (length << 1) > out.length) {
+            throw new IndexOutOfBoundsException("Output is too small.");
+        }
+
+        for (int j = outOffset; data.hasRemaining(); ) {
+            final int index = (data.get() & 0xFF) << 1;
+            out[j++] = ENCODE_TABLE[index];
+            out[j++] = ENCODE_TABLE[index + 1];
+        }
+
+        return length << 1;
+    }
+
+    @NonNull
+    public static byte[] decode(@NonNull final CharSequence hex) {
+        final byte[] out = new byte[decodedLength(hex)];
+        decode(hex, out, 0);
+        return out;
+    }
+
+    /**
+     * Decode hex into the provided bytes, returns number of bytes written
+     */
+    public static int decode(@NonNull final CharSequence hex, @NonNull final byte[] out, final int outOffset) {
+        final int length = decodedLength(hex);
+
+        if (outOffset + length > out.length) {
+            throw new IndexOutOfBoundsException("Output is too small.");
+        }
+
+        for (int i = 0, j = 0; i < length; i++, j += 2) {
+            out[outOffset + i] = (byte) ((nibble(hex, j) << 4) | nibble(hex, j + 1));
+        }
+
+        return length;
+    }
+
+    /**
+     * Decode hex into the provided buffer, returns number of bytes written
+     */
+    public static int decode(@NonNull final CharSequence hex, @NonNull final ByteBuffer out) {
+        final int length = decodedLength(hex);
+
+        if (length > out.remaining()) {
+            throw new IndexOutOfBoundsException("Output is too small.");
+        }
+
+        for (int j = 0; j < hex.length(); j += 2) {
+            out.put((byte) ((nibble(hex, j) << 4) | nibble(hex, j + 1)));
+        }
+
+        return length;
+    }
+
+    /**
+     * Decode with the legacy lenient behaviour, where invalid characters are mapped through Character.digit
+     * NOTE: only for values which have been derived from unvalidated input in the past (e.g. device id), as changing
+     * the result would change keys derived from it
+     */
+    @NonNull
+    public static byte[] decodeLenient(@NonNull final String hex) {
+        final int length = hex.length();
+
+        if ((length & 0x01) != 0) {
+            throw new IllegalArgumentException("Odd number of characters.");
+        }
+
+        final byte[] out = new byte[length >> 1];
+        for (int i = 0, j = 0; j < length; i++, j += 2) {
+            final int f = (Character.digit(hex.charAt(j), 16) << 4) | Character.digit(hex.charAt(j + 1), 16);
+            out[i] = (byte) (f & 0xFF);
+        }
+
+        return out;
+    }
+
+    private static int decodedLength(@NonNull final CharSequence hex) {
+        if ((hex.length() & 0x01) != 0) {
+            throw new IllegalArgumentException("Odd number of characters.");
+        }
+        return hex.length() >> 1;
+    }
+
+    private static int nibble(@NonNull final CharSequence hex, final int index) {
+        final char c = hex.charAt(index);
+        final int value = c < 128 ? DECODE_TABLE[c] : -1;
+
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid hex character at index " + index + ".");
+        }
+
+        return value;
+    }
+}
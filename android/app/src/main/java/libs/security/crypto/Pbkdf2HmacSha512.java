@@ -0,0 +1,311 @@
+package libs.security.crypto;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import libs.security.CancellationToken;
+import libs.security.OperationCancelledException;
+
+/**
+ * PBKDF2-HMAC-SHA512 (RFC 8018) on top of a plain SHA-512 compression function
+ * <p>
+ * HMAC inner/outer pad states are computed once per derivation, each iteration is exactly two
+ * compressions on preallocated word buffers, without any allocation in the iteration loop.
+ * <p>
+ * NOTE: password chars are encoded as UTF-8, the same as the platform "PBKDF2WithHmacSHA512"
+ * <p>
+ * Derivation stops with {@link OperationCancelledException} when the {@link CancellationToken} of the running
+ * operation is cancelled.
+ */
+public final class Pbkdf2HmacSha512 {
+    private static final int BLOCK_LENGTH = 128;
+    private static final int DIGEST_LENGTH = 64;
+    private static final int DIGEST_WORDS = 8;
+    // cancellation is checked every 4096 iterations
+    private static final int CANCELLATION_CHECK_MASK = 0xFFF;
+
+    private static final long[] K = {
+            0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+            0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+            0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+            0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+            0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+            0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+            0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+            0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+            0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+            0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+            0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+            0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+            0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+            0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+            0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+            0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+            0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+            0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+            0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+            0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L
+    };
+
+    private static final long[] IV = {
+            0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+            0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+    };
+
+    private Pbkdf2HmacSha512() {
+    }
+
+    /**
+     * Derive key with the same semantics as SecretKeyFactory "PBKDF2WithHmacSHA512"
+     */
+    @NonNull
+    public static byte[] derive(@NonNull final char[] password, @NonNull final byte[] salt, final int iterations, final int keyLength) {
+        final byte[] passwordBytes = encodePassword(password);
+        try {
+            return derive(passwordBytes, salt, iterations, keyLength);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+
+    @NonNull
+    public static byte[] derive(@NonNull final byte[] password, @NonNull final byte[] salt, final int iterations, final int keyLength) {
+        if (iterations < 1 || keyLength < 1) {
+            throw new IllegalArgumentException("Invalid PBKDF2 parameters");
+        }
+
+        // HMAC key is padded to the block length, or hashed first if longer than a block
+        final byte[] hmacKey = new byte[BLOCK_LENGTH];
+        if (password.length > BLOCK_LENGTH) {
+            System.arraycopy(digest(password), 0, hmacKey, 0, DIGEST_LENGTH);
+        } else {
+            System.arraycopy(password, 0, hmacKey, 0, password.length);
+        }
+
+        // precompute the inner and outer pad states once
+        final long[] innerState = IV.clone();
+        final long[] outerState = IV.clone();
+        final long[] words = new long[16];
+        final long[] schedule = new long[80];
+
+        for (int i = 0; i < 16; i++) {
+            words[i] = readLong(hmacKey, i * 8) ^ 0x3636363636363636L;
+        }
+        compress(innerState, words, schedule);
+        for (int i = 0; i < 16; i++) {
+            words[i] = readLong(hmacKey, i * 8) ^ 0x5c5c5c5c5c5c5c5cL;
+        }
+        compress(outerState, words, schedule);
+        Arrays.fill(hmacKey, (byte) 0);
+
+        final byte[] result = new byte[keyLength];
+        final long[] state = new long[DIGEST_WORDS];
+        final long[] u = new long[DIGEST_WORDS];
+        final long[] t = new long[DIGEST_WORDS];
+
+        final CancellationToken cancellationToken = CancellationToken.current();
+
+        try {
+            final int blocks = (keyLength + DIGEST_LENGTH - 1) / DIGEST_LENGTH;
+            for (int block = 1; block <= blocks; block++) {
+                // U1 = HMAC(P, S || INT(block))
+                final byte[] message = new byte[salt.length + 4];
+                System.arraycopy(salt, 0, message, 0, salt.length);
+                message[salt.length] = (byte) (block >>> 24);
+                message[salt.length + 1] = (byte) (block >>> 16);
+                message[salt.length + 2] = (byte) (block >>> 8);
+                message[salt.length + 3] = (byte) block;
+
+                System.arraycopy(innerState, 0, state, 0, DIGEST_WORDS);
+                digestRest(state, message, BLOCK_LENGTH, words, schedule);
+                outer(outerState, state, u, words, schedule);
+                System.arraycopy(u, 0, t, 0, DIGEST_WORDS);
+
+                // Un = HMAC(P, Un-1), both hashes fit in a single block as Un-1 is one digest long
+                for (int i = 1; i < iterations; i++) {
+                    // cheap volatile read, stops a cancelled derivation within a few milliseconds
+                    if ((i & CANCELLATION_CHECK_MASK) == 0) {
+                        cancellationToken.throwIfCancelled();
+                    }
+
+                    System.arraycopy(innerState, 0, state, 0, DIGEST_WORDS);
+                    System.arraycopy(u, 0, words, 0, DIGEST_WORDS);
+                    padDigestBlock(words);
+                    compress(state, words, schedule);
+
+                    outer(outerState, state, u, words, schedule);
+
+                    for (int j = 0; j < DIGEST_WORDS; j++) {
+                        t[j] ^= u[j];
+                    }
+                }
+
+                final int offset = (block - 1) * DIGEST_LENGTH;
+                for (int i = 0; i < DIGEST_LENGTH && offset + i < keyLength; i++) {
+                    result[offset + i] = (byte) (t[i >>> 3] >>> (56 - ((i & 7) << 3)));
+                }
+            }
+        } catch (OperationCancelledException e) {
+            Arrays.fill(result, (byte) 0);
+            throw e;
+        } finally {
+            Arrays.fill(innerState, 0);
+            Arrays.fill(outerState, 0);
+            Arrays.fill(state, 0);
+            Arrays.fill(u, 0);
+            Arrays.fill(t, 0);
+            Arrays.fill(words, 0);
+            Arrays.fill(schedule, 0);
+        }
+
+        return result;
+    }
+
+    /**
+     * out = SHA512(opad state || inner digest)
+     */
+    private static void outer(final long[] outerState, final long[] innerDigest, final long[] out, final long[] words, final long[] schedule) {
+        System.arraycopy(innerDigest, 0, words, 0, DIGEST_WORDS);
+        padDigestBlock(words);
+        System.arraycopy(outerState, 0, out, 0, DIGEST_WORDS);
+        compress(out, words, schedule);
+    }
+
+    /**
+     * Pad a block holding a single digest, which follows a block already absorbed in the state
+     */
+    private static void padDigestBlock(final long[] words) {
+        words[8] = 0x8000000000000000L;
+        words[9] = 0;
+        words[10] = 0;
+        words[11] = 0;
+        words[12] = 0;
+        words[13] = 0;
+        words[14] = 0;
+        words[15] = (BLOCK_LENGTH + DIGEST_LENGTH) * 8;
+    }
+
+    /**
+     * Plain SHA-512 of the data
+     */
+    @NonNull
+    private static byte[] digest(@NonNull final byte[] data) {
+        final long[] state = IV.clone();
+        digestRest(state, data, 0, new long[16], new long[80]);
+
+        final byte[] out = new byte[DIGEST_LENGTH];
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            out[i] = (byte) (state[i >>> 3] >>> (56 - ((i & 7) << 3)));
+        }
+        return out;
+    }
+
+    /**
+     * Absorb the data and the final padding, with already processed bytes before it
+     */
+    private static void digestRest(final long[] state, final byte[] data, final long processed, final long[] words, final long[] schedule) {
+        final int fullBlocks = data.length / BLOCK_LENGTH;
+        for (int b = 0; b < fullBlocks; b++) {
+            for (int i = 0; i < 16; i++) {
+                words[i] = readLong(data, b * BLOCK_LENGTH + i * 8);
+            }
+            compress(state, words, schedule);
+        }
+
+        // last block(s) with padding, 128 bit length field (upper 64 bits are always zero here)
+        final int remaining = data.length - fullBlocks * BLOCK_LENGTH;
+        final byte[] tail = new byte[remaining + 17 > BLOCK_LENGTH ? BLOCK_LENGTH * 2 : BLOCK_LENGTH];
+        System.arraycopy(data, fullBlocks * BLOCK_LENGTH, tail, 0, remaining);
+        tail[remaining] = (byte) 0x80;
+        final long bitLength = (processed + data.length) * 8;
+        for (int i = 0; i < 8; i++) {
+            tail[tail.length - 1 - i] = (byte) (bitLength >>> (i * 8));
+        }
+
+        for (int b = 0; b < tail.length / BLOCK_LENGTH; b++) {
+            for (int i = 0; i < 16; i++) {
+                words[i] = readLong(tail, b * BLOCK_LENGTH + i * 8);
+            }
+            compress(state, words, schedule);
+        }
+    }
+
+    private static long readLong(final byte[] data, final int offset) {
+        return ((long) (data[offset] & 0xFF) << 56)
+                | ((long) (data[offset + 1] & 0xFF) << 48)
+                | ((long) (data[offset + 2] & 0xFF) << 40)
+                | ((long) (data[offset + 3] & 0xFF) << 32)
+                | ((long) (data[offset + 4] & 0xFF) << 24)
+                | ((long) (data[offset + 5] & 0xFF) << 16)
+                | ((long) (data[offset + 6] & 0xFF) << 8)
+                | ((long) (data[offset + 7] & 0xFF));
+    }
+
+    /**
+     * SHA-512 compression of one block (16 words) into the state
+     */
+    private static void compress(final long[] state, final long[] words, final long[] w) {
+        System.arraycopy(words, 0, w, 0, 16);
+        for (int i = 16; i < 80; i++) {
+            final long w15 = w[i - 15];
+            final long w2 = w[i - 2];
+            final long s0 = Long.rotateRight(w15, 1) ^ Long.rotateRight(w15, 8) ^ (w15 >>> 7);
+            final long s1 = Long.rotateRight(w2, 19) ^ Long.rotateRight(w2, 61) ^ (w2 >>> 6);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+
+        long a = state[0];
+        long b = state[1];
+        long c = state[2];
+        long d = state[3];
+        long e = state[4];
+        long f = state[5];
+        long g = state[6];
+        long h = state[7];
+
+        for (int i = 0; i < 80; i++) {
+            final long s1 = Long.rotateRight(e, 14) ^ Long.rotateRight(e, 18) ^ Long.rotateRight(e, 41);
+            final long ch = (e & f) ^ (~e & g);
+            final long t1 = h + s1 + ch + K[i] + w[i];
+            final long s0 = Long.rotateRight(a, 28) ^ Long.rotateRight(a, 34) ^ Long.rotateRight(a, 39);
+            final long maj = (a & b) ^ (a & c) ^ (b & c);
+            final long t2 = s0 + maj;
+
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+        state[5] += f;
+        state[6] += g;
+        state[7] += h;
+    }
+
+    @NonNull
+    private static byte[] encodePassword(@NonNull final char[] password) {
+        final ByteBuffer buffer = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+
+        // wipe the encoder buffer, it holds a copy of the password
+        if (buffer.hasArray()) {
+            Arrays.fill(buffer.array(), (byte) 0);
+        }
+
+        return bytes;
+    }
+}
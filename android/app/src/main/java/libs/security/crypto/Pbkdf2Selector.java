@@ -0,0 +1,150 @@
+package libs.security.crypto;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import java.security.MessageDigest;
+
+/**
+ * Picks the PBKDF2 implementation for this device, the optimized implementation is only used when it produces the
+ * same result as the platform provider and is faster on this device
+ * <p>
+ * Selection runs once in background after init, the platform provider is used until then. Benchmark result is
+ * persisted per device build, so later starts only run the self test.
+ */
+public class Pbkdf2Selector {
+    private static final String LOG_TAG = Pbkdf2Selector.class.getSimpleName();
+
+    public static final String SELECTION_DATA = "RN_CRYPTO_PBKDF2";
+    private static final String KEY_USE_OPTIMIZED = "use_optimized";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+
+    static final int KEY_LENGTH = 32;
+    private static final int SELF_TEST_ITERATIONS = 1000;
+    private static final int BENCHMARK_ITERATIONS = 10000;
+    // rounds which are not measured, so both implementations are compiled by the JIT before measuring
+    private static final int WARM_UP_ROUNDS = 3;
+    private static final int BENCHMARK_ROUNDS = 5;
+
+    private SharedPreferences prefs;
+    private boolean selected;
+    private volatile boolean useOptimized;
+
+    public static Pbkdf2Selector sharedInstance() {
+        return SingletonHolder.instance;
+    }
+
+    private static class SingletonHolder {
+        static final Pbkdf2Selector instance = new Pbkdf2Selector();
+    }
+
+    /**
+     * Start the selection in background, off the key derivation path
+     */
+    public synchronized Pbkdf2Selector init(final ReactApplicationContext context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Context is required");
+        }
+
+        if (prefs != null) {
+            return this;
+        }
+
+        prefs = context.getSharedPreferences(SELECTION_DATA, Context.MODE_PRIVATE);
+
+        final Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            select();
+        }, "PBKDF2Selector");
+        thread.setDaemon(true);
+        thread.start();
+
+        return this;
+    }
+
+    /**
+     * Check if the optimized pure Java PBKDF2 has been selected, false until the selection is done
+     */
+    public boolean useOptimized() {
+        return useOptimized;
+    }
+
+    /**
+     * Run the selection if not done yet, waits for a running selection
+     */
+    public synchronized void select() {
+        if (selected) {
+            return;
+        }
+
+        try {
+            final char[] password = Crypto.BytesToHex(Crypto.RandomBytes(16)).toCharArray();
+            final byte[] salt = Crypto.RandomBytes(32);
+
+            // self test, runs on every start as the persisted result can be of an older implementation
+            final byte[] expected = Crypto.PlatformPBKDF2(password, salt, SELF_TEST_ITERATIONS);
+            final byte[] actual = Pbkdf2HmacSha512.derive(password, salt, SELF_TEST_ITERATIONS, KEY_LENGTH);
+            if (!MessageDigest.isEqual(expected, actual)) {
+                useOptimized = false;
+                return;
+            }
+
+            final String fingerprint = getFingerprint();
+
+            if (prefs != null && prefs.contains(KEY_USE_OPTIMIZED) && fingerprint.equals(prefs.getString(KEY_FINGERPRINT, null))) {
+                useOptimized = prefs.getBoolean(KEY_USE_OPTIMIZED, false);
+                return;
+            }
+
+            useOptimized = benchmark(password, salt);
+
+            final boolean persisted = prefs != null && prefs.edit()
+                    .putBoolean(KEY_USE_OPTIMIZED, useOptimized)
+                    .putString(KEY_FINGERPRINT, fingerprint)
+                    .commit();
+            if (!persisted) {
+                // selected again on next start
+                Log.w(LOG_TAG, "Unable to persist PBKDF2 selection");
+            }
+        } catch (Exception e) {
+            // keep the platform provider behaviour
+            Log.w(LOG_TAG, "Unable to select PBKDF2 implementation", e);
+            useOptimized = false;
+        } finally {
+            selected = true;
+        }
+    }
+
+    private static boolean benchmark(@NonNull final char[] password, @NonNull final byte[] salt) throws Exception {
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            Crypto.PlatformPBKDF2(password, salt, BENCHMARK_ITERATIONS);
+            Pbkdf2HmacSha512.derive(password, salt, BENCHMARK_ITERATIONS, KEY_LENGTH);
+        }
+
+        long platformBest = Long.MAX_VALUE;
+        long optimizedBest = Long.MAX_VALUE;
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            long start = System.nanoTime();
+            Crypto.PlatformPBKDF2(password, salt, BENCHMARK_ITERATIONS);
+            platformBest = Math.min(platformBest, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            Pbkdf2HmacSha512.derive(password, salt, BENCHMARK_ITERATIONS, KEY_LENGTH);
+            optimizedBest = Math.min(optimizedBest, System.nanoTime() - start);
+        }
+
+        return optimizedBest < platformBest;
+    }
+
+    @NonNull
+    private static String getFingerprint() {
+        return Build.FINGERPRINT != null ? Build.FINGERPRINT : "";
+    }
+}
@@ -12,7 +12,8 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import java.util.Map;
 import java.util.Objects;
 
-import libs.security.crypto.Crypto;
+import libs.security.crypto.Hex;
+import libs.security.vault.VaultMetrics;
 import libs.security.vault.storage.Keychain;
 
 public class UniqueIdProvider {
@@ -20,6 +21,8 @@ public class UniqueIdProvider {
 
     private Context applicationContent;
     private Keychain keychain;
+    // device unique id is read from the keychain once, every vault operation needs it
+    private String cachedDeviceUniqueId;
 
     public synchronized UniqueIdProvider init(final ReactApplicationContext context) {
         if (context == null) {
@@ -71,13 +74,15 @@ public class UniqueIdProvider {
 
     @Nullable
     public synchronized byte[] getDeviceUniqueIdBytes() {
+        final long stage = VaultMetrics.sharedInstance().begin();
         String deviceUniqueId = getDeviceUniqueId();
+        VaultMetrics.sharedInstance().end("device_id", stage);
 
         if (deviceUniqueId == null) {
             return null;
         }
 
-        StringBuilder uniqueId = new StringBuilder(getDeviceUniqueId());
+        StringBuilder uniqueId = new StringBuilder(deviceUniqueId);
         // in some android devices the leading zero's in android id can be omitted
         // as android id is represented as hex we can add leading zero's
         // NOTE: leading zeros are absent from the value; it's supposed to be a 64-bit value
@@ -85,7 +90,8 @@ public class UniqueIdProvider {
             uniqueId.insert(0, "0");
         }
 
-        return Crypto.HexToBytes(uniqueId.toString());
+        // NOTE: lenient decoding, device id is used for vault keys and has never been validated as hex
+        return Hex.decodeLenient(uniqueId.toString());
     }
 
     @SuppressLint("HardwareIds")
@@ -96,6 +102,10 @@ public class UniqueIdProvider {
             throw new RuntimeException("Context is required");
         }
 
+        if (cachedDeviceUniqueId != null) {
+            return cachedDeviceUniqueId;
+        }
+
         // look for device unique id in the Keychain
         String unique_id = loadDeviceUniqueId();
 
@@ -112,6 +122,15 @@ public class UniqueIdProvider {
             saveDeviceUniqueId(unique_id);
         }
 
+       cachedDeviceUniqueId = unique_id;
+
        return unique_id;
     }
+
+    /**
+     * Forget the cached device unique id, used when the keychain is cleared
+     */
+    public synchronized void reset() {
+        cachedDeviceUniqueId = null;
+    }
 }
@@ -0,0 +1,336 @@
+package libs.security.vault;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import libs.security.CancellationToken;
+import libs.security.WorkerPool;
+import libs.security.vault.cipher.Cipher;
+import libs.security.vault.storage.Keychain;
+
+/**
+ * Re-key a batch of vaults with a new key
+ * <p>
+ * All key derivation and encryption work is done in parallel before the storage is touched,
+ * storage changes are journaled so an interrupted batch can be rolled back (or finished) on next start.
+ * <p>
+ * NOTE: keychain access is kept on the calling thread, only the Cipher work and the Keystore work of the batched
+ * keychain reads and deletes are done on the worker pool
+ * <p>
+ * A cancelled batch stops at the next step, once the storage is touched it is rolled back from the recovery copies.
+ * The journal holds a single batch and is shared by the whole process, so batches are serialized on a process wide
+ * lock (engines of a reloaded module included). Vaults of the batch (and of the batch being recovered) are locked at
+ * once with {@link VaultLocks}, always after the batch lock.
+ */
+public class ReKeyEngine {
+    private static final String LOG_TAG = ReKeyEngine.class.getSimpleName();
+
+    // journal is process wide, so is the lock of the batches
+    private static final Object BATCH_LOCK = new Object();
+
+    private final Keychain keychain;
+    private final ReKeyJournal journal;
+    private final WorkerPool workerPool;
+    private final VaultLocks vaultLocks;
+
+    /**
+     * Vault encrypted with the new key, ready to be stored
+     */
+    private static class StagedVault {
+        final String derivedKeys;
+        final String cipher;
+
+        StagedVault(final String derivedKeys, final String cipher) {
+            this.derivedKeys = derivedKeys;
+            this.cipher = cipher;
+        }
+    }
+
+    public ReKeyEngine(@NonNull final Keychain keychain, @NonNull final ReKeyJournal journal) {
+        this.keychain = keychain;
+        this.journal = journal;
+        this.workerPool = WorkerPool.sharedInstance();
+        this.vaultLocks = VaultLocks.sharedInstance();
+    }
+
+    /*
+    Re-key all provided vaults with the new key, duplicate vault names are re-keyed once
+    NOTE: either all vaults are re-keyed or none of them
+    */
+    public void reKey(@NonNull final List<String> vaultNames, @NonNull final String oldKey, @NonNull final String newKey)
+            throws Exception {
+        final Set<String> batchVaults = new LinkedHashSet<>(vaultNames);
+
+        synchronized (BATCH_LOCK) {
+            final Set<String> lockedVaults = new LinkedHashSet<>(batchVaults);
+
+            final ReKeyJournal.Entry unfinished = journal.read();
+            if (unfinished != null) {
+                lockedVaults.addAll(unfinished.vaults);
+            }
+
+            try (VaultLocks.Handle ignored = vaultLocks.acquireAll(lockedVaults)) {
+                // make sure there is no unfinished batch before we start a new one
+                recoverLocked();
+
+                reKeyLocked(new ArrayList<>(batchVaults), oldKey, newKey);
+            }
+        }
+    }
+
+    private void reKeyLocked(@NonNull final List<String> vaultNames, @NonNull final String oldKey, @NonNull final String newKey)
+            throws Exception {
+
+        // read all vaults from the keychain at once
+        final Map<String, Map<String, String>> storedItems = keychain.getItems(vaultNames);
+        final List<Map<String, String>> items = new ArrayList<>(vaultNames.size());
+        for (String vaultName : vaultNames) {
+            final Map<String, String> item = storedItems.get(vaultName);
+
+            if (item == null || item.get("password") == null || item.get("username") == null) {
+                throw new Exception("VAULT_NOT_EXIST");
+            }
+
+            items.add(item);
+        }
+
+        // decrypt all vaults with the old key
+        final List<Callable<String>> decryptTasks = new ArrayList<>(items.size());
+        for (final Map<String, String> item : items) {
+            decryptTasks.add(() -> {
+                final String clearText = Cipher.decrypt(
+                        Objects.requireNonNull(item.get("password")),
+                        oldKey,
+                        Objects.requireNonNull(item.get("username"))
+                );
+
+                if (TextUtils.isEmpty(clearText)) {
+                    throw new Exception("VAULT_DATA_IS_NULL");
+                }
+
+                return clearText;
+            });
+        }
+        final List<String> clearTexts = workerPool.invokeAll(decryptTasks);
+
+        // encrypt all vaults with the new key and make sure we are able to decrypt them again
+        final List<Callable<StagedVault>> encryptTasks = new ArrayList<>(clearTexts.size());
+        for (final String clearText : clearTexts) {
+            encryptTasks.add(() -> {
+                final Map<String, Object> cipherResult = Cipher.encrypt(clearText, newKey);
+
+                final Cipher.DerivedKeys derivedKeys = (Cipher.DerivedKeys) cipherResult.get("derived_keys");
+                final String cipher = (String) cipherResult.get("cipher");
+
+                if (derivedKeys == null || cipher == null) {
+                    throw new Exception("UNABLE_TO_GET_VAULT_CIPHER");
+                }
+
+                final String derivedKeysString = derivedKeys.serialize();
+
+                // verify with the key derived while encrypting, no need to run the key derivation again
+                final byte[] encrKey = (byte[]) cipherResult.get("encr_key");
+
+                try {
+                    final String verifiedClearText = encrKey != null
+                            ? Cipher.decryptWithEncrKey(cipher, encrKey, derivedKeysString)
+                            : Cipher.decrypt(cipher, newKey, derivedKeysString);
+
+                    if (!clearText.equals(verifiedClearText)) {
+                        throw new Exception("UNABLE_TO_VERIFY_RESULT");
+                    }
+                } finally {
+                    if (encrKey != null) {
+                        Arrays.fill(encrKey, (byte) 0);
+                    }
+                }
+
+                return new StagedVault(derivedKeysString, cipher);
+            });
+        }
+        final List<StagedVault> stagedVaults = workerPool.invokeAll(encryptTasks);
+
+        final CancellationToken cancellationToken = CancellationToken.current();
+        cancellationToken.throwIfCancelled();
+
+        // from here we are changing the storage, journal every step
+        final ReKeyJournal.Entry entry = journal.begin(vaultNames);
+
+        try {
+            // NOTE: removing recovery vaults is safe as we could open the main vaults
+            keychain.deleteItems(getRecoveryVaultNames(vaultNames));
+
+            // keep a copy of the current vaults under the recovery name
+            // NOTE: copy is made on the keychain level, so no key derivation is needed for backup or restore
+            for (int i = 0; i < vaultNames.size(); i++) {
+                cancellationToken.throwIfCancelled();
+
+                final String vaultName = vaultNames.get(i);
+                final String recoveryVaultName = VaultManagerModule.getRecoveryVaultName(vaultName);
+                final Map<String, String> item = items.get(i);
+
+                final String derivedKeysString = Objects.requireNonNull(item.get("username"));
+                final String cipher = Objects.requireNonNull(item.get("password"));
+
+                keychain.setItem(
+                        recoveryVaultName,
+                        derivedKeysString,
+                        cipher,
+                        Cipher.getCipherVersion(cipher, derivedKeysString)
+                );
+
+                journal.markBackedUp(entry, vaultName);
+            }
+
+            journal.setState(entry, ReKeyJournal.State.SWAP);
+
+            // replace the vaults with the re-keyed ones
+            for (int i = 0; i < vaultNames.size(); i++) {
+                cancellationToken.throwIfCancelled();
+
+                final String vaultName = vaultNames.get(i);
+                final StagedVault stagedVault = stagedVaults.get(i);
+
+                keychain.deleteItem(vaultName);
+                keychain.setItem(
+                        vaultName,
+                        stagedVault.derivedKeys,
+                        stagedVault.cipher,
+                        Cipher.getCipherVersion(stagedVault.cipher, stagedVault.derivedKeys)
+                );
+            }
+
+            // make sure the keychain returns what we stored
+            final Map<String, Map<String, String>> swappedItems = keychain.getItems(vaultNames);
+            for (int i = 0; i < vaultNames.size(); i++) {
+                final StagedVault stagedVault = stagedVaults.get(i);
+                final Map<String, String> storedItem = swappedItems.get(vaultNames.get(i));
+
+                if (storedItem == null
+                        || !stagedVault.derivedKeys.equals(storedItem.get("username"))
+                        || !stagedVault.cipher.equals(storedItem.get("password"))) {
+                    throw new Exception("UNABLE_TO_VERIFY_RESULT");
+                }
+            }
+        } catch (Exception e) {
+            try {
+                rollback(entry);
+            } catch (Exception rollbackError) {
+                // journal is left in place, we will try again on next start
+                Log.e(LOG_TAG, "Unable to rollback re-key batch", rollbackError);
+            }
+            throw e;
+        }
+
+        journal.setState(entry, ReKeyJournal.State.COMMITTED);
+
+        // all done, remove recovery copies
+        cleanup(entry);
+    }
+
+    /*
+    Finish or rollback the unfinished batch from the journal, if any
+    */
+    public void recover() throws Exception {
+        synchronized (BATCH_LOCK) {
+            final ReKeyJournal.Entry entry = journal.read();
+
+            // nothing to recover
+            if (entry == null) {
+                return;
+            }
+
+            try (VaultLocks.Handle ignored = vaultLocks.acquireAll(entry.vaults)) {
+                recoverLocked();
+            }
+        }
+    }
+
+    private void recoverLocked() throws Exception {
+        final ReKeyJournal.Entry entry = journal.read();
+
+        // nothing to recover
+        if (entry == null) {
+            return;
+        }
+
+        Log.w(LOG_TAG, "Recovering unfinished re-key batch in state " + entry.state.name());
+
+        if (entry.state == ReKeyJournal.State.COMMITTED) {
+            cleanup(entry);
+        } else {
+            rollback(entry);
+        }
+    }
+
+    /*
+    Restore the vaults from the recovery copies
+    NOTE: while in BACKUP state the vaults are not touched yet, so only the copies needs to be removed
+    */
+    private void rollback(@NonNull final ReKeyJournal.Entry entry) throws Exception {
+        if (entry.state == ReKeyJournal.State.SWAP) {
+            final Map<String, Map<String, String>> recoveryItems = keychain.getItems(
+                    getRecoveryVaultNames(entry.backedUp)
+            );
+
+            for (String vaultName : entry.backedUp) {
+                final Map<String, String> recoveryItem = recoveryItems.get(
+                        VaultManagerModule.getRecoveryVaultName(vaultName)
+                );
+
+                // already restored
+                if (recoveryItem == null) {
+                    continue;
+                }
+
+                if (keychain.itemExist(vaultName)) {
+                    keychain.deleteItem(vaultName);
+                }
+
+                final String derivedKeysString = Objects.requireNonNull(recoveryItem.get("username"));
+                final String cipher = Objects.requireNonNull(recoveryItem.get("password"));
+
+                keychain.setItem(
+                        vaultName,
+                        derivedKeysString,
+                        cipher,
+                        Cipher.getCipherVersion(cipher, derivedKeysString)
+                );
+            }
+        }
+
+        cleanup(entry);
+    }
+
+    /*
+    Remove the recovery copies and the journal
+    NOTE: copies of all vaults in the batch are removed, a copy can be stored right before the process dies and never
+    marked as backed up
+    */
+    private void cleanup(@NonNull final ReKeyJournal.Entry entry) throws Exception {
+        keychain.deleteItems(getRecoveryVaultNames(entry.vaults));
+
+        journal.clear();
+    }
+
+    @NonNull
+    private static List<String> getRecoveryVaultNames(@NonNull final Collection<String> vaultNames) {
+        final List<String> recoveryVaultNames = new ArrayList<>(vaultNames.size());
+        for (String vaultName : vaultNames) {
+            recoveryVaultNames.add(VaultManagerModule.getRecoveryVaultName(vaultName));
+        }
+        return recoveryVaultNames;
+    }
+}
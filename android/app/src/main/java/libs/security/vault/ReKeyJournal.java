@@ -0,0 +1,120 @@
+package libs.security.vault;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persisted journal of the in progress batch re-key
+ * NOTE: every change is committed synchronously, as the journal is used to recover after a crash
+ */
+public class ReKeyJournal {
+    public static final String JOURNAL_DATA = "RN_VAULT_JOURNAL";
+    private static final String KEY_BATCH = "rekey_batch";
+
+    /**
+     * Journal states, in order of progress
+     */
+    public enum State {
+        // copies of the current vaults are being written under recovery names
+        BACKUP,
+        // vaults are being replaced with the re-keyed vaults
+        SWAP,
+        // all vaults are re-keyed, only the recovery copies are left for cleanup
+        COMMITTED
+    }
+
+    public static class Entry {
+        public State state;
+        public final List<String> vaults = new ArrayList<>();
+        public final List<String> backedUp = new ArrayList<>();
+    }
+
+    @NonNull
+    private final SharedPreferences prefs;
+
+    public ReKeyJournal(@NonNull final ReactApplicationContext reactContext) {
+        this.prefs = reactContext.getSharedPreferences(JOURNAL_DATA, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Get the pending journal entry, null if no batch is in progress
+     */
+    @Nullable
+    public Entry read() {
+        final String value = prefs.getString(KEY_BATCH, null);
+
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            final JSONObject object = new JSONObject(value);
+            final Entry entry = new Entry();
+
+            entry.state = State.valueOf(object.getString("state"));
+
+            final JSONArray vaults = object.getJSONArray("vaults");
+            for (int i = 0; i < vaults.length(); i++) {
+                entry.vaults.add(vaults.getString(i));
+            }
+
+            final JSONArray backedUp = object.getJSONArray("backed_up");
+            for (int i = 0; i < backedUp.length(); i++) {
+                entry.backedUp.add(backedUp.getString(i));
+            }
+
+            return entry;
+        } catch (JSONException | IllegalArgumentException e) {
+            // corrupted journal, nothing we can recover from
+            return null;
+        }
+    }
+
+    @NonNull
+    public Entry begin(@NonNull final List<String> vaultNames) throws Exception {
+        final Entry entry = new Entry();
+        entry.state = State.BACKUP;
+        entry.vaults.addAll(vaultNames);
+
+        write(entry);
+
+        return entry;
+    }
+
+    public void markBackedUp(@NonNull final Entry entry, @NonNull final String vaultName) throws Exception {
+        entry.backedUp.add(vaultName);
+        write(entry);
+    }
+
+    public void setState(@NonNull final Entry entry, @NonNull final State state) throws Exception {
+        entry.state = state;
+        write(entry);
+    }
+
+    public void clear() {
+        prefs.edit().remove(KEY_BATCH).commit();
+    }
+
+    private void write(@NonNull final Entry entry) throws Exception {
+        final JSONObject object = new JSONObject();
+        object.put("state", entry.state.name());
+        object.put("vaults", new JSONArray(entry.vaults));
+        object.put("backed_up", new JSONArray(entry.backedUp));
+
+        if (!prefs.edit().putString(KEY_BATCH, object.toString()).commit()) {
+            throw new Exception("UNABLE_TO_WRITE_JOURNAL");
+        }
+    }
+}
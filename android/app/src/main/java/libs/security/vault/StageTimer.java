@@ -0,0 +1,61 @@
+package libs.security.vault;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wall clock durations of the stages of a single vault operation, in milliseconds
+ * <p>
+ * Stages can be recorded from any thread. Stages which run concurrently are recorded individually,
+ * so the sum of the stages can be more than the total duration.
+ * Every stage is also recorded in the {@link VaultMetrics} histograms, labeled with the operation.
+ */
+public class StageTimer {
+    public static final String TOTAL = "total";
+
+    @NonNull
+    private final String operation;
+    private final long startedAt = System.nanoTime();
+    // insertion ordered, so stages are reported in the order they have been finished
+    private final Map<String, Double> durations = new LinkedHashMap<>();
+
+    public StageTimer(@NonNull final String operation) {
+        this.operation = operation;
+    }
+
+    @NonNull
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Start time of a stage, to be passed to {@link #end(String, long)}
+     */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    public void end(@NonNull final String stage, final long beganAt) {
+        final double duration = (System.nanoTime() - beganAt) / 1e6;
+
+        synchronized (this) {
+            durations.put(stage, duration);
+        }
+
+        VaultMetrics.sharedInstance().record(String.format("%s.%s", operation, stage), duration);
+    }
+
+    /**
+     * Record the total duration since the timer has been created
+     */
+    public void finish() {
+        end(TOTAL, startedAt);
+    }
+
+    @NonNull
+    public synchronized Map<String, Double> getDurations() {
+        return new LinkedHashMap<>(durations);
+    }
+}
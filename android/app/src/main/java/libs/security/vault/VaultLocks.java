@@ -0,0 +1,131 @@
+package libs.security.vault;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks keyed by vault name, shared by all vault operations in the process
+ * <p>
+ * A vault and its recovery vault map to the same stripe, so all steps on a vault (e.g. restoring from the
+ * recovery vault while opening) are serialized, while operations on different vaults run in parallel.
+ * Vaults which share a stripe are serialized as well, with enough stripes this is rare.
+ * <p>
+ * Batch operations acquire their stripes at once in ascending order, so batches never deadlock each other.
+ * NOTE: locks are reentrant, but never acquire another lock while holding one, acquire them together instead
+ */
+public class VaultLocks {
+    private static final int STRIPES = 64;
+
+    /**
+     * Acquired locks, released on close
+     */
+    public static class Handle implements AutoCloseable {
+        private final ReentrantLock[] locks;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Handle(@NonNull final ReentrantLock[] locks) {
+            this.locks = locks;
+        }
+
+        @Override
+        public void close() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+
+            // release in reverse order of acquisition
+            for (int i = locks.length - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+        }
+    }
+
+    private final ReentrantLock[] stripes;
+
+    public static VaultLocks sharedInstance() {
+        return SingletonHolder.instance;
+    }
+
+    private static class SingletonHolder {
+        static final VaultLocks instance = new VaultLocks(STRIPES);
+    }
+
+    VaultLocks(final int stripeCount) {
+        stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Stripe of the vault, recovery vaults map to the stripe of their vault
+     */
+    int getStripe(@NonNull final String vaultName) {
+        final String name = vaultName.endsWith(VaultManagerModule.RECOVERY_SUFFIX)
+                ? vaultName.substring(0, vaultName.length() - VaultManagerModule.RECOVERY_SUFFIX.length())
+                : vaultName;
+
+        // spread the high bits, names often only differ in the last chars
+        final int hash = name.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), stripes.length);
+    }
+
+    /**
+     * Acquire the lock of a single vault
+     */
+    @NonNull
+    public Handle acquire(@NonNull final String vaultName) {
+        final ReentrantLock lock = stripes[getStripe(vaultName)];
+        lock.lock();
+        return new Handle(new ReentrantLock[]{lock});
+    }
+
+    /**
+     * Acquire the locks of all provided vaults in stripe order
+     */
+    @NonNull
+    public Handle acquireAll(@NonNull final Collection<String> vaultNames) {
+        final TreeSet<Integer> indexes = new TreeSet<>();
+        for (String vaultName : vaultNames) {
+            indexes.add(getStripe(vaultName));
+        }
+
+        final ReentrantLock[] locks = new ReentrantLock[indexes.size()];
+        int i = 0;
+        for (int index : indexes) {
+            locks[i++] = stripes[index];
+        }
+
+        return lockInOrder(locks);
+    }
+
+    /**
+     * Acquire all stripes, for operations on the whole keychain
+     */
+    @NonNull
+    public Handle acquireAll() {
+        return lockInOrder(stripes.clone());
+    }
+
+    @NonNull
+    private static Handle lockInOrder(@NonNull final ReentrantLock[] locks) {
+        int acquired = 0;
+        try {
+            for (ReentrantLock lock : locks) {
+                lock.lock();
+                acquired++;
+            }
+        } catch (RuntimeException e) {
+            for (int i = acquired - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+            throw e;
+        }
+
+        return new Handle(locks);
+    }
+}
@@ -1,40 +1,98 @@
 package libs.security.vault;
 
 import android.text.TextUtils;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.module.annotations.ReactModule;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+import libs.security.CancellationToken;
+import libs.security.OperationCancelledException;
+import libs.security.SecurityExecutor;
+import libs.security.WorkerPool;
 import libs.security.crypto.Crypto;
+import libs.security.providers.UniqueIdProvider;
 import libs.security.vault.cipher.Cipher;
+import libs.security.vault.cipher.CipherV4AesGcm;
+import libs.security.vault.cipher.KdfCalibration;
+import libs.security.vault.cipher.SessionKeyCache;
+import libs.security.vault.exceptions.CryptoFailedException;
 import libs.security.vault.storage.Keychain;
+import libs.security.vault.storage.VaultMetadata;
 
 @ReactModule(name = libs.security.vault.VaultManagerModule.NAME)
-public class VaultManagerModule extends ReactContextBaseJavaModule {
+public class VaultManagerModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
     public static final String RECOVERY_SUFFIX = "_RECOVER";
     public static final String STORAGE_ENCRYPTION_KEY = "xumm-realm-key";
 
     static final String NAME = "VaultManagerModule";
+    private static final String MIGRATION_PROGRESS_EVENT = "Vault.migrationProgress";
+    private static final String METRICS_EVENT = "Vault.metrics";
+    private static final String LOG_TAG = VaultManagerModule.class.getSimpleName();
+
     private final Keychain keychain;
+    private final ReKeyJournal reKeyJournal;
+    private final ReKeyEngine reKeyEngine;
+    private final VaultMigrator vaultMigrator;
+    // operations on the same vault are serialized, different vaults run in parallel
+    private final VaultLocks vaultLocks = VaultLocks.sharedInstance();
+    // stage timings of the last run of each operation
+    private final Map<String, StageTimer> lastTimings = new ConcurrentHashMap<>();
 
     public VaultManagerModule(ReactApplicationContext reactContext) {
         super(reactContext);
 
         // initiate keychain
         keychain = new Keychain(reactContext);
+
+        // initiate session key cache, and lock the session when app goes to background
+        SessionKeyCache.sharedInstance().init(reactContext);
+        reactContext.addLifecycleEventListener(this);
+
+        // initiate kdf calibration, device is calibrated on first vault creation
+        KdfCalibration.sharedInstance().init(reactContext);
+
+        // initiate re-key engine
+        reKeyJournal = new ReKeyJournal(reactContext);
+        reKeyEngine = new ReKeyEngine(keychain, reKeyJournal);
+
+        // finish or rollback any re-key batch which has been interrupted
+        try {
+            reKeyEngine.recover();
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Unable to recover unfinished re-key batch", e);
+        }
+
+        // initiate vault migrator, an interrupted migration continues from its checkpoint on next migrateAllVaults
+        vaultMigrator = new VaultMigrator(reactContext, reKeyEngine);
     }
 
     @NonNull
@@ -51,17 +109,90 @@ public class VaultManagerModule extends ReactContextBaseJavaModule {
         return constants;
     }
 
+    @Override
+    public void invalidate() {
+        // metrics are process wide, stop emitting to this instance
+        VaultMetrics.sharedInstance().setListener(null);
+        super.invalidate();
+    }
+
+    @Override
+    public void onHostResume() {
+    }
+
+    @Override
+    public void onHostPause() {
+        lockSession();
+    }
+
+    @Override
+    public void onHostDestroy() {
+        lockSession();
+    }
+
     private static void rejectWithError(Promise promise, Exception exception) {
+        // cancelled operations are rejected with their own code, so they can be told apart from failures
+        if (OperationCancelledException.isCancellation(exception)) {
+            promise.reject(SecurityExecutor.ERROR_CANCELLED, getErrorMessage(exception));
+            return;
+        }
+
+        promise.reject("-1", getErrorMessage(exception));
+    }
+
+    private static String getErrorMessage(Exception exception) {
         StringBuilder error = new StringBuilder();
         error.append(exception.getMessage());
         if (exception.getCause() != null) {
             error.append(": ");
             error.append(exception.getCause().toString());
         }
-        promise.reject("-1", error.toString());
+        return error.toString();
+    }
+
+    private void sendEvent(String event, Object payload) {
+        if (getReactApplicationContext().hasActiveReactInstance()) {
+            getReactApplicationContext()
+                    .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                    .emit(event, payload);
+        }
+    }
+
+    /*
+     Start the speculative passcode derivation in background when one of the vaults is a v4 vault, null if not started
+     NOTE: the derived keys are part of the encrypted entry and can't be parsed before the Keystore read this derivation
+     overlaps, the cipher version is taken from the plain metadata and the work factor from the last used v4 header
+    */
+    @Nullable
+    private Future<Boolean> warmPasscodeHash(@NonNull final Collection<String> vaultNames,
+                                             @NonNull final String key,
+                                             @NonNull final StageTimer timer) {
+        boolean hasV4Vault = false;
+
+        for (String vaultName : vaultNames) {
+            final VaultMetadata metadata = keychain.getMetadata(vaultName);
+            if (metadata != null && metadata.cipherVersion == CipherV4AesGcm.getCipherVersion()) {
+                hasV4Vault = true;
+                break;
+            }
+        }
+
+        // v1/v2 vaults don't derive with the shared passcode salt and header work factor, the result would be unused
+        if (!hasV4Vault) {
+            return null;
+        }
+
+        return WorkerPool.sharedInstance().submit(() -> {
+            final long stage = timer.begin();
+            final boolean derived = SessionKeyCache.sharedInstance().warmPasscodeHash(key);
+            if (derived) {
+                timer.end("passcode_kdf", stage);
+            }
+            return derived;
+        });
     }
 
-    private static String getRecoveryVaultName(@NonNull final String vaultName) {
+    static String getRecoveryVaultName(@NonNull final String vaultName) {
         return String.format("%s%s", vaultName, RECOVERY_SUFFIX);
     }
 
@@ -74,6 +205,14 @@ public class VaultManagerModule extends ReactContextBaseJavaModule {
   */
     public boolean createVault(final String vaultName, final String data, final String key)
             throws Exception {
+        try (VaultLocks.Handle ignored = vaultLocks.acquire(vaultName)) {
+            return createVaultLocked(vaultName, data, key);
+        }
+    }
+
+    private boolean createVaultLocked(final String vaultName, final String data, final String key)
+            throws Exception {
+        final StageTimer timer = new StageTimer("create_vault");
 
         // check if the vault already exist, we don't want to overwrite the existing vault
         // get the item from storage
@@ -84,29 +223,71 @@ public class VaultManagerModule extends ReactContextBaseJavaModule {
             throw new Exception("VAULT_ALREADY_EXIST");
         }
 
+        long stage = timer.begin();
+
         // try to encrypt the data with provided key
         Map<String, Object> cipherResult = Cipher.encrypt(data, key);
 
-        // convert dict derived keys to string
-        Cipher.DerivedKeys derivedKeys = (Cipher.DerivedKeys) cipherResult.get("derived_keys");
-        String derivedKeyString = derivedKeys.toJSONString();
+        timer.end("encrypt", stage);
 
-        String cipher = (String) cipherResult.get("cipher");
+        // derived encryption key, used for verifying without running the key derivation again
+        final byte[] encrKey = (byte[]) cipherResult.get("encr_key");
 
-        if (cipher == null) {
-            throw new Exception("UNABLE_TO_GET_VAULT_CIPHER");
-        }
+        try {
+            // convert dict derived keys to string
+            Cipher.DerivedKeys derivedKeys = (Cipher.DerivedKeys) cipherResult.get("derived_keys");
+            String derivedKeyString = derivedKeys.serialize();
+
+            String cipher = (String) cipherResult.get("cipher");
+
+            if (cipher == null) {
+                throw new Exception("UNABLE_TO_GET_VAULT_CIPHER");
+            }
 
-        // store vault in the keychain
-        keychain.setItem(vaultName, derivedKeyString, cipher);
+            // last chance to stop before the vault is stored
+            CancellationToken.current().throwIfCancelled();
 
-        // try to open the vault once before passing the result
-        // with this we make sure we are able to access the data
-        final String clearText = openVault(vaultName, key, false);
+            stage = timer.begin();
 
-        // check if open vault result is equal to stored data
-        if (!clearText.equals(data)) {
-            throw new Exception("UNABLE_TO_VERIFY_RESULT");
+            // store vault in the keychain
+            keychain.setItem(vaultName, derivedKeyString, cipher, derivedKeys.version);
+
+            timer.end("keychain_write", stage);
+
+            // try to open the vault once before passing the result
+            // with this we make sure we are able to access the data
+            stage = timer.begin();
+
+            final String clearText;
+
+            if (encrKey != null) {
+                // read back what has been stored and decrypt it with the key derived while encrypting
+                final Map<String, String> item = keychain.getItem(vaultName);
+
+                if (item == null
+                        || !derivedKeyString.equals(item.get("username"))
+                        || !cipher.equals(item.get("password"))) {
+                    throw new Exception("UNABLE_TO_VERIFY_RESULT");
+                }
+
+                clearText = Cipher.decryptWithEncrKey(cipher, encrKey, derivedKeyString);
+            } else {
+                clearText = openVault(vaultName, key, false);
+            }
+
+            timer.end("verify", stage);
+
+            // check if open vault result is equal to stored data
+            if (!clearText.equals(data)) {
+                throw new Exception("UNABLE_TO_VERIFY_RESULT");
+            }
+        } finally {
+            if (encrKey != null) {
+                Arrays.fill(encrKey, (byte) 0);
+            }
+
+            timer.finish();
+            lastTimings.put(timer.getOperation(), timer);
         }
 
         return true;
@@ -115,37 +296,73 @@ public class VaultManagerModule extends ReactContextBaseJavaModule {
 
     /*
      Open the encrypted vault with provided key and return the clear data
+     NOTE: passcode derivation is started in background before reading the vault, so the keychain reads on this thread
+     overlap with the key derivation. The derivation is only started for v4 vaults (plain metadata, no Keystore work),
+     with the work factor of the last v4 header opened or created on this device
     */
     public String openVault(@NonNull final String vaultName, @NonNull final String key, final boolean recoverable)
             throws Exception {
+        // NOTE: recovery vault maps to the same lock, restoring the vault is not interleaved with other operations
+        try (VaultLocks.Handle ignored = vaultLocks.acquire(vaultName)) {
+            return openVaultLocked(vaultName, key, recoverable);
+        }
+    }
+
+    private String openVaultLocked(@NonNull final String vaultName, @NonNull final String key, final boolean recoverable)
+            throws Exception {
+        final StageTimer timer = new StageTimer("open_vault");
+
+        // speculatively derive the passcode hash with the shared passcode salt, decryption will join this derivation
+        final Future<Boolean> passcodeHash = warmPasscodeHash(Collections.singleton(vaultName), key, timer);
+
         // an indicator that vault is recovered
         boolean isVaultRecovered = false;
         final String recoveryVaultName = VaultManagerModule.getRecoveryVaultName(vaultName);
 
-        // try to get vault with provided  name
-        Map<String, String> item = keychain.getItem(vaultName);
+        final String clearText;
 
-        // if no item found an recoverable, check if recovery vault available
-        if (item == null && recoverable) {
-            // try to fetch recovery vault
-            item = keychain.getItem(recoveryVaultName);
-            // we were able to fetch from recovery vault
-            if (item != null) {
-                isVaultRecovered = true;
+        try {
+            long stage = timer.begin();
+
+            // try to get vault with provided  name
+            Map<String, String> item = keychain.getItem(vaultName);
+
+            // if no item found an recoverable, check if recovery vault available
+            if (item == null && recoverable) {
+                // try to fetch recovery vault
+                item = keychain.getItem(recoveryVaultName);
+                // we were able to fetch from recovery vault
+                if (item != null) {
+                    isVaultRecovered = true;
+                }
             }
-        }
 
-        // no item found in the storage for the given name, reject
-        if (item == null || item.get("password") == null || item.get("username") == null) {
-            throw new Exception("VAULT_NOT_EXIST");
-        }
+            timer.end("keychain_read", stage);
 
-        // decrypt the Keychain data
-        final String clearText = Cipher.decrypt(
-                Objects.requireNonNull(item.get("password")),
-                key,
-                Objects.requireNonNull(item.get("username"))
-        );
+            // no item found in the storage for the given name, reject
+            if (item == null || item.get("password") == null || item.get("username") == null) {
+                throw new Exception("VAULT_NOT_EXIST");
+            }
+
+            stage = timer.begin();
+
+            // decrypt the Keychain data
+            clearText = Cipher.decrypt(
+                    Objects.requireNonNull(item.get("password")),
+                    key,
+                    Objects.requireNonNull(item.get("username"))
+            );
+
+            timer.end("decrypt", stage);
+        } finally {
+            // no need to start the background work if it's still waiting in the queue
+            if (passcodeHash != null) {
+                passcodeHash.cancel(false);
+            }
+
+            timer.finish();
+            lastTimings.put(timer.getOperation(), timer);
+        }
 
         // check if clear text is not empty
         if (TextUtils.isEmpty(clearText)) {
@@ -168,84 +385,165 @@ public class VaultManagerModule extends ReactContextBaseJavaModule {
     }
 
     /*
-    Re-key current vault with new key
-    NOTE: in case of migration required this will create new vault with latest cipher
+     Open multiple vaults with the same key, vaults are decrypted in parallel on the worker pool
+     Result contains either "clear_text" or "error" for every requested vault, so one failing vault will not fail the rest
+     NOTE: same as openVault, recovery vaults are restored when recoverable
     */
-    public boolean reKeyVault(@NonNull final String vaultName, @NonNull final String oldKey, @NonNull final String newKey)
-            throws Exception {
-        // try to open the vault with provided old key and get clear text
-        final String clearText = openVault(vaultName, oldKey, false);
+    public WritableMap openVaults(@NonNull final List<String> vaultNames, @NonNull final String key, final boolean recoverable) {
+        try (VaultLocks.Handle ignored = vaultLocks.acquireAll(vaultNames)) {
+            return openVaultsLocked(vaultNames, key, recoverable);
+        }
+    }
 
-        // try to create the new vault under a temp recovery name with the old key
-        // with this we will make sure we are able to recover the key in case of failure
-        final String recoveryVaultName = VaultManagerModule.getRecoveryVaultName(vaultName);
+    private WritableMap openVaultsLocked(@NonNull final List<String> vaultNames, @NonNull final String key, final boolean recoverable) {
+        final StageTimer timer = new StageTimer("open_vaults");
 
-        // check if a recovery vault is already exist, then remove it
-        // NOTE: removing recovery vault is safe as we could open the main vault
-        if(vaultExist(recoveryVaultName)){
-            purgeVault(recoveryVaultName);
-        }
+        // all vaults with the latest cipher share the passcode salt, start the derivation while reading the keychain
+        final Future<Boolean> passcodeHash = warmPasscodeHash(vaultNames, key, timer);
 
-        // create the recovery vault with the old key
-        createVault(recoveryVaultName, clearText, oldKey);
+        // duplicate names are opened once
+        final Set<String> requestedVaults = new LinkedHashSet<>(vaultNames);
+        // errors are collected from the worker threads
+        final Map<String, String> errors = new ConcurrentHashMap<>();
+        final Map<String, Map<String, String>> items = new LinkedHashMap<>();
+        final Set<String> recoveredVaults = new HashSet<>();
 
-        // after we made sure we can store the data in a safe way, purge old vault
-        purgeVault(vaultName);
+        long stage = timer.begin();
 
-        // create the vault again with the new key
-        createVault(vaultName, clearText, newKey);
+        // read all vaults at once, when this fails read them one by one so a failing vault will not fail the rest
+        Map<String, Map<String, String>> storedItems;
+        try {
+            storedItems = keychain.getItems(requestedVaults);
+        } catch (OperationCancelledException e) {
+            throw e;
+        } catch (Exception e) {
+            storedItems = null;
+        }
 
-        // finally remove the created recovery vault
-        purgeVault(recoveryVaultName);
+        for (String vaultName : requestedVaults) {
+            try {
+                Map<String, String> item = storedItems != null ? storedItems.get(vaultName) : keychain.getItem(vaultName);
 
-        return true;
-    }
+                if (item == null && recoverable) {
+                    item = keychain.getItem(VaultManagerModule.getRecoveryVaultName(vaultName));
+                    if (item != null) {
+                        recoveredVaults.add(vaultName);
+                    }
+                }
 
-   /*
-   Re-key batch vaults with new key
-   NOTE: in case of migration required this will create new vault with latest cipher
-   */
-    public boolean reKeyBatchVaults(@NonNull final ArrayList<String> vaultNames, @NonNull final String oldKey, @NonNull final String newKey)
-            throws Exception {
+                if (item == null || item.get("password") == null || item.get("username") == null) {
+                    throw new Exception("VAULT_NOT_EXIST");
+                }
 
-        Map<String, String> vaultsClearText = new HashMap<>();
+                items.put(vaultName, item);
+            } catch (Exception e) {
+                errors.put(vaultName, getErrorMessage(e));
+            }
+        }
 
-        // try to open all vaults with provided old key and get clear text
-        for (String vaultName: vaultNames){
-            String clearText = openVault(vaultName, oldKey, false);
-            vaultsClearText.put(vaultName, clearText);
+        timer.end("keychain_read", stage);
+
+        final List<String> names = new ArrayList<>(items.keySet());
+        final List<Callable<String>> tasks = new ArrayList<>(names.size());
+
+        for (String vaultName : names) {
+            final Map<String, String> item = items.get(vaultName);
+            tasks.add(() -> {
+                try {
+                    final String clearText = Cipher.decrypt(
+                            Objects.requireNonNull(item.get("password")),
+                            key,
+                            Objects.requireNonNull(item.get("username"))
+                    );
+
+                    if (TextUtils.isEmpty(clearText)) {
+                        throw new Exception("VAULT_DATA_IS_NULL");
+                    }
+
+                    return clearText;
+                } catch (Exception e) {
+                    errors.put(vaultName, getErrorMessage(e));
+                    return null;
+                }
+            });
         }
 
-        // try to create the new vault under a temp recovery name with the old key for all vaults
-        // with this we will make sure we are able to recover the key in case of failure
-        for (String vaultName: vaultNames){
-            // check if a recovery vault is already exist, then remove it
-            // NOTE: removing recovery vault is safe as we could open the main vault
-            if(vaultExist(VaultManagerModule.getRecoveryVaultName(vaultName))){
-                purgeVault(VaultManagerModule.getRecoveryVaultName(vaultName));
+        stage = timer.begin();
+
+        List<String> clearTexts;
+        try {
+            // tasks never throw, failures are collected per vault
+            clearTexts = WorkerPool.sharedInstance().invokeAll(tasks);
+        } catch (Exception e) {
+            clearTexts = Collections.nCopies(names.size(), null);
+            for (String vaultName : names) {
+                errors.put(vaultName, getErrorMessage(e));
             }
-            createVault(
-                    VaultManagerModule.getRecoveryVaultName(vaultName),
-                    vaultsClearText.get(vaultName),
-                    oldKey
-            );
         }
 
-        // remove old vault and create one
-        for (String vaultName: vaultNames){
-            // after we made sure we can store the data in a safe way, purge old vault
-            purgeVault(vaultName);
-            // create the vault again with the new key
-            createVault(
-                    vaultName,
-                    vaultsClearText.get(vaultName),
-                    newKey
-            );
+        timer.end("decrypt", stage);
+
+        if (passcodeHash != null) {
+            passcodeHash.cancel(false);
         }
+        timer.finish();
+        lastTimings.put(timer.getOperation(), timer);
+
+        // failures of cancelled decryptions are collected per vault, the whole operation is cancelled instead
+        CancellationToken.current().throwIfCancelled();
+
+        final WritableMap results = Arguments.createMap();
 
-        // finally remove the created recovery vaults
-        for (String vaultName: vaultNames){
-            purgeVault(VaultManagerModule.getRecoveryVaultName(vaultName));
+        for (String vaultName : requestedVaults) {
+            final WritableMap result = Arguments.createMap();
+            final int index = names.indexOf(vaultName);
+            final String clearText = index >= 0 ? clearTexts.get(index) : null;
+
+            if (clearText != null) {
+                result.putString("clear_text", clearText);
+
+                // vault is recovered, try to create the vault under the old name and remove recovery
+                if (recoveredVaults.contains(vaultName)) {
+                    try {
+                        createVault(vaultName, clearText, key);
+                        purgeVault(VaultManagerModule.getRecoveryVaultName(vaultName));
+                    } catch (Exception e) {
+                        // ignore in case of any exception
+                    }
+                }
+            } else {
+                result.putString("error", errors.get(vaultName));
+            }
+
+            results.putMap(vaultName, result);
+        }
+
+        return results;
+    }
+
+    /*
+    Re-key current vault with new key
+    NOTE: in case of migration required this will create new vault with latest cipher
+    */
+    public boolean reKeyVault(@NonNull final String vaultName, @NonNull final String oldKey, @NonNull final String newKey)
+            throws Exception {
+        return reKeyBatchVaults(new ArrayList<>(Collections.singletonList(vaultName)), oldKey, newKey);
+    }
+
+   /*
+   Re-key batch vaults with new key
+   NOTE: in case of migration required this will create new vault with latest cipher
+   */
+    public boolean reKeyBatchVaults(@NonNull final ArrayList<String> vaultNames, @NonNull final String oldKey, @NonNull final String newKey)
+            throws Exception {
+        final StageTimer timer = new StageTimer("re_key_vaults");
+
+        try {
+            // vaults are re-keyed in parallel, and journaled so an interrupted batch will be recovered on next start
+            reKeyEngine.reKey(vaultNames, oldKey, newKey);
+        } finally {
+            timer.finish();
+            lastTimings.put(timer.getOperation(), timer);
         }
 
         return true;
@@ -265,7 +563,9 @@ public class VaultManagerModule extends ReactContextBaseJavaModule {
      NOTE: this action cannot be undo and is permanent
     */
     public boolean purgeVault(@NonNull final String vaultName) throws Exception {
-        keychain.deleteItem(vaultName);
+        try (VaultLocks.Handle ignored = vaultLocks.acquire(vaultName)) {
+            keychain.deleteItem(vaultName);
+        }
         return true;
     }
 
@@ -274,23 +574,160 @@ public class VaultManagerModule extends ReactContextBaseJavaModule {
      NOTE: this action cannot be undo and is permanent, used with caution
     */
     public void clearStorage() throws Exception {
-        keychain.clear();
+        // stop the running migration, it stops after the vault it's migrating right now
+        SecurityExecutor.sharedInstance().cancel("migrateAllVaults");
+
+        // wait for all running vault operations
+        try (VaultLocks.Handle ignored = vaultLocks.acquireAll()) {
+            keychain.clear();
+            // nothing left to recover
+            reKeyJournal.clear();
+            vaultMigrator.clear();
+            // passcode salt and device id are removed with the keychain
+            SessionKeyCache.sharedInstance().reset();
+            UniqueIdProvider.sharedInstance().reset();
+        }
+    }
+
+    /*
+    Invalidate all cached passcode hashes, next vault open will derive the passcode hash again
+    */
+    public void lockSession() {
+        SessionKeyCache.sharedInstance().lock();
+    }
+
+    /*
+    Benchmark the key derivation on this device and pick the work factor for new vaults
+    NOTE: existing vaults keep the work factor recorded in their header
+    */
+    public WritableMap calibrateKdf() throws Exception {
+        return getKdfCalibrationMap(KdfCalibration.sharedInstance().calibrate());
+    }
+
+    /*
+    Get the current key derivation calibration with the measured timings, null if device is not calibrated yet
+    */
+    public WritableMap getKdfCalibration() {
+        final KdfCalibration.Result result = KdfCalibration.sharedInstance().getResult();
+
+        if (result == null) {
+            return null;
+        }
+
+        return getKdfCalibrationMap(result);
+    }
+
+    /*
+    Get the stage timings (ms) of the last run of each vault operation, keyed by operation
+    */
+    public WritableMap getOperationTimings() {
+        final WritableMap results = Arguments.createMap();
+
+        for (Map.Entry<String, StageTimer> operation : lastTimings.entrySet()) {
+            final WritableMap stages = Arguments.createMap();
+            for (Map.Entry<String, Double> stage : operation.getValue().getDurations().entrySet()) {
+                stages.putDouble(stage.getKey(), stage.getValue());
+            }
+            results.putMap(operation.getKey(), stages);
+        }
+
+        return results;
+    }
+
+    /*
+    Get the histograms of the vault stage durations (ms) since the app started, keyed by stage label
+    NOTE: stage labels contain the variant they ran with, e.g. cipher version or cipher storage
+    */
+    public WritableMap getVaultMetrics() {
+        final WritableArray bucketBounds = Arguments.createArray();
+        for (double bound : VaultMetrics.BUCKET_BOUNDS) {
+            bucketBounds.pushDouble(bound);
+        }
+
+        final WritableMap stages = Arguments.createMap();
+        for (Map.Entry<String, VaultMetrics.Histogram> entry : VaultMetrics.sharedInstance().getHistograms().entrySet()) {
+            final VaultMetrics.Histogram histogram = entry.getValue();
+
+            final WritableArray buckets = Arguments.createArray();
+            for (long count : histogram.buckets) {
+                buckets.pushDouble(count);
+            }
+
+            final WritableMap stage = Arguments.createMap();
+            stage.putDouble("count", histogram.count);
+            stage.putDouble("sum", histogram.sum);
+            stage.putDouble("min", histogram.min);
+            stage.putDouble("max", histogram.max);
+            stage.putDouble("mean", histogram.getMean());
+            stage.putDouble("p50", histogram.getPercentile(0.5));
+            stage.putDouble("p95", histogram.getPercentile(0.95));
+            stage.putArray("buckets", buckets);
+            stages.putMap(entry.getKey(), stage);
+        }
+
+        final WritableMap results = Arguments.createMap();
+        results.putArray("bucket_bounds", bucketBounds);
+        results.putMap("stages", stages);
+
+        return results;
+    }
+
+    /*
+    Clear all recorded vault metrics
+    */
+    public void resetVaultMetrics() {
+        VaultMetrics.sharedInstance().reset();
+    }
+
+    /*
+    Emit every recorded stage duration with the Vault.metrics event
+    */
+    public void setVaultMetricsEvents(final boolean enabled) {
+        if (!enabled) {
+            VaultMetrics.sharedInstance().setListener(null);
+            return;
+        }
+
+        VaultMetrics.sharedInstance().setListener((stage, duration) -> {
+            final WritableMap payload = Arguments.createMap();
+            payload.putString("stage", stage);
+            payload.putDouble("duration", duration);
+            sendEvent(METRICS_EVENT, payload);
+        });
+    }
+
+    private static WritableMap getKdfCalibrationMap(@NonNull final KdfCalibration.Result result) {
+        final WritableArray sampleDurations = Arguments.createArray();
+        for (double duration : result.sampleDurations) {
+            sampleDurations.pushDouble(duration);
+        }
+
+        final WritableMap results = Arguments.createMap();
+        results.putInt("iterations", result.iterations);
+        results.putInt("sample_iterations", result.sampleIterations);
+        results.putArray("sample_durations", sampleDurations);
+        results.putDouble("median_duration", result.medianDuration);
+        results.putDouble("estimated_duration", result.estimatedDuration);
+        results.putDouble("target_duration", result.targetDuration);
+        results.putDouble("calibrated_at", result.calibratedAt);
+
+        return results;
     }
 
     /*
     Check a vault is encrypted with the latest Cipher or it needs a migrations
+    NOTE: cipher version is read from the vault index, no decryption needed
     */
     public WritableMap isMigrationRequired(@NonNull final String vaultName) throws Exception {
-        // get the item from storage
-        Map<String, String> item = keychain.getItem(vaultName);
+        // get the vault metadata from index
+        final VaultMetadata metadata = getVaultMetadata(vaultName);
 
-        // calculate derived keys for this vault
-        Cipher.DerivedKeys derivedKeys = Cipher.getDerivedKeys(
-                Objects.requireNonNull(item.get("username"))
-        );
+        if (metadata == null || !metadata.isVault()) {
+            throw new Exception("VAULT_NOT_EXIST");
+        }
 
         int latestCipherVersion = Cipher.getLatestCipherVersion();
-        int currentCipherVersion = derivedKeys.version;
+        int currentCipherVersion = metadata.cipherVersion;
 
         boolean isMigrationRequired = latestCipherVersion > currentCipherVersion;
 
@@ -303,6 +740,186 @@ public class VaultManagerModule extends ReactContextBaseJavaModule {
         return results;
     }
 
+    /*
+    List all vaults in the keychain with their metadata
+    NOTE: vaults are listed from the index, only vaults which are stored before the index are decrypted once for indexing
+    */
+    public WritableArray listVaults() throws Exception {
+        final List<String> aliases = new ArrayList<>(keychain.getAllItems());
+        Collections.sort(aliases);
+
+        final int latestCipherVersion = Cipher.getLatestCipherVersion();
+        final WritableArray results = Arguments.createArray();
+
+        for (String alias : aliases) {
+            final VaultMetadata metadata = getVaultMetadata(alias);
+
+            // not a vault (e.g. storage encryption key) or removed in the meantime
+            if (metadata == null || !metadata.isVault()) {
+                continue;
+            }
+
+            final WritableMap vault = Arguments.createMap();
+            vault.putString("vault", alias);
+            vault.putInt("cipher_version", metadata.cipherVersion);
+            vault.putBoolean("migration_required", latestCipherVersion > metadata.cipherVersion);
+            vault.putDouble("created_at", metadata.createdAt);
+            vault.putDouble("updated_at", metadata.updatedAt);
+            vault.putString("cipher_storage", metadata.cipherStorageName);
+            results.pushMap(vault);
+        }
+
+        return results;
+    }
+
+    /*
+    Migrate all outdated vaults to the latest cipher one by one, with a checkpoint after each vault
+    Only vaults which can be opened with the given key are migrated, a failing vault does not stop the migration
+    NOTE: progress is emitted with the Vault.migrationProgress event, an interrupted migration continues from its checkpoint
+    */
+    public WritableMap migrateAllVaults(@NonNull final String key) throws Exception {
+        final List<String> outdatedVaults = getOpenableVaults(getOutdatedVaults(), key);
+
+        final VaultMigrator.Checkpoint checkpoint = vaultMigrator.migrate(outdatedVaults, key, (vaultName, progress, error) -> {
+            final WritableMap payload = getMigrationProgressMap(progress);
+            payload.putString("vault", vaultName);
+            if (error != null) {
+                payload.putString("error", getErrorMessage(error));
+            }
+            sendEvent(MIGRATION_PROGRESS_EVENT, payload);
+        });
+
+        return getMigrationProgressMap(checkpoint);
+    }
+
+    /*
+    Get the progress of the interrupted migration, null if no migration is in progress
+    */
+    public WritableMap getMigrationStatus() {
+        final VaultMigrator.Checkpoint checkpoint = vaultMigrator.getCheckpoint();
+
+        if (checkpoint == null) {
+            return null;
+        }
+
+        return getMigrationProgressMap(checkpoint);
+    }
+
+    private static WritableMap getMigrationProgressMap(@NonNull final VaultMigrator.Checkpoint checkpoint) {
+        final WritableMap results = Arguments.createMap();
+        results.putInt("migrated", checkpoint.migrated.size());
+        results.putInt("skipped", checkpoint.skipped.size());
+        results.putInt("failed", checkpoint.failed.size());
+        results.putInt("total", checkpoint.vaults.size());
+        results.putDouble("started_at", checkpoint.startedAt);
+        return results;
+    }
+
+    /*
+    Get the vaults which are not encrypted with the latest cipher, recovery vaults are left out
+    */
+    private List<String> getOutdatedVaults() throws Exception {
+        final List<String> aliases = new ArrayList<>(keychain.getAllItems());
+        Collections.sort(aliases);
+
+        final int latestCipherVersion = Cipher.getLatestCipherVersion();
+        final List<String> outdatedVaults = new ArrayList<>();
+
+        for (String alias : aliases) {
+            if (alias.endsWith(RECOVERY_SUFFIX)) {
+                continue;
+            }
+
+            final VaultMetadata metadata = getVaultMetadata(alias);
+
+            if (metadata != null && metadata.isVault() && latestCipherVersion > metadata.cipherVersion) {
+                outdatedVaults.add(alias);
+            }
+        }
+
+        return outdatedVaults;
+    }
+
+    /*
+    Get the vaults which can be opened with the given key, vaults encrypted with another key (e.g. passphrase accounts)
+    are left out, so they are not tried on every migration
+    NOTE: vaults are decrypted in parallel on the worker pool
+    */
+    private List<String> getOpenableVaults(@NonNull final List<String> vaultNames, @NonNull final String key) throws Exception {
+        final Map<String, Map<String, String>> items = keychain.getItems(vaultNames);
+
+        final List<Callable<Boolean>> tasks = new ArrayList<>(vaultNames.size());
+        for (String vaultName : vaultNames) {
+            final Map<String, String> item = items.get(vaultName);
+
+            tasks.add(() -> {
+                if (item == null || item.get("password") == null || item.get("username") == null) {
+                    return false;
+                }
+
+                try {
+                    return !TextUtils.isEmpty(Cipher.decrypt(
+                            Objects.requireNonNull(item.get("password")),
+                            key,
+                            Objects.requireNonNull(item.get("username"))
+                    ));
+                } catch (CryptoFailedException e) {
+                    return false;
+                }
+            });
+        }
+
+        final List<Boolean> results = WorkerPool.sharedInstance().invokeAll(tasks);
+
+        final List<String> openableVaults = new ArrayList<>();
+        for (int i = 0; i < vaultNames.size(); i++) {
+            if (results.get(i)) {
+                openableVaults.add(vaultNames.get(i));
+            }
+        }
+
+        return openableVaults;
+    }
+
+    /*
+    Get the vault metadata from the index, vaults stored before the index existed are indexed on first access
+    */
+    private VaultMetadata getVaultMetadata(@NonNull final String vaultName) throws Exception {
+        final VaultMetadata metadata = keychain.getMetadata(vaultName);
+
+        if (metadata != null && metadata.isIndexed()) {
+            return metadata;
+        }
+
+        // vault can be replaced by a re-key in the meantime, index the item under the vault lock
+        try (VaultLocks.Handle ignored = vaultLocks.acquire(vaultName)) {
+            final Map<String, String> item = keychain.getItem(vaultName);
+
+            if (item == null) {
+                return null;
+            }
+
+            final String derivedKeysString = item.get("username");
+            final String cipher = item.get("password");
+
+            // items without derived keys and without an envelope are not vaults
+            final int cipherVersion;
+            if (TextUtils.isEmpty(cipher) || derivedKeysString == null) {
+                cipherVersion = VaultMetadata.NO_CIPHER_VERSION;
+            } else if (derivedKeysString.isEmpty()) {
+                cipherVersion = CipherV4AesGcm.decodeEnvelope(cipher) != null
+                        ? CipherV4AesGcm.getCipherVersion()
+                        : VaultMetadata.NO_CIPHER_VERSION;
+            } else {
+                cipherVersion = Cipher.getDerivedKeys(derivedKeysString).version;
+            }
+
+            keychain.indexItem(vaultName, cipherVersion);
+
+            return keychain.getMetadata(vaultName);
+        }
+    }
+
 
     /*
     Check if storage encryption key exist in the keychain
@@ -346,103 +963,266 @@ public class VaultManagerModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void createVault(String vaultName, String data, String key, Promise promise) {
-        try {
-            boolean result = createVault(vaultName, data, key);
-            promise.resolve(result);
-        } catch (Exception e) {
-            rejectWithError(promise, e);
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.VAULT, "createVault", promise, () -> {
+            try {
+                boolean result = createVault(vaultName, data, key);
+                promise.resolve(result);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
     }
 
     @ReactMethod
     public void openVault(String vaultName, String key, Promise promise) {
-        try {
-            String clearText = openVault(vaultName, key, true);
-            promise.resolve(clearText);
-        } catch (Exception e) {
-            rejectWithError(promise, e);
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.VAULT, "openVault", promise, () -> {
+            try {
+                String clearText = openVault(vaultName, key, true);
+                promise.resolve(clearText);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void openVaults(ReadableArray vaultNames, String key, String token, Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.VAULT, "openVaults", token, promise, () -> {
+            try {
+                ArrayList<String> vaultsNamesList = (ArrayList<String>)(ArrayList<?>)(vaultNames.toArrayList());
+                final WritableMap results = openVaults(vaultsNamesList, key, true);
+                promise.resolve(results);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
     }
 
     @ReactMethod
     public void reKeyVault(String vaultName, String oldKey, String newKey, Promise promise) {
-        try {
-            boolean result = reKeyVault(vaultName, oldKey, newKey);
-            promise.resolve(result);
-        } catch (Exception e) {
-            rejectWithError(promise, e);
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.USER_INITIATED, "reKeyVault", promise, () -> {
+            try {
+                boolean result = reKeyVault(vaultName, oldKey, newKey);
+                promise.resolve(result);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
     }
 
     @ReactMethod
     public void reKeyBatchVaults(ReadableArray vaultNames, String oldKey, String newKey, Promise promise) {
-        try {
-            ArrayList<String> vaultsNamesList = (ArrayList<String>)(ArrayList<?>)(vaultNames.toArrayList());
-            boolean result = reKeyBatchVaults(vaultsNamesList, oldKey, newKey);
-            promise.resolve(result);
-        } catch (Exception e) {
-            rejectWithError(promise, e);
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.USER_INITIATED, "reKeyBatchVaults", promise, () -> {
+            try {
+                ArrayList<String> vaultsNamesList = (ArrayList<String>)(ArrayList<?>)(vaultNames.toArrayList());
+                boolean result = reKeyBatchVaults(vaultsNamesList, oldKey, newKey);
+                promise.resolve(result);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
     }
 
     @ReactMethod
     public void vaultExist(String vaultName, Promise promise) {
-        try {
-            boolean exist = vaultExist(vaultName);
-            promise.resolve(exist);
-        } catch (Exception e) {
-            rejectWithError(promise, e);
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.VAULT, "vaultExist", promise, () -> {
+            try {
+                boolean exist = vaultExist(vaultName);
+                promise.resolve(exist);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
     }
 
     @ReactMethod
     public void purgeVault(String vaultName, Promise promise) {
-        try {
-            purgeVault(vaultName);
-            promise.resolve(true);
-        } catch (Exception e) {
-            rejectWithError(promise, e);
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.VAULT, "purgeVault", promise, () -> {
+            try {
+                purgeVault(vaultName);
+                promise.resolve(true);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
     }
 
     @ReactMethod
     public void clearStorage(Promise promise) {
-        try {
-            clearStorage();
-            promise.resolve(true);
-        } catch (Exception e) {
-            rejectWithError(promise, e);
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.USER_INITIATED, "clearStorage", promise, () -> {
+            try {
+                clearStorage();
+                promise.resolve(true);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void lockSession(Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "lockSession", promise, () -> {
+            try {
+                lockSession();
+                promise.resolve(true);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void calibrateKdf(Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.BACKGROUND, "calibrateKdf", promise, () -> {
+            try {
+                final WritableMap results = calibrateKdf();
+                promise.resolve(results);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void getKdfCalibration(Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "getKdfCalibration", promise, () -> {
+            try {
+                final WritableMap results = getKdfCalibration();
+                promise.resolve(results);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void getOperationTimings(Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "getOperationTimings", promise, () -> {
+            try {
+                final WritableMap results = getOperationTimings();
+                promise.resolve(results);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void getVaultMetrics(Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "getVaultMetrics", promise, () -> {
+            try {
+                final WritableMap results = getVaultMetrics();
+                promise.resolve(results);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void resetVaultMetrics(Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "resetVaultMetrics", promise, () -> {
+            try {
+                resetVaultMetrics();
+                promise.resolve(true);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void setVaultMetricsEvents(boolean enabled, Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "setVaultMetricsEvents", promise, () -> {
+            try {
+                setVaultMetricsEvents(enabled);
+                promise.resolve(true);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
     }
 
     @ReactMethod
     public void isMigrationRequired(String vaultName, Promise promise) {
-        try {
-            final WritableMap results = isMigrationRequired(vaultName);
-            promise.resolve(results);
-        } catch (Exception e) {
-            rejectWithError(promise, e);
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.VAULT, "isMigrationRequired", promise, () -> {
+            try {
+                final WritableMap results = isMigrationRequired(vaultName);
+                promise.resolve(results);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void listVaults(Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "listVaults", promise, () -> {
+            try {
+                final WritableArray results = listVaults();
+                promise.resolve(results);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void migrateAllVaults(String key, String token, Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.BACKGROUND, "migrateAllVaults", token, promise, () -> {
+            try {
+                final WritableMap results = migrateAllVaults(key);
+                promise.resolve(results);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void getMigrationStatus(Promise promise) {
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "getMigrationStatus", promise, () -> {
+            try {
+                final WritableMap results = getMigrationStatus();
+                promise.resolve(results);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void addListener(String eventName) {
+        // Keep: Required for RN built in Event Emitter Calls.
+    }
+
+    @ReactMethod
+    public void removeListeners(Integer count) {
+        // Keep: Required for RN built in Event Emitter Calls.
     }
 
     @ReactMethod
     public void isStorageEncryptionKeyExist(Promise promise) {
-        try {
-            Boolean result = isStorageEncryptionKeyExist();
-            promise.resolve(result);
-        } catch (Exception e) {
-            rejectWithError(promise, e);
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "isStorageEncryptionKeyExist", promise, () -> {
+            try {
+                Boolean result = isStorageEncryptionKeyExist();
+                promise.resolve(result);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
     }
 
     @ReactMethod
     public void getStorageEncryptionKey(Promise promise) {
-        try {
-            String encryptionKey = getStorageEncryptionKey();
-            promise.resolve(encryptionKey);
-        } catch (Exception e) {
-            rejectWithError(promise, e);
-        }
+        SecurityExecutor.sharedInstance().execute(SecurityExecutor.Lane.INTERACTIVE, "getStorageEncryptionKey", promise, () -> {
+            try {
+                String encryptionKey = getStorageEncryptionKey();
+                promise.resolve(encryptionKey);
+            } catch (Exception e) {
+                rejectWithError(promise, e);
+            }
+        });
     }
 
     //endregion
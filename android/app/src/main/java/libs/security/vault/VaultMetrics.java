@@ -0,0 +1,184 @@
+package libs.security.vault;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Process wide histograms of the vault stage durations, in milliseconds
+ * <p>
+ * Stages are labeled with the variant they ran with, e.g. "aes_gcm_decrypt.v4" for the cipher version or
+ * "keystore_decrypt.KeystoreAESGCM" for the cipher storage, so the variants can be compared with each other.
+ * Operation stages recorded by {@link StageTimer} are labeled with the operation, e.g. "open_vault.keychain_read".
+ * <p>
+ * Samples are kept in memory only and are never persisted.
+ */
+public class VaultMetrics {
+    /**
+     * Upper bounds (ms) of the histogram buckets, samples above the last bound are counted in the overflow bucket
+     */
+    public static final double[] BUCKET_BOUNDS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000};
+
+    /**
+     * Get notified about every recorded sample
+     */
+    public interface Listener {
+        void onSample(@NonNull String stage, double duration);
+    }
+
+    /**
+     * Snapshot of a single stage histogram
+     */
+    public static class Histogram {
+        public long count;
+        public double sum;
+        public double min;
+        public double max;
+        // one count per bucket bound, plus the overflow bucket
+        public final long[] buckets = new long[BUCKET_BOUNDS.length + 1];
+
+        void add(final double duration) {
+            if (count == 0 || duration < min) {
+                min = duration;
+            }
+            if (count == 0 || duration > max) {
+                max = duration;
+            }
+
+            count++;
+            sum += duration;
+
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS.length && duration > BUCKET_BOUNDS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+        }
+
+        @NonNull
+        Histogram copy() {
+            final Histogram histogram = new Histogram();
+            histogram.count = count;
+            histogram.sum = sum;
+            histogram.min = min;
+            histogram.max = max;
+            System.arraycopy(buckets, 0, histogram.buckets, 0, buckets.length);
+            return histogram;
+        }
+
+        public double getMean() {
+            return count > 0 ? sum / count : 0;
+        }
+
+        /**
+         * Estimated percentile (0-1), the upper bound of the bucket which contains the percentile
+         * NOTE: samples in the overflow bucket are estimated with the max duration
+         */
+        public double getPercentile(final double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+
+            for (int bucket = 0; bucket < BUCKET_BOUNDS.length; bucket++) {
+                seen += buckets[bucket];
+                if (seen >= rank) {
+                    return Math.min(BUCKET_BOUNDS[bucket], max);
+                }
+            }
+
+            return max;
+        }
+    }
+
+    private final Map<String, Histogram> histograms = new TreeMap<>();
+    @Nullable
+    private volatile Listener listener;
+
+    public static VaultMetrics sharedInstance() {
+        return SingletonHolder.instance;
+    }
+
+    private static class SingletonHolder {
+        static final VaultMetrics instance = new VaultMetrics();
+    }
+
+    private VaultMetrics() {
+    }
+
+    /**
+     * Label of a stage which ran with the given variant, e.g. cipher version or cipher storage name
+     */
+    @NonNull
+    public static String label(@NonNull final String stage, @NonNull final Object variant) {
+        return stage + "." + variant;
+    }
+
+    /**
+     * Label of a stage which ran with the given cipher version
+     */
+    @NonNull
+    public static String label(@NonNull final String stage, final int cipherVersion) {
+        return label(stage, "v" + cipherVersion);
+    }
+
+    /**
+     * Start time of a stage, to be passed to {@link #end(String, long)}
+     */
+    public long begin() {
+        return System.nanoTime();
+    }
+
+    public void end(@NonNull final String stage, final long beganAt) {
+        record(stage, (System.nanoTime() - beganAt) / 1e6);
+    }
+
+    public void record(@NonNull final String stage, final double duration) {
+        synchronized (histograms) {
+            Histogram histogram = histograms.get(stage);
+            if (histogram == null) {
+                histogram = new Histogram();
+                histograms.put(stage, histogram);
+            }
+            histogram.add(duration);
+        }
+
+        final Listener currentListener = listener;
+        if (currentListener != null) {
+            currentListener.onSample(stage, duration);
+        }
+    }
+
+    /**
+     * Set the listener for the recorded samples, null to stop listening
+     */
+    public void setListener(@Nullable final Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Snapshot of all histograms, sorted by stage label
+     */
+    @NonNull
+    public Map<String, Histogram> getHistograms() {
+        final Map<String, Histogram> results = new TreeMap<>();
+
+        synchronized (histograms) {
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                results.put(entry.getKey(), entry.getValue().copy());
+            }
+        }
+
+        return results;
+    }
+
+    public void reset() {
+        synchronized (histograms) {
+            histograms.clear();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package libs.security.vault;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import libs.security.CancellationToken;
+import libs.security.OperationCancelledException;
+import libs.security.SecurityExecutor;
+
+/**
+ * Migrates vaults to the latest cipher one by one, with a persisted checkpoint after every vault
+ * <p>
+ * Every vault is re-keyed with the same key through the {@link ReKeyEngine}, so a vault which is interrupted in the
+ * middle is recovered by the re-key journal. The checkpoint keeps the progress of the whole migration, so after
+ * process death the migration continues where it has been stopped when it's started again.
+ * <p>
+ * Before each vault the migration waits for the interactive, user initiated and vault operations, so vault opens and
+ * re-keys are not slowed down.
+ * A vault which fails to migrate is recorded in the checkpoint and the migration continues with the next vault, failed
+ * vaults are tried again on the next run. A cancelled migration stops before the next vault and keeps its checkpoint.
+ * NOTE: the key is never persisted, an interrupted migration is resumed by calling migrate again
+ */
+public class VaultMigrator {
+    private static final String LOG_TAG = VaultMigrator.class.getSimpleName();
+
+    public static final String MIGRATION_DATA = "RN_VAULT_MIGRATION";
+    private static final String KEY_CHECKPOINT = "checkpoint";
+
+    // max time to give way to interactive operations before migrating the next vault
+    private static final long MAX_YIELD_MS = 5000;
+    private static final long YIELD_INTERVAL_MS = 50;
+
+    public interface ProgressListener {
+        void onProgress(@NonNull String vaultName, @NonNull Checkpoint checkpoint, @Nullable Exception error);
+    }
+
+    public static class Checkpoint {
+        public final List<String> vaults = new ArrayList<>();
+        public final List<String> migrated = new ArrayList<>();
+        // not outdated anymore, removed or not able to open with the key in the meantime
+        public final List<String> skipped = new ArrayList<>();
+        public final List<String> failed = new ArrayList<>();
+        public long startedAt;
+    }
+
+    @NonNull
+    private final SharedPreferences prefs;
+    @NonNull
+    private final ReKeyEngine reKeyEngine;
+
+    public VaultMigrator(@NonNull final ReactApplicationContext reactContext, @NonNull final ReKeyEngine reKeyEngine) {
+        this.prefs = reactContext.getSharedPreferences(MIGRATION_DATA, Context.MODE_PRIVATE);
+        this.reKeyEngine = reKeyEngine;
+    }
+
+    /**
+     * Migrate the given outdated vaults, continues the checkpoint of an interrupted migration if exist
+     * NOTE: the checkpoint is kept while there are failed vaults, so they are tried again when migration is started again
+     */
+    @NonNull
+    public Checkpoint migrate(@NonNull final List<String> vaultNames, @NonNull final String key,
+                              @NonNull final ProgressListener listener) throws Exception {
+        Checkpoint checkpoint = getCheckpoint();
+
+        if (checkpoint == null) {
+            checkpoint = new Checkpoint();
+            checkpoint.startedAt = System.currentTimeMillis();
+        }
+
+        // vaults which became outdated since the interrupted migration
+        for (String vaultName : vaultNames) {
+            if (!checkpoint.vaults.contains(vaultName)) {
+                checkpoint.vaults.add(vaultName);
+            }
+        }
+
+        write(checkpoint);
+
+        for (String vaultName : checkpoint.vaults) {
+            if (checkpoint.migrated.contains(vaultName) || checkpoint.skipped.contains(vaultName)) {
+                continue;
+            }
+
+            // not outdated anymore, migrated before the checkpoint has been written or removed in the meantime
+            if (!vaultNames.contains(vaultName)) {
+                checkpoint.failed.remove(vaultName);
+                checkpoint.skipped.add(vaultName);
+                write(checkpoint);
+                continue;
+            }
+
+            // cancelled migration stops here and keeps the checkpoint
+            yieldToInteractive();
+
+            try {
+                reKey(vaultName, key);
+            } catch (OperationCancelledException | InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                Log.w(LOG_TAG, "Unable to migrate vault " + vaultName, e);
+
+                if (!checkpoint.failed.contains(vaultName)) {
+                    checkpoint.failed.add(vaultName);
+                }
+                write(checkpoint);
+
+                listener.onProgress(vaultName, checkpoint, e);
+                continue;
+            }
+
+            checkpoint.failed.remove(vaultName);
+            checkpoint.migrated.add(vaultName);
+            write(checkpoint);
+
+            listener.onProgress(vaultName, checkpoint, null);
+        }
+
+        if (checkpoint.failed.isEmpty()) {
+            clear();
+        }
+
+        return checkpoint;
+    }
+
+    /**
+     * Re-key the vault with the same key, the vault lock is held meanwhile
+     * NOTE: runs with the default thread priority, so vault operations waiting for the lock are not held up by a
+     * background thread
+     */
+    private void reKey(@NonNull final String vaultName, @NonNull final String key) throws Exception {
+        final int threadPriority = Process.getThreadPriority(Process.myTid());
+
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+
+        try {
+            reKeyEngine.reKey(Collections.singletonList(vaultName), key, key);
+        } finally {
+            Process.setThreadPriority(threadPriority);
+        }
+    }
+
+    /**
+     * Get the checkpoint of the interrupted migration, null if no migration is in progress
+     */
+    @Nullable
+    public Checkpoint getCheckpoint() {
+        final String value = prefs.getString(KEY_CHECKPOINT, null);
+
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            final JSONObject object = new JSONObject(value);
+            final Checkpoint checkpoint = new Checkpoint();
+
+            checkpoint.startedAt = object.getLong("started_at");
+
+            final JSONArray vaults = object.getJSONArray("vaults");
+            for (int i = 0; i < vaults.length(); i++) {
+                checkpoint.vaults.add(vaults.getString(i));
+            }
+
+            final JSONArray migrated = object.getJSONArray("migrated");
+            for (int i = 0; i < migrated.length(); i++) {
+                checkpoint.migrated.add(migrated.getString(i));
+            }
+
+            final JSONArray skipped = object.getJSONArray("skipped");
+            for (int i = 0; i < skipped.length(); i++) {
+                checkpoint.skipped.add(skipped.getString(i));
+            }
+
+            final JSONArray failed = object.getJSONArray("failed");
+            for (int i = 0; i < failed.length(); i++) {
+                checkpoint.failed.add(failed.getString(i));
+            }
+
+            return checkpoint;
+        } catch (JSONException e) {
+            // corrupted checkpoint, migration will start over and skip the vaults which are not outdated anymore
+            Log.w(LOG_TAG, "Unable to read migration checkpoint", e);
+            return null;
+        }
+    }
+
+    public synchronized void clear() {
+        prefs.edit().remove(KEY_CHECKPOINT).commit();
+    }
+
+    /**
+     * Persist the checkpoint
+     * NOTE: a cancelled migration never writes its checkpoint again, so a migration cancelled before clearing the
+     * storage does not bring back the cleared checkpoint
+     */
+    private synchronized void write(@NonNull final Checkpoint checkpoint) throws Exception {
+        CancellationToken.current().throwIfCancelled();
+
+        final JSONObject object = new JSONObject();
+        object.put("started_at", checkpoint.startedAt);
+        object.put("vaults", new JSONArray(checkpoint.vaults));
+        object.put("migrated", new JSONArray(checkpoint.migrated));
+        object.put("skipped", new JSONArray(checkpoint.skipped));
+        object.put("failed", new JSONArray(checkpoint.failed));
+
+        if (!prefs.edit().putString(KEY_CHECKPOINT, object.toString()).commit()) {
+            throw new Exception("UNABLE_TO_WRITE_CHECKPOINT");
+        }
+    }
+
+    /**
+     * Wait while interactive, user initiated or vault operations are running or queued
+     */
+    private void yieldToInteractive() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + MAX_YIELD_MS;
+
+        final CancellationToken cancellationToken = CancellationToken.current();
+
+        cancellationToken.throwIfCancelled();
+
+        while ((!SecurityExecutor.sharedInstance().isIdle(SecurityExecutor.Lane.INTERACTIVE)
+                || !SecurityExecutor.sharedInstance().isIdle(SecurityExecutor.Lane.USER_INITIATED)
+                || !SecurityExecutor.sharedInstance().isIdle(SecurityExecutor.Lane.VAULT))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(YIELD_INTERVAL_MS);
+            cancellationToken.throwIfCancelled();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.json.JSONException;
 
 import java.util.Map;
 
+import libs.security.vault.VaultMetrics;
 import libs.security.vault.exceptions.CryptoFailedException;
 
 public class Cipher {
@@ -16,6 +17,8 @@ public class Cipher {
         public String passcode_salt;
         public String pre_key_salt;
         public String encr_key_salt;
+        // v4+ envelope header, see CipherV4AesGcm
+        public byte[] header;
 
         public String toJSONString() throws JSONException {
             JSONObject jsonObject = new JSONObject();
@@ -26,13 +29,25 @@ public class Cipher {
             jsonObject.put("encr_key_salt", this.encr_key_salt);
             return jsonObject.toString();
         }
+
+        /**
+         * Serialize derived keys in the format of its version, for storing next to the cipher
+         * NOTE: v4+ derived keys are part of the cipher envelope, nothing is stored next to it
+         */
+        public String serialize() throws JSONException {
+            if (this.header != null) {
+                return "";
+            }
+
+            return toJSONString();
+        }
     }
 
     /**
      * get Latest supported ciper version
      */
     public static int getLatestCipherVersion() {
-        return CipherV2AesGcm.getCipherVersion();
+        return CipherV4AesGcm.getCipherVersion();
     }
 
 
@@ -47,7 +62,7 @@ public class Cipher {
         try {
             JSONObject derivedKeysObject = new JSONObject(derivedKeysString);
 
-            // it's v2 encryption
+            // it's v2+ encryption
             derivedKeys.version = derivedKeysObject.getInt("version");
             derivedKeys.iv = derivedKeysObject.getString("iv");
             derivedKeys.passcode_salt = derivedKeysObject.getString("passcode_salt");
@@ -64,13 +79,32 @@ public class Cipher {
     }
 
 
+    /**
+     * Get the cipher version of a stored vault
+     */
+    public static int getCipherVersion(@NonNull final String cipher, @NonNull final String derivedKeysString) {
+        // envelope, no need to go through JSON
+        if (CipherV4AesGcm.isEnvelope(cipher, derivedKeysString)) {
+            return CipherV4AesGcm.getEnvelopeVersion(cipher);
+        }
+
+        return getDerivedKeys(derivedKeysString).version;
+    }
+
+
     @NonNull
     public static Map<String, Object> encrypt(
             @NonNull final String input,
             @NonNull final String key
     ) throws CryptoFailedException {
+        final long stage = VaultMetrics.sharedInstance().begin();
+
         // use latest encryption method to encrypt data
-        return CipherV2AesGcm.encrypt(input, key);
+        final Map<String, Object> result = CipherV4AesGcm.encrypt(input, key);
+
+        VaultMetrics.sharedInstance().end(VaultMetrics.label("cipher_encrypt", CipherV4AesGcm.getCipherVersion()), stage);
+
+        return result;
     }
 
 
@@ -81,6 +115,17 @@ public class Cipher {
             @NonNull final String derivedKeysString
     ) throws CryptoFailedException {
 
+        final long stage = VaultMetrics.sharedInstance().begin();
+
+        // derived keys are part of the envelope, no need to go through JSON
+        if (CipherV4AesGcm.isEnvelope(cipher, derivedKeysString)) {
+            final String clearText = CipherV4AesGcm.decrypt(cipher, key);
+
+            VaultMetrics.sharedInstance().end(VaultMetrics.label("cipher_decrypt", CipherV4AesGcm.getCipherVersion()), stage);
+
+            return clearText;
+        }
+
         // try to deserialize derived keys
         DerivedKeys derivedKeys = getDerivedKeys(derivedKeysString);
 
@@ -98,7 +143,26 @@ public class Cipher {
                 throw new CryptoFailedException("No cipher for handling provider cipher version!", null);
         }
 
+        VaultMetrics.sharedInstance().end(VaultMetrics.label("cipher_decrypt", derivedKeys.version), stage);
+
         // return decrypted clearText
         return clearText;
     }
+
+    /**
+     * Decrypt a freshly encrypted cipher with the "encr_key" returned from encrypt, without deriving the key again
+     * NOTE: only supported for the latest cipher version
+     */
+    @NonNull
+    public static String decryptWithEncrKey(
+            @NonNull final String cipher,
+            @NonNull final byte[] encrKey,
+            @NonNull final String derivedKeysString
+    ) throws CryptoFailedException {
+        if (!CipherV4AesGcm.isEnvelope(cipher, derivedKeysString)) {
+            throw new CryptoFailedException("Unable to decrypt with encryption key for provided cipher version!", null);
+        }
+
+        return CipherV4AesGcm.decryptWithEncrKey(cipher, encrKey);
+    }
 }
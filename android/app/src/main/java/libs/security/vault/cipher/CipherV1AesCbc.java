@@ -8,6 +8,8 @@ import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import libs.security.crypto.Crypto;
+import libs.security.crypto.Hex;
+import libs.security.vault.VaultMetrics;
 import libs.security.vault.exceptions.CryptoFailedException;
 
 public class CipherV1AesCbc {
@@ -34,8 +36,9 @@ public class CipherV1AesCbc {
             // cipher data is base64 encoded while encrypting in v1 encryption
             byte[] cipherBytes = Base64.decode(cipher, Base64.NO_WRAP);
             // convert hex iv string to hex data
-            byte[] ivBytes = Crypto.HexToBytes(derivedKeys.iv);
+            byte[] ivBytes = Hex.decode(derivedKeys.iv);
 
+            final long stage = VaultMetrics.sharedInstance().begin();
             final byte[] decryptedBytes = Crypto.AESDecrypt(
                     Crypto.AESAlgo.CBC,
                     cipherBytes,
@@ -43,6 +46,7 @@ public class CipherV1AesCbc {
                     ivBytes,
                     null
             );
+            VaultMetrics.sharedInstance().end(VaultMetrics.label("aes_cbc_decrypt", getCipherVersion()), stage);
 
             return new String(decryptedBytes, StandardCharsets.UTF_8);
         } catch (Exception e) {
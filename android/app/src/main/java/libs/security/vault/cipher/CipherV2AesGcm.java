@@ -2,18 +2,25 @@ package libs.security.vault.cipher;
 
 import androidx.annotation.NonNull;
 
-import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import libs.security.crypto.Crypto;
+import libs.security.crypto.Hex;
 import libs.security.providers.UniqueIdProvider;
+import libs.security.vault.VaultMetrics;
 import libs.security.vault.exceptions.CryptoFailedException;
 
 public class CipherV2AesGcm {
     public static final int CIPHER_VERSION = 2;
 
+    // NOTE: using "91337" as iteration count is a conscious choice to save performance.
+    static final int PASSCODE_ITERATIONS = 91337;
+    // NOTE: using "33" as iteration count is a conscious choice to save performance.
+    static final int ENCR_KEY_ITERATIONS = 33;
+
     public static int getCipherVersion() {
         return CIPHER_VERSION;
     }
@@ -23,61 +30,11 @@ public class CipherV2AesGcm {
         try {
             final byte[] passcodeSalt = Crypto.RandomBytes(32);
 
-            // NOTE: using "91337" as iteration count is a conscious choice to save performance.
-            final byte[] passcodeHash = Crypto.PBKDF2(key.toCharArray(), passcodeSalt, 91337);
-
-            // get device unique id for using in preKey and AAD
-            final byte[] uniqueDeviceId = UniqueIdProvider.sharedInstance().getDeviceUniqueIdBytes();
-
-            if (uniqueDeviceId == null) {
-                throw new CryptoFailedException("uniqueDeviceId is null!", null);
-            }
-
-            // generate preKeySalt random 32 bytes
-            final byte[] preKeySalt = Crypto.RandomBytes(32);
-
-            // preKey = preKeySalt + passcodeHash + uniqueDeviceId
-            ByteArrayOutputStream preKeyStream = new ByteArrayOutputStream();
-            preKeyStream.write(preKeySalt);
-            preKeyStream.write(passcodeHash);
-            preKeyStream.write(uniqueDeviceId);
-
-            // as PBKDF2 password only accepts chart[] we need to turn preKey byte to hex char[]
-            char[] preKey = Crypto.BytesToHex(preKeyStream.toByteArray()).toCharArray();
-
-            // generate encrKeySalt random 32 bytes
-            final byte[] encrKeySalt = Crypto.RandomBytes(32);
-
-            // NOTE: using "33" as iteration count is a conscious choice to save performance.
-            final byte[] encrKey = Crypto.PBKDF2(preKey, encrKeySalt, 33);
-
-            // random iv 32 bytes
-            final byte[] iv = Crypto.RandomBytes(32);
-
-            // encrypt using AES GCM
-            final byte[] encryptedBytes = Crypto.AESEncrypt(
-                    Crypto.AESAlgo.GCM,
-                    input.getBytes(StandardCharsets.UTF_8),
-                    encrKey,
-                    iv,
-                    uniqueDeviceId
-            );
+            final long stage = VaultMetrics.sharedInstance().begin();
+            final byte[] passcodeHash = Crypto.PBKDF2(key.toCharArray(), passcodeSalt, PASSCODE_ITERATIONS);
+            VaultMetrics.sharedInstance().end(VaultMetrics.label("passcode_hash", getCipherVersion()), stage);
 
-            // generate derived keys
-            Cipher.DerivedKeys derivedKeys = new Cipher.DerivedKeys();
-
-            derivedKeys.version = getCipherVersion();
-            derivedKeys.iv = Crypto.BytesToHex(iv);
-            derivedKeys.passcode_salt = Crypto.BytesToHex(passcodeSalt);
-            derivedKeys.pre_key_salt = Crypto.BytesToHex(preKeySalt);
-            derivedKeys.encr_key_salt = Crypto.BytesToHex(encrKeySalt);
-
-
-            Map<String, Object> result = new HashMap<String, Object>();
-            result.put("cipher", Crypto.BytesToHex(encryptedBytes));
-            result.put("derived_keys", derivedKeys);
-
-            return result;
+            return encryptWithPasscodeHash(input, getCipherVersion(), passcodeSalt, passcodeHash);
         } catch (Exception e) {
             throw new CryptoFailedException("CipherV2AesGcm encryption error", e);
         }
@@ -86,50 +43,140 @@ public class CipherV2AesGcm {
     @NonNull
     public static String decrypt(@NonNull final String cipher, @NonNull final String key, @NonNull final Cipher.DerivedKeys derivedKeys) throws CryptoFailedException {
         try {
-
-            // NOTE: using "91337" as iteration count is a conscious choice to save performance.
+            final long stage = VaultMetrics.sharedInstance().begin();
             final byte[] passcodeHash = Crypto.PBKDF2(
                     key.toCharArray(),
-                    Crypto.HexToBytes(derivedKeys.passcode_salt),
-                    91337
+                    Hex.decode(derivedKeys.passcode_salt),
+                    PASSCODE_ITERATIONS
             );
+            VaultMetrics.sharedInstance().end(VaultMetrics.label("passcode_hash", getCipherVersion()), stage);
 
-            // get device unique id for using in preKey and AAD
-            final byte[] uniqueDeviceId = UniqueIdProvider.sharedInstance().getDeviceUniqueIdBytes();
+            return decryptWithPasscodeHash(cipher, derivedKeys, passcodeHash);
+        } catch (Exception e) {
+            throw new CryptoFailedException("CipherV2AesGcm decryption error", e);
+        }
+    }
 
-            if (uniqueDeviceId == null) {
-                throw new CryptoFailedException("uniqueDeviceId is null!", null);
-            }
+    /**
+     * Encrypt the input with already derived passcode hash
+     */
+    @NonNull
+    static Map<String, Object> encryptWithPasscodeHash(
+            @NonNull final String input,
+            final int version,
+            @NonNull final byte[] passcodeSalt,
+            @NonNull final byte[] passcodeHash
+    ) throws Exception {
+        // get device unique id for using in preKey and AAD
+        final byte[] uniqueDeviceId = UniqueIdProvider.sharedInstance().getDeviceUniqueIdBytes();
+
+        if (uniqueDeviceId == null) {
+            throw new CryptoFailedException("uniqueDeviceId is null!", null);
+        }
 
-            // preKey = preKeySalt + passcodeHash + uniqueDeviceId
-            ByteArrayOutputStream preKeyStream = new ByteArrayOutputStream();
-            preKeyStream.write(Crypto.HexToBytes(derivedKeys.pre_key_salt));
-            preKeyStream.write(passcodeHash);
-            preKeyStream.write(uniqueDeviceId);
+        // generate preKeySalt random 32 bytes
+        final byte[] preKeySalt = Crypto.RandomBytes(32);
 
-            // as PBKDF2 password only accepts chart[] we need to turn preKey byte to hex char[]
-            char[] preKey = Crypto.BytesToHex(preKeyStream.toByteArray()).toCharArray();
+        // generate encrKeySalt random 32 bytes
+        final byte[] encrKeySalt = Crypto.RandomBytes(32);
 
-            // NOTE: using "33" as iteration count is a conscious choice to save performance.
-            final byte[] encrKey = Crypto.PBKDF2(
-                    preKey,
-                    Crypto.HexToBytes(derivedKeys.encr_key_salt),
-                    33
-            );
+        final VaultMetrics metrics = VaultMetrics.sharedInstance();
 
+        long stage = metrics.begin();
+        final byte[] encrKey = deriveEncrKey(preKeySalt, passcodeHash, uniqueDeviceId, encrKeySalt);
+        metrics.end(VaultMetrics.label("encr_key", version), stage);
 
-            // decrypt using AES GCM
-            final byte[] decryptedBytes = Crypto.AESDecrypt(
-                    Crypto.AESAlgo.GCM,
-                    Crypto.HexToBytes(cipher),
-                    encrKey,
-                    Crypto.HexToBytes(derivedKeys.iv),
-                    uniqueDeviceId
-            );
+        // random iv 32 bytes
+        final byte[] iv = Crypto.RandomBytes(32);
 
-            return new String(decryptedBytes, StandardCharsets.UTF_8);
-        } catch (Exception e) {
-            throw new CryptoFailedException("CipherV2AesGcm decryption error", e);
+        // encrypt using AES GCM
+        stage = metrics.begin();
+        final byte[] encryptedBytes = Crypto.AESEncrypt(
+                Crypto.AESAlgo.GCM,
+                input.getBytes(StandardCharsets.UTF_8),
+                encrKey,
+                iv,
+                uniqueDeviceId
+        );
+        metrics.end(VaultMetrics.label("aes_gcm_encrypt", version), stage);
+
+        // generate derived keys
+        Cipher.DerivedKeys derivedKeys = new Cipher.DerivedKeys();
+
+        derivedKeys.version = version;
+        derivedKeys.iv = Hex.encode(iv);
+        derivedKeys.passcode_salt = Hex.encode(passcodeSalt);
+        derivedKeys.pre_key_salt = Hex.encode(preKeySalt);
+        derivedKeys.encr_key_salt = Hex.encode(encrKeySalt);
+
+
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("cipher", Hex.encode(encryptedBytes));
+        result.put("derived_keys", derivedKeys);
+
+        return result;
+    }
+
+    /**
+     * Decrypt the cipher with already derived passcode hash
+     */
+    @NonNull
+    static String decryptWithPasscodeHash(
+            @NonNull final String cipher,
+            @NonNull final Cipher.DerivedKeys derivedKeys,
+            @NonNull final byte[] passcodeHash
+    ) throws Exception {
+        // get device unique id for using in preKey and AAD
+        final byte[] uniqueDeviceId = UniqueIdProvider.sharedInstance().getDeviceUniqueIdBytes();
+
+        if (uniqueDeviceId == null) {
+            throw new CryptoFailedException("uniqueDeviceId is null!", null);
+        }
+
+        final VaultMetrics metrics = VaultMetrics.sharedInstance();
+
+        long stage = metrics.begin();
+        final byte[] encrKey = deriveEncrKey(
+                Hex.decode(derivedKeys.pre_key_salt),
+                passcodeHash,
+                uniqueDeviceId,
+                Hex.decode(derivedKeys.encr_key_salt)
+        );
+        metrics.end(VaultMetrics.label("encr_key", derivedKeys.version), stage);
+
+        // decrypt using AES GCM
+        stage = metrics.begin();
+        final byte[] decryptedBytes = Crypto.AESDecrypt(
+                Crypto.AESAlgo.GCM,
+                Hex.decode(cipher),
+                encrKey,
+                Hex.decode(derivedKeys.iv),
+                uniqueDeviceId
+        );
+        metrics.end(VaultMetrics.label("aes_gcm_decrypt", derivedKeys.version), stage);
+
+        return new String(decryptedBytes, StandardCharsets.UTF_8);
+    }
+
+    @NonNull
+    static byte[] deriveEncrKey(
+            @NonNull final byte[] preKeySalt,
+            @NonNull final byte[] passcodeHash,
+            @NonNull final byte[] uniqueDeviceId,
+            @NonNull final byte[] encrKeySalt
+    ) throws Exception {
+        // preKey = preKeySalt + passcodeHash + uniqueDeviceId
+        // as PBKDF2 password only accepts chart[] we need to turn preKey byte to hex char[]
+        // NOTE: encoded directly into the char[], without intermediate byte[]/String copies
+        final char[] preKey = new char[(preKeySalt.length + passcodeHash.length + uniqueDeviceId.length) << 1];
+        int offset = Hex.encode(preKeySalt, 0, preKeySalt.length, preKey, 0);
+        offset += Hex.encode(passcodeHash, 0, passcodeHash.length, preKey, offset);
+        Hex.encode(uniqueDeviceId, 0, uniqueDeviceId.length, preKey, offset);
+
+        try {
+            return Crypto.PBKDF2(preKey, encrKeySalt, ENCR_KEY_ITERATIONS);
+        } finally {
+            Arrays.fill(preKey, '\0');
         }
     }
 }
@@ -0,0 +1,306 @@
+package libs.security.vault.cipher;
+
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import libs.security.crypto.Crypto;
+import libs.security.providers.UniqueIdProvider;
+import libs.security.vault.VaultMetrics;
+import libs.security.vault.exceptions.CryptoFailedException;
+
+/**
+ * Same key derivation as {@link CipherV2AesGcm}, but the passcode salt is shared between all vaults on the device, so
+ * the passcode hash can be derived once and served from the {@link SessionKeyCache} for the next vaults. Stored in a
+ * single compact binary envelope instead of hex/JSON.
+ * The passcode hash work factor is calibrated per device, see {@link KdfCalibration}.
+ * <p>
+ * Cipher (base64):
+ * <pre>
+ * | magic (1) | version (1) | kdf iterations (4, big endian) | passcode salt (32) | pre key salt (16) | encr key salt (16) | iv (12) | ciphertext + GCM tag |
+ * </pre>
+ * Derived keys are part of the envelope, so nothing is stored next to the cipher.
+ */
+public class CipherV4AesGcm {
+    public static final int CIPHER_VERSION = 4;
+
+    public static final byte HEADER_MAGIC = 0x58;
+    public static final int PASSCODE_SALT_LENGTH = SessionKeyCache.PASSCODE_SALT_LENGTH;
+    // NOTE: 128 bits per vault salts, the passcode hash mixed into the pre key is already salted with the device salt
+    public static final int SALT_LENGTH = 16;
+    public static final int IV_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+    public static final int HEADER_LENGTH = 1 + 1 + 4 + PASSCODE_SALT_LENGTH + SALT_LENGTH * 2 + IV_LENGTH;
+    // NOTE: base64 encoding of the magic byte always starts with this char
+    public static final char HEADER_PREFIX = 'W';
+
+    public static int getCipherVersion() {
+        return CIPHER_VERSION;
+    }
+
+    /**
+     * Parsed envelope header
+     */
+    public static class Header {
+        public final int version;
+        public final int kdfIterations;
+        public final byte[] passcodeSalt = new byte[PASSCODE_SALT_LENGTH];
+        public final byte[] preKeySalt = new byte[SALT_LENGTH];
+        public final byte[] encrKeySalt = new byte[SALT_LENGTH];
+        public final byte[] iv = new byte[IV_LENGTH];
+
+        private Header(@NonNull final ByteBuffer buffer) {
+            buffer.get(); // magic
+            version = buffer.get() & 0xFF;
+            kdfIterations = buffer.getInt();
+            buffer.get(passcodeSalt);
+            buffer.get(preKeySalt);
+            buffer.get(encrKeySalt);
+            buffer.get(iv);
+        }
+
+        /**
+         * Parse the header of raw header or envelope bytes, null if bytes do not start with a valid header
+         */
+        @Nullable
+        public static Header parse(@NonNull final byte[] bytes) {
+            if (bytes.length < HEADER_LENGTH || bytes[0] != HEADER_MAGIC) {
+                return null;
+            }
+
+            return new Header(ByteBuffer.wrap(bytes, 0, HEADER_LENGTH));
+        }
+
+        @NonNull
+        static ByteBuffer encode(
+                @NonNull final ByteBuffer buffer,
+                final int version,
+                final int kdfIterations,
+                @NonNull final byte[] passcodeSalt,
+                @NonNull final byte[] preKeySalt,
+                @NonNull final byte[] encrKeySalt,
+                @NonNull final byte[] iv
+        ) {
+            return buffer
+                    .put(HEADER_MAGIC)
+                    .put((byte) version)
+                    .putInt(kdfIterations)
+                    .put(passcodeSalt)
+                    .put(preKeySalt)
+                    .put(encrKeySalt)
+                    .put(iv);
+        }
+    }
+
+    /**
+     * Check if the stored item is an envelope, envelopes are stored without derived keys string
+     */
+    public static boolean isEnvelope(@NonNull final String cipher, @NonNull final String derivedKeysString) {
+        return derivedKeysString.isEmpty() && !cipher.isEmpty() && cipher.charAt(0) == HEADER_PREFIX;
+    }
+
+    /**
+     * Decode the base64 envelope, null if it's not a valid envelope of this version
+     */
+    @Nullable
+    public static byte[] decodeEnvelope(@NonNull final String cipher) {
+        try {
+            final byte[] bytes = Base64.decode(cipher, Base64.NO_WRAP);
+            final Header header = bytes.length >= HEADER_LENGTH + TAG_LENGTH ? Header.parse(bytes) : null;
+            return header != null && header.version == getCipherVersion() ? bytes : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read the cipher version of the envelope without decoding all of it
+     */
+    public static int getEnvelopeVersion(@NonNull final String cipher) {
+        // first 4 base64 chars are the first 3 bytes
+        final byte[] prefix = Base64.decode(cipher.substring(0, Math.min(4, cipher.length())), Base64.NO_WRAP);
+
+        if (prefix.length < 2 || prefix[0] != HEADER_MAGIC) {
+            throw new IllegalArgumentException("Invalid envelope!");
+        }
+
+        return prefix[1] & 0xFF;
+    }
+
+    @NonNull
+    public static Map<String, Object> encrypt(@NonNull final String input, @NonNull final String key) throws CryptoFailedException {
+        try {
+            final SessionKeyCache sessionKeyCache = SessionKeyCache.sharedInstance();
+            final VaultMetrics metrics = VaultMetrics.sharedInstance();
+
+            // work factor calibrated for this device, recorded in the header
+            final int kdfIterations = KdfCalibration.sharedInstance().getIterations();
+            final byte[] passcodeSalt = sessionKeyCache.getPasscodeSalt();
+
+            // NOTE: includes the session cache hits
+            long stage = metrics.begin();
+            final byte[] passcodeHash = sessionKeyCache.getPasscodeHash(key, passcodeSalt, kdfIterations);
+            metrics.end(VaultMetrics.label("passcode_hash", getCipherVersion()), stage);
+
+            // get device unique id for using in preKey and AAD
+            final byte[] uniqueDeviceId = UniqueIdProvider.sharedInstance().getDeviceUniqueIdBytes();
+
+            if (uniqueDeviceId == null) {
+                throw new CryptoFailedException("uniqueDeviceId is null!", null);
+            }
+
+            final byte[] preKeySalt = Crypto.RandomBytes(SALT_LENGTH);
+            final byte[] encrKeySalt = Crypto.RandomBytes(SALT_LENGTH);
+
+            stage = metrics.begin();
+            final byte[] encrKey = CipherV2AesGcm.deriveEncrKey(preKeySalt, passcodeHash, uniqueDeviceId, encrKeySalt);
+            metrics.end(VaultMetrics.label("encr_key", getCipherVersion()), stage);
+
+            final byte[] iv = Crypto.RandomBytes(IV_LENGTH);
+
+            // encrypt using AES GCM
+            stage = metrics.begin();
+            final byte[] encryptedBytes = Crypto.AESEncrypt(
+                    Crypto.AESAlgo.GCM,
+                    input.getBytes(StandardCharsets.UTF_8),
+                    encrKey,
+                    iv,
+                    uniqueDeviceId
+            );
+            metrics.end(VaultMetrics.label("aes_gcm_encrypt", getCipherVersion()), stage);
+
+            final ByteBuffer envelope = ByteBuffer.allocate(HEADER_LENGTH + encryptedBytes.length);
+            Header.encode(
+                    envelope,
+                    getCipherVersion(),
+                    kdfIterations,
+                    passcodeSalt,
+                    preKeySalt,
+                    encrKeySalt,
+                    iv
+            );
+
+            Cipher.DerivedKeys derivedKeys = new Cipher.DerivedKeys();
+            derivedKeys.version = getCipherVersion();
+            derivedKeys.header = Arrays.copyOf(envelope.array(), HEADER_LENGTH);
+
+            envelope.put(encryptedBytes);
+
+            // next warm-up derives with the work factor of this header
+            sessionKeyCache.recordHeaderIterations(passcodeSalt, kdfIterations);
+
+            Map<String, Object> result = new HashMap<String, Object>();
+            result.put("cipher", Base64.encodeToString(envelope.array(), Base64.NO_WRAP));
+            result.put("derived_keys", derivedKeys);
+            // NOTE: only for verifying the result without deriving again, callers should wipe it after use
+            result.put("encr_key", encrKey);
+
+            return result;
+        } catch (Exception e) {
+            throw new CryptoFailedException("CipherV4AesGcm encryption error", e);
+        }
+    }
+
+    @NonNull
+    public static String decrypt(@NonNull final String cipher, @NonNull final String key) throws CryptoFailedException {
+        try {
+            final byte[] envelope = decodeEnvelope(cipher);
+
+            if (envelope == null) {
+                throw new CryptoFailedException("Invalid envelope!", null);
+            }
+
+            final Header header = Header.parse(envelope);
+
+            if (header.kdfIterations < KdfCalibration.MIN_ITERATIONS || header.kdfIterations > KdfCalibration.MAX_ITERATIONS) {
+                throw new CryptoFailedException("Invalid kdf iterations!", null);
+            }
+
+            final VaultMetrics metrics = VaultMetrics.sharedInstance();
+            final SessionKeyCache sessionKeyCache = SessionKeyCache.sharedInstance();
+
+            // next warm-up derives with the work factor of this header
+            sessionKeyCache.recordHeaderIterations(header.passcodeSalt, header.kdfIterations);
+
+            long stage = metrics.begin();
+            final byte[] passcodeHash = sessionKeyCache.getPasscodeHash(
+                    key,
+                    header.passcodeSalt,
+                    header.kdfIterations
+            );
+            metrics.end(VaultMetrics.label("passcode_hash", getCipherVersion()), stage);
+
+            // get device unique id for using in preKey and AAD
+            final byte[] uniqueDeviceId = UniqueIdProvider.sharedInstance().getDeviceUniqueIdBytes();
+
+            if (uniqueDeviceId == null) {
+                throw new CryptoFailedException("uniqueDeviceId is null!", null);
+            }
+
+            stage = metrics.begin();
+            final byte[] encrKey = CipherV2AesGcm.deriveEncrKey(
+                    header.preKeySalt,
+                    passcodeHash,
+                    uniqueDeviceId,
+                    header.encrKeySalt
+            );
+            metrics.end(VaultMetrics.label("encr_key", getCipherVersion()), stage);
+
+            final byte[] decryptedBytes = decryptWithEncrKey(envelope, encrKey, header, uniqueDeviceId);
+
+            return new String(decryptedBytes, StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new CryptoFailedException("CipherV4AesGcm decryption error", e);
+        }
+    }
+
+    /**
+     * Decrypt with the already derived encryption key, skips the key derivation
+     * NOTE: used for verifying a freshly encrypted vault with the key returned from encrypt
+     */
+    @NonNull
+    public static String decryptWithEncrKey(@NonNull final String cipher, @NonNull final byte[] encrKey) throws CryptoFailedException {
+        try {
+            final byte[] envelope = decodeEnvelope(cipher);
+
+            if (envelope == null) {
+                throw new CryptoFailedException("Invalid envelope!", null);
+            }
+
+            final byte[] uniqueDeviceId = UniqueIdProvider.sharedInstance().getDeviceUniqueIdBytes();
+
+            if (uniqueDeviceId == null) {
+                throw new CryptoFailedException("uniqueDeviceId is null!", null);
+            }
+
+            return new String(decryptWithEncrKey(envelope, encrKey, Header.parse(envelope), uniqueDeviceId), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new CryptoFailedException("CipherV4AesGcm decryption error", e);
+        }
+    }
+
+    @NonNull
+    private static byte[] decryptWithEncrKey(@NonNull final byte[] envelope, @NonNull final byte[] encrKey, @NonNull final Header header, @NonNull final byte[] uniqueDeviceId) throws Exception {
+        final long stage = VaultMetrics.sharedInstance().begin();
+
+        // decrypt using AES GCM
+        final byte[] decryptedBytes = Crypto.AESDecrypt(
+                Crypto.AESAlgo.GCM,
+                Arrays.copyOfRange(envelope, HEADER_LENGTH, envelope.length),
+                encrKey,
+                header.iv,
+                uniqueDeviceId
+        );
+
+        VaultMetrics.sharedInstance().end(VaultMetrics.label("aes_gcm_decrypt", getCipherVersion()), stage);
+
+        return decryptedBytes;
+    }
+}
@@ -0,0 +1,219 @@
+package libs.security.vault.cipher;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+import libs.security.crypto.Crypto;
+import libs.security.crypto.Pbkdf2Selector;
+
+/**
+ * Device calibrated PBKDF2 work factor for the vault passcode hash
+ * <p>
+ * Benchmarks {@link Crypto#PBKDF2} on the device and picks the iteration count which takes about
+ * {@link #TARGET_DURATION_MS} to derive, bounded by {@link #MIN_ITERATIONS} and {@link #MAX_ITERATIONS}.
+ * The result is persisted and re-calibrated when the device build changes.
+ * <p>
+ * NOTE: the chosen iterations are recorded in every vault header, changing the calibration never affects existing vaults
+ */
+public class KdfCalibration {
+    private static final String LOG_TAG = KdfCalibration.class.getSimpleName();
+
+    public static final String CALIBRATION_DATA = "RN_VAULT_KDF";
+    private static final String KEY_CALIBRATION = "calibration";
+
+    public static final long TARGET_DURATION_MS = 500;
+    public static final int MIN_ITERATIONS = 60000;
+    public static final int MAX_ITERATIONS = 2000000;
+
+    private static final int SAMPLE_ITERATIONS = 10000;
+    private static final int SAMPLE_ROUNDS = 5;
+    private static final int ITERATIONS_ROUNDING = 1000;
+
+    /**
+     * Calibration result with the measured timings
+     */
+    public static class Result {
+        public int iterations;
+        public int sampleIterations;
+        public double[] sampleDurations;
+        public double medianDuration;
+        public double estimatedDuration;
+        public long targetDuration;
+        public long calibratedAt;
+        public String fingerprint;
+
+        public String toJSONString() throws JSONException {
+            final JSONArray durations = new JSONArray();
+            for (double duration : sampleDurations) {
+                durations.put(duration);
+            }
+
+            final JSONObject jsonObject = new JSONObject();
+            jsonObject.put("iterations", iterations);
+            jsonObject.put("sample_iterations", sampleIterations);
+            jsonObject.put("sample_durations", durations);
+            jsonObject.put("median_duration", medianDuration);
+            jsonObject.put("estimated_duration", estimatedDuration);
+            jsonObject.put("target_duration", targetDuration);
+            jsonObject.put("calibrated_at", calibratedAt);
+            jsonObject.put("fingerprint", fingerprint);
+            return jsonObject.toString();
+        }
+
+        @NonNull
+        static Result fromJSONString(@NonNull final String value) throws JSONException {
+            final JSONObject jsonObject = new JSONObject(value);
+            final JSONArray durations = jsonObject.getJSONArray("sample_durations");
+
+            final Result result = new Result();
+            result.iterations = jsonObject.getInt("iterations");
+            result.sampleIterations = jsonObject.getInt("sample_iterations");
+            result.sampleDurations = new double[durations.length()];
+            for (int i = 0; i < durations.length(); i++) {
+                result.sampleDurations[i] = durations.getDouble(i);
+            }
+            result.medianDuration = jsonObject.getDouble("median_duration");
+            result.estimatedDuration = jsonObject.getDouble("estimated_duration");
+            result.targetDuration = jsonObject.getLong("target_duration");
+            result.calibratedAt = jsonObject.getLong("calibrated_at");
+            result.fingerprint = jsonObject.optString("fingerprint", "");
+            return result;
+        }
+    }
+
+    private SharedPreferences prefs;
+    private Result result;
+
+    public synchronized KdfCalibration init(final ReactApplicationContext context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Context is required");
+        }
+
+        prefs = context.getSharedPreferences(CALIBRATION_DATA, Context.MODE_PRIVATE);
+
+        return this;
+    }
+
+    public static KdfCalibration sharedInstance() {
+        return SingletonHolder.instance;
+    }
+
+    private static class SingletonHolder {
+        static final KdfCalibration instance = new KdfCalibration();
+    }
+
+    /**
+     * Get the passcode iterations for new vaults, calibrate if not calibrated yet on this device build
+     */
+    public synchronized int getIterations() {
+        // not initiated, fallback to the default work factor
+        if (prefs == null) {
+            return CipherV2AesGcm.PASSCODE_ITERATIONS;
+        }
+
+        final Result current = getResult();
+        if (current != null) {
+            return current.iterations;
+        }
+
+        try {
+            return calibrate().iterations;
+        } catch (Exception e) {
+            Log.w(LOG_TAG, "Unable to calibrate, using default iterations", e);
+            return CipherV2AesGcm.PASSCODE_ITERATIONS;
+        }
+    }
+
+    /**
+     * Get the persisted calibration, null if device is not calibrated yet or the device build has been changed
+     */
+    @Nullable
+    public synchronized Result getResult() {
+        if (result == null && prefs != null) {
+            final String value = prefs.getString(KEY_CALIBRATION, null);
+
+            if (value != null) {
+                try {
+                    result = Result.fromJSONString(value);
+                } catch (JSONException e) {
+                    // corrupted calibration, will be calibrated again
+                    result = null;
+                }
+            }
+        }
+
+        // calibration of another build is not valid anymore, as crypto providers can be changed with system updates
+        if (result != null && !getFingerprint().equals(result.fingerprint)) {
+            result = null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Benchmark PBKDF2 on this device and persist the chosen iterations
+     */
+    @NonNull
+    public synchronized Result calibrate() throws Exception {
+        final char[] password = Crypto.BytesToHex(Crypto.RandomBytes(16)).toCharArray();
+        final byte[] salt = Crypto.RandomBytes(SessionKeyCache.PASSCODE_SALT_LENGTH);
+
+        // measure the implementation which derives the keys, waits for a running selection
+        Pbkdf2Selector.sharedInstance().select();
+
+        // warm up, first call includes provider lookup and JIT
+        Crypto.PBKDF2(password, salt, SAMPLE_ITERATIONS);
+
+        final double[] durations = new double[SAMPLE_ROUNDS];
+        for (int i = 0; i < SAMPLE_ROUNDS; i++) {
+            final long start = System.nanoTime();
+            Crypto.PBKDF2(password, salt, SAMPLE_ITERATIONS);
+            durations[i] = (System.nanoTime() - start) / 1e6;
+        }
+
+        final double[] sorted = durations.clone();
+        Arrays.sort(sorted);
+        final double median = sorted[SAMPLE_ROUNDS / 2];
+
+        // scale the sample up to the target duration
+        final double iterationsPerMs = SAMPLE_ITERATIONS / Math.max(median, 0.001);
+        long iterations = Math.round(iterationsPerMs * TARGET_DURATION_MS / ITERATIONS_ROUNDING) * ITERATIONS_ROUNDING;
+        iterations = Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iterations));
+
+        final Result calibration = new Result();
+        calibration.iterations = (int) iterations;
+        calibration.sampleIterations = SAMPLE_ITERATIONS;
+        calibration.sampleDurations = durations;
+        calibration.medianDuration = median;
+        calibration.estimatedDuration = iterations / iterationsPerMs;
+        calibration.targetDuration = TARGET_DURATION_MS;
+        calibration.calibratedAt = System.currentTimeMillis();
+        calibration.fingerprint = getFingerprint();
+
+        if (prefs != null && !prefs.edit().putString(KEY_CALIBRATION, calibration.toJSONString()).commit()) {
+            throw new Exception("UNABLE_TO_WRITE_CALIBRATION");
+        }
+
+        result = calibration;
+
+        return calibration;
+    }
+
+    @NonNull
+    private static String getFingerprint() {
+        return Build.FINGERPRINT != null ? Build.FINGERPRINT : "";
+    }
+}
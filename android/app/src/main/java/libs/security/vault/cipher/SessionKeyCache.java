@@ -0,0 +1,521 @@
+package libs.security.vault.cipher;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.spec.GCMParameterSpec;
+
+import libs.security.CancellationToken;
+import libs.security.OperationCancelledException;
+import libs.security.crypto.Crypto;
+import libs.security.crypto.Hex;
+import libs.security.vault.storage.Keychain;
+
+/**
+ * Cache of derived passcode hashes for the current unlock session
+ * <p>
+ * Passcode hashes are kept wrapped with a non-exportable AndroidKeyStore key, entries are evicted after
+ * being idle for {@link #IDLE_TIMEOUT_MS} or living longer than {@link #MAX_LIFETIME_MS} and all entries
+ * are dropped on {@link #lock()}. Eviction is scheduled for the earliest expiry, so entries don't outlive
+ * their timeout when the cache is not used anymore. Wrapping and unwrapping is done outside the lock.
+ * <p>
+ * Also holds the per-device passcode salt, which vaults can share so one derivation unlocks all of them.
+ * Concurrent requests for the same passcode hash share a single derivation.
+ */
+public class SessionKeyCache {
+    private static final String LOG_TAG = SessionKeyCache.class.getSimpleName();
+
+    private static final String PASSCODE_SALT_KEY = "vault-passcode-salt";
+    private static final String SESSION_KEY_ALIAS = "vault-session-key";
+    private static final String KEYSTORE_TYPE = "AndroidKeyStore";
+    private static final String WRAP_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int WRAP_TAG_SIZE = 128;
+    private static final int MAX_ENTRIES = 8;
+
+    public static final int PASSCODE_SALT_LENGTH = 32;
+    public static final long IDLE_TIMEOUT_MS = 60 * 1000;
+    public static final long MAX_LIFETIME_MS = 5 * 60 * 1000;
+
+    private static class Entry {
+        final byte[] iv;
+        final byte[] wrapped;
+        final long createdAt;
+        long lastAccessAt;
+
+        Entry(final byte[] iv, final byte[] wrapped, final long now) {
+            this.iv = iv;
+            this.wrapped = wrapped;
+            this.createdAt = now;
+            this.lastAccessAt = now;
+        }
+    }
+
+    /**
+     * Derivation of the passcode hash
+     */
+    interface PasscodeDerivation {
+        byte[] derive(char[] password, byte[] salt, int iterations) throws Exception;
+    }
+
+    private static class LookupTag {
+        final String value;
+        // session the tag belongs to, results of a locked session are never cached
+        final long generation;
+
+        LookupTag(final String value, final long generation) {
+            this.value = value;
+            this.generation = generation;
+        }
+    }
+
+    private Keychain keychain;
+    private byte[] passcodeSalt;
+    private byte[] sessionNonce;
+    // bumped on every lock(), derivations started before a lock finish without being cached
+    private long sessionGeneration;
+    private volatile Key sessionKey;
+    private final Object sessionKeyLock = new Object();
+    // access ordered, so the least recently used entry is evicted first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true);
+    // derivations which are running right now, keyed by lookup tag
+    private final Map<String, FutureTask<byte[]>> pending = new HashMap<>();
+    // iterations of the last v4 vault header opened with the passcode salt, the only value a warm-up derives with
+    // NOTE: persisted in the passcode salt item
+    private int passcodeIterations;
+
+    private final PasscodeDerivation passcodeDerivation;
+
+    private final Handler evictionHandler = new Handler(Looper.getMainLooper());
+    private final Runnable evictionTask = () -> {
+        synchronized (SessionKeyCache.this) {
+            evictExpired();
+            scheduleEviction();
+        }
+    };
+
+    private SessionKeyCache() {
+        this(Crypto::PBKDF2);
+    }
+
+    /**
+     * Cache with its own derivation, e.g. a derivation which can be paused in tests
+     */
+    SessionKeyCache(@NonNull final PasscodeDerivation passcodeDerivation) {
+        this.passcodeDerivation = passcodeDerivation;
+    }
+
+    public synchronized SessionKeyCache init(final ReactApplicationContext context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Context is required");
+        }
+
+        keychain = new Keychain(context);
+
+        return this;
+    }
+
+    public static SessionKeyCache sharedInstance() {
+        return SingletonHolder.instance;
+    }
+
+    private static class SingletonHolder {
+        static final SessionKeyCache instance = new SessionKeyCache();
+    }
+
+    /**
+     * Get the per-device passcode salt, generate and store one if not exist
+     */
+    @NonNull
+    public synchronized byte[] getPasscodeSalt() throws Exception {
+        if (passcodeSalt != null) {
+            return passcodeSalt;
+        }
+
+        if (keychain == null) {
+            throw new RuntimeException("SessionKeyCache is not initiated");
+        }
+
+        readPasscodeSalt();
+
+        if (passcodeSalt == null) {
+            final byte[] salt = Crypto.RandomBytes(PASSCODE_SALT_LENGTH);
+            keychain.setItem(PASSCODE_SALT_KEY, "", Hex.encode(salt));
+            passcodeSalt = salt;
+        }
+
+        return passcodeSalt;
+    }
+
+    /**
+     * Get the per-device passcode salt without generating one, null if no vault uses the shared salt yet
+     */
+    @Nullable
+    public synchronized byte[] peekPasscodeSalt() throws Exception {
+        if (passcodeSalt != null || keychain == null) {
+            return passcodeSalt;
+        }
+
+        readPasscodeSalt();
+
+        return passcodeSalt;
+    }
+
+    /**
+     * Read the passcode salt and the iterations of the last opened v4 header, both are stored in the same item
+     */
+    private void readPasscodeSalt() throws Exception {
+        final Map<String, String> item = keychain.getItem(PASSCODE_SALT_KEY);
+
+        if (item == null || item.get("password") == null) {
+            return;
+        }
+
+        passcodeSalt = Hex.decode(item.get("password"));
+
+        try {
+            passcodeIterations = TextUtils.isEmpty(item.get("username")) ? 0 : Integer.parseInt(item.get("username"));
+        } catch (NumberFormatException e) {
+            passcodeIterations = 0;
+        }
+    }
+
+    /**
+     * Get the PBKDF2 passcode hash for provided key and salt, from cache if possible
+     * if the same hash is being derived by another thread the result of that derivation is awaited
+     */
+    @NonNull
+    public byte[] getPasscodeHash(@NonNull final String key, @NonNull final byte[] salt, final int iterations) throws Exception {
+        final LookupTag tag = getLookupTag(key, salt, iterations);
+        final String lookupTag = tag.value;
+
+        final byte[] cached = lookup(lookupTag);
+        if (cached != null) {
+            return cached;
+        }
+
+        final FutureTask<byte[]> derivation;
+        final boolean isOwner;
+
+        synchronized (this) {
+            final FutureTask<byte[]> running = pending.get(lookupTag);
+
+            // NOTE: a finished derivation is still pending until its owner removes it, only a failed one can be seen here
+            if (running != null && !running.isDone()) {
+                derivation = running;
+                isOwner = false;
+            } else {
+                derivation = new FutureTask<>(() -> passcodeDerivation.derive(key.toCharArray(), salt, iterations));
+                pending.put(lookupTag, derivation);
+                isOwner = true;
+            }
+        }
+
+        if (!isOwner) {
+            try {
+                // every caller gets its own copy
+                return await(derivation).clone();
+            } catch (OperationCancelledException e) {
+                // the owner has been cancelled, derive it again unless this caller is cancelled as well
+                CancellationToken.current().throwIfCancelled();
+                return getPasscodeHash(key, salt, iterations);
+            }
+        }
+
+        // NOTE: derivation is done outside the lock, so derivations for different vaults can run in parallel
+        derivation.run();
+
+        try {
+            final byte[] passcodeHash = await(derivation);
+            // store before leaving pending, so there is no window where the hash is neither cached nor pending
+            store(tag, passcodeHash);
+            return passcodeHash;
+        } finally {
+            synchronized (this) {
+                // a waiter can already have replaced a cancelled derivation
+                pending.remove(lookupTag, derivation);
+            }
+        }
+    }
+
+    /**
+     * Remember the iterations of a v4 vault header which has been opened, used by the next warm-up
+     * NOTE: persisted next to the passcode salt, so the first open after a cold start can be warmed up as well
+     */
+    public synchronized void recordHeaderIterations(@NonNull final byte[] salt, final int iterations) throws Exception {
+        final byte[] sharedSalt = peekPasscodeSalt();
+
+        if (sharedSalt == null || !Arrays.equals(sharedSalt, salt) || passcodeIterations == iterations) {
+            return;
+        }
+
+        keychain.setItem(PASSCODE_SALT_KEY, String.valueOf(iterations), Hex.encode(sharedSalt));
+        passcodeIterations = iterations;
+    }
+
+    /**
+     * Derive and cache the passcode hash for the shared passcode salt with the iterations of the last opened v4
+     * header, meant to be run in background so the derivation can overlap other work. A getPasscodeHash() with the
+     * same inputs will join or hit this derivation.
+     * NOTE: returns false without deriving when no vault uses the shared passcode salt or no v4 header has been
+     * opened on this device yet, a guessed work factor would be a full derivation which is never used
+     */
+    public boolean warmPasscodeHash(@NonNull final String key) throws Exception {
+        final byte[] salt;
+        final int iterations;
+
+        synchronized (this) {
+            salt = peekPasscodeSalt();
+            iterations = passcodeIterations;
+        }
+
+        if (salt == null || iterations <= 0) {
+            return false;
+        }
+
+        getPasscodeHash(key, salt, iterations);
+
+        return true;
+    }
+
+    /**
+     * Invalidate all cached passcode hashes
+     */
+    public synchronized void lock() {
+        entries.clear();
+        sessionGeneration++;
+        evictionHandler.removeCallbacks(evictionTask);
+
+        // new nonce for the next session, old lookup tags are meaningless from now on
+        if (sessionNonce != null) {
+            Arrays.fill(sessionNonce, (byte) 0);
+            sessionNonce = null;
+        }
+    }
+
+    /**
+     * Lock and forget the passcode salt, used when the keychain is cleared
+     */
+    public synchronized void reset() {
+        lock();
+        passcodeSalt = null;
+        passcodeIterations = 0;
+    }
+
+    @NonNull
+    private static byte[] await(@NonNull final FutureTask<byte[]> derivation) throws Exception {
+        try {
+            return derivation.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    @Nullable
+    private byte[] lookup(@NonNull final String lookupTag) {
+        final Entry entry;
+
+        synchronized (this) {
+            evictExpired();
+
+            entry = entries.get(lookupTag);
+
+            if (entry == null) {
+                return null;
+            }
+
+            entry.lastAccessAt = SystemClock.elapsedRealtime();
+        }
+
+        // NOTE: unwrap is a Keystore operation, done outside the lock so lookups and stores don't wait for each other
+        try {
+            final javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(WRAP_TRANSFORMATION);
+            cipher.init(javax.crypto.Cipher.DECRYPT_MODE, getSessionKey(), new GCMParameterSpec(WRAP_TAG_SIZE, entry.iv));
+            return cipher.doFinal(entry.wrapped);
+        } catch (Exception e) {
+            Log.w(LOG_TAG, "Unable to unwrap cached passcode hash", e);
+            synchronized (this) {
+                // entry can already be replaced in the meantime
+                entries.remove(lookupTag, entry);
+            }
+            return null;
+        }
+    }
+
+    private void store(@NonNull final LookupTag lookupTag, @NonNull final byte[] passcodeHash) {
+        // derived for a session which has been locked since, would be unreachable until evicted
+        synchronized (this) {
+            if (lookupTag.generation != sessionGeneration) {
+                return;
+            }
+        }
+
+        final Entry entry;
+
+        // NOTE: wrap is a Keystore operation, done outside the lock so lookups and stores don't wait for each other
+        try {
+            final javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(WRAP_TRANSFORMATION);
+            cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, getSessionKey());
+            final byte[] wrapped = cipher.doFinal(passcodeHash);
+
+            entry = new Entry(cipher.getIV(), wrapped, SystemClock.elapsedRealtime());
+        } catch (Exception e) {
+            // not being able to cache is not fatal, next call will derive again
+            Log.w(LOG_TAG, "Unable to wrap passcode hash", e);
+            return;
+        }
+
+        synchronized (this) {
+            // session can be locked while wrapping
+            if (lookupTag.generation != sessionGeneration) {
+                return;
+            }
+
+            evictExpired();
+
+            entries.put(lookupTag.value, entry);
+
+            // drop the least recently used entries
+            final Iterator<String> iterator = entries.keySet().iterator();
+            while (entries.size() > MAX_ENTRIES && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+
+            scheduleEviction();
+        }
+    }
+
+    private void evictExpired() {
+        final long now = SystemClock.elapsedRealtime();
+        final Iterator<Entry> iterator = entries.values().iterator();
+
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (now - entry.lastAccessAt > IDLE_TIMEOUT_MS || now - entry.createdAt > MAX_LIFETIME_MS) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Schedule the next eviction at the earliest expiry of the entries
+     * NOTE: entries used in the meantime expire later, the eviction task reschedules itself for them
+     */
+    private void scheduleEviction() {
+        evictionHandler.removeCallbacks(evictionTask);
+
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        long expiresAt = Long.MAX_VALUE;
+        for (Entry entry : entries.values()) {
+            expiresAt = Math.min(expiresAt, Math.min(entry.lastAccessAt + IDLE_TIMEOUT_MS, entry.createdAt + MAX_LIFETIME_MS));
+        }
+
+        // evicted once expired, entries are only removed after the timeout has passed
+        evictionHandler.postDelayed(evictionTask, Math.max(0, expiresAt - SystemClock.elapsedRealtime()) + 1);
+    }
+
+    /**
+     * Number of cached passcode hashes
+     */
+    public synchronized int getCachedCount() {
+        evictExpired();
+        return entries.size();
+    }
+
+    /**
+     * Lookup tag is a keyed hash of the derivation inputs with a per-session random nonce
+     * NOTE: the nonce is copied, lock() wipes the session nonce while the tag may still be computed
+     */
+    @NonNull
+    private LookupTag getLookupTag(@NonNull final String key, @NonNull final byte[] salt, final int iterations) throws Exception {
+        final byte[] nonce;
+        final long generation;
+        synchronized (this) {
+            if (sessionNonce == null) {
+                sessionNonce = Crypto.RandomBytes(32);
+            }
+            nonce = sessionNonce.clone();
+            generation = sessionGeneration;
+        }
+
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] input = ByteBuffer.allocate(salt.length + 4 + keyBytes.length)
+                .put(salt)
+                .putInt(iterations)
+                .put(keyBytes)
+                .array();
+
+        try {
+            return new LookupTag(Hex.encode(Crypto.HMAC256(input, nonce)), generation);
+        } finally {
+            Arrays.fill(nonce, (byte) 0);
+            Arrays.fill(keyBytes, (byte) 0);
+            Arrays.fill(input, (byte) 0);
+        }
+    }
+
+    @NonNull
+    private Key getSessionKey() throws Exception {
+        if (sessionKey != null) {
+            return sessionKey;
+        }
+
+        synchronized (sessionKeyLock) {
+            if (sessionKey != null) {
+                return sessionKey;
+            }
+
+            sessionKey = loadSessionKey();
+        }
+
+        return sessionKey;
+    }
+
+    @NonNull
+    private static Key loadSessionKey() throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance(KEYSTORE_TYPE);
+        keyStore.load(null);
+
+        if (!keyStore.containsAlias(SESSION_KEY_ALIAS)) {
+            final KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE_TYPE);
+            generator.init(new KeyGenParameterSpec.Builder(
+                    SESSION_KEY_ALIAS,
+                    KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                    .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                    .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                    .setRandomizedEncryptionRequired(true)
+                    .setKeySize(256)
+                    .build()
+            );
+            generator.generateKey();
+        }
+
+        return keyStore.getKey(SESSION_KEY_ALIAS, null);
+    }
+}
@@ -1,11 +1,16 @@
 package libs.security.vault.storage;
 
+import android.util.Log;
+
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.StringDef;
 
 import com.facebook.react.bridge.ReactApplicationContext;
 
-import libs.security.vault.storage.PrefsStorage.ResultSet;
+import libs.security.WorkerPool;
+import libs.security.vault.VaultMetrics;
+import libs.security.vault.storage.KeychainStorage.ResultSet;
 import libs.security.vault.storage.cipherStorage.CipherStorage;
 import libs.security.vault.storage.cipherStorage.CipherStorage.DecryptionResult;
 import libs.security.vault.storage.cipherStorage.CipherStorage.EncryptionResult;
@@ -13,13 +18,35 @@ import libs.security.vault.storage.cipherStorage.CipherStorageKeystoreAesCbc;
 import libs.security.vault.exceptions.CryptoFailedException;
 import libs.security.vault.exceptions.KeyStoreAccessException;
 import libs.security.vault.storage.cipherStorage.CipherStorageKeystoreAesGcm;
+import libs.security.vault.storage.cipherStorage.CipherStorageKeystoreEnvelope;
+import libs.security.vault.storage.cipherStorage.CipherStorageKeystoreEnvelopeFramed;
+
+import org.json.JSONException;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+
+/**
+ * NOTE: cipher storages cache a Cipher instance per thread and the key handles, and storage backends are thread-safe,
+ * so reads run concurrently while writes are serialized on a process wide lock, as all keychains share the same
+ * storage and master key. A Keychain can be shared between the security executor lanes.
+ * <p>
+ * Storage and cipher storage durations are recorded in {@link VaultMetrics}, labeled with the storage backend and
+ * cipher storage name
+ */
 public class Keychain {
+    private static final String LOG_TAG = Keychain.class.getSimpleName();
+
+    // writes of all keychains in the process, they share the storage backend
+    private static final Object WRITE_LOCK = new Object();
+
     /**
      * Options mapping keys.
      */
@@ -31,7 +58,7 @@ public class Keychain {
     /**
      * Supported ciphers.
      */
-    @StringDef({KnownCiphers.AESCBC, KnownCiphers.AESGCM})
+    @StringDef({KnownCiphers.AESCBC, KnownCiphers.AESGCM, KnownCiphers.ENVELOPE, KnownCiphers.ENVELOPE_FRAMED})
     public @interface KnownCiphers {
         /**
          * AES encryption.
@@ -41,6 +68,10 @@ public class Keychain {
         String AESCBC = "KeystoreAESCBC";
         // GCM
         String AESGCM = "KeystoreAESGCM";
+        // GCM data key per item, wrapped by a single master key
+        String ENVELOPE = "KeystoreEnvelope";
+        // envelope with both fields encrypted in a single frame
+        String ENVELOPE_FRAMED = "KeystoreEnvelopeFramed";
     }
 
     /**
@@ -48,9 +79,9 @@ public class Keychain {
      */
     private final Map<String, CipherStorage> cipherStorageMap = new HashMap<>();
     /**
-     * Shared preferences storage.
+     * Storage backend, shared by all keychains in the process.
      */
-    private final PrefsStorage prefsStorage;
+    private final KeychainStorage storage;
     //endregion
 
     //region Initialization
@@ -59,30 +90,59 @@ public class Keychain {
      * Default constructor.
      */
     public Keychain(@NonNull final ReactApplicationContext reactContext) {
-        // create prefs storage
-        prefsStorage = new PrefsStorage(reactContext);
+        // get storage backend, legacy prefs entries are migrated on first access
+        this(StorageMigrator.getStorage(reactContext), CipherStorageKeystoreEnvelope.MASTER_KEY_ALIAS);
+    }
+
+    /**
+     * Keychain on its own storage and master key, clearing it never touches the keychain of the app
+     */
+    Keychain(@NonNull final KeychainStorage storage, @NonNull final String masterKeyAlias) {
+        this.storage = storage;
 
         // add supported cipher storage
         addCipherStorageToMap(new CipherStorageKeystoreAesCbc());
         addCipherStorageToMap(new CipherStorageKeystoreAesGcm());
+        addCipherStorageToMap(new CipherStorageKeystoreEnvelope(masterKeyAlias));
+        addCipherStorageToMap(new CipherStorageKeystoreEnvelopeFramed(masterKeyAlias));
     }
 
     public void setItem(@NonNull final String alias,
                         @NonNull final String username,
                         @NonNull final String password) throws CryptoFailedException {
+        setItem(alias, username, password, VaultMetadata.NO_CIPHER_VERSION);
+    }
 
-        // get latest cipher storage
-        final CipherStorage storage = getCipherStorageForEncryption();
-
-        // encrypt with cipher storage
-        final EncryptionResult result = storage.encrypt(alias, username, password);
-
-        // set in prefs storage
-        prefsStorage.storeEncryptedEntry(alias, result);
+    /**
+     * Store the item together with its metadata, cipherVersion is the vault cipher version of the item
+     */
+    public void setItem(@NonNull final String alias,
+                        @NonNull final String username,
+                        @NonNull final String password,
+                        final int cipherVersion) throws CryptoFailedException {
+        synchronized (WRITE_LOCK) {
+            // keep the creation time when overwriting an item
+            final long now = System.currentTimeMillis();
+            final VaultMetadata current = storage.getMetadata(alias);
+
+            storeItem(
+                    alias,
+                    username,
+                    password,
+                    cipherVersion,
+                    current != null ? current.createdAt : now,
+                    now,
+                    current != null ? current.cipherStorageName : getStoredCipherStorageName(alias)
+            );
+        }
     }
 
     public Map<String, String> getItem(@NonNull final String alias) throws CryptoFailedException {
-        final ResultSet resultSet = prefsStorage.getEncryptedEntry(alias);
+        final VaultMetrics metrics = VaultMetrics.sharedInstance();
+
+        long stage = metrics.begin();
+        final ResultSet resultSet = storage.getEncryptedEntry(alias);
+        metrics.end(VaultMetrics.label("storage_read", storage.getStorageName()), stage);
 
         // no entry found for given name
         if (resultSet == null) {
@@ -93,7 +153,14 @@ public class Keychain {
 
         CipherStorage cipher = getCipherStorageByName(storageName);
 
+        stage = metrics.begin();
         final DecryptionResult decryptionResult = decryptToResult(alias, cipher, resultSet);
+        metrics.end(VaultMetrics.label("keystore_decrypt", storageName), stage);
+
+        // move items stored with an older cipher storage to the latest one, so next reads need less Keystore work
+        if (!storageName.equals(getCipherStorageForEncryption().getCipherStorageName())) {
+            migrateItem(alias, decryptionResult, storageName);
+        }
 
         Map<String, String> item = new HashMap<>();
 
@@ -103,32 +170,276 @@ public class Keychain {
         return item;
     }
 
+    /**
+     * Get all provided items at once, items which not exist are mapped to null
+     * Entries are read from the storage in a single read, the Keystore work is spread over the worker pool
+     * NOTE: never call from a task running in the worker pool
+     */
+    @NonNull
+    public Map<String, Map<String, String>> getItems(@NonNull final Collection<String> aliases) throws CryptoFailedException {
+        final VaultMetrics metrics = VaultMetrics.sharedInstance();
+
+        long stage = metrics.begin();
+        final Map<String, ResultSet> resultSets = storage.getEncryptedEntries(aliases);
+        metrics.end(VaultMetrics.label("storage_read_batch", storage.getStorageName()), stage);
+
+        final List<String> found = new ArrayList<>(resultSets.keySet());
+        final List<Callable<DecryptionResult>> tasks = new ArrayList<>(found.size());
+
+        for (final String alias : found) {
+            final ResultSet resultSet = resultSets.get(alias);
+            final CipherStorage cipher = getCipherStorageByName(resultSet.cipherStorageName);
+
+            tasks.add(() -> {
+                final long decryptStage = metrics.begin();
+                final DecryptionResult decryptionResult = decryptToResult(alias, cipher, resultSet);
+                metrics.end(VaultMetrics.label("keystore_decrypt", resultSet.cipherStorageName), decryptStage);
+                return decryptionResult;
+            });
+        }
+
+        final List<DecryptionResult> decryptionResults;
+        try {
+            decryptionResults = tasks.isEmpty()
+                    ? Collections.emptyList()
+                    : WorkerPool.sharedInstance().invokeAll(tasks);
+        } catch (CryptoFailedException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptoFailedException("Unable to decrypt items", e);
+        }
+
+        final Map<String, Map<String, String>> items = new HashMap<>();
+        for (String alias : aliases) {
+            items.put(alias, null);
+        }
+
+        final String latestStorageName = getCipherStorageForEncryption().getCipherStorageName();
+
+        for (int i = 0; i < found.size(); i++) {
+            final String alias = found.get(i);
+            final String storageName = resultSets.get(alias).cipherStorageName;
+            final DecryptionResult decryptionResult = decryptionResults.get(i);
+
+            // same as getItem, move items stored with an older cipher storage to the latest one
+            if (!storageName.equals(latestStorageName)) {
+                migrateItem(alias, decryptionResult, storageName);
+            }
+
+            final Map<String, String> item = new HashMap<>();
+            item.put(Maps.USERNAME, decryptionResult.username);
+            item.put(Maps.PASSWORD, decryptionResult.password);
+            items.put(alias, item);
+        }
+
+        return items;
+    }
+
     public void deleteItem(@NonNull final String alias) throws KeyStoreAccessException {
-        // First we clean up the cipher storage (using the cipher storage that was used to store the entry)
-        final ResultSet resultSet = prefsStorage.getEncryptedEntry(alias);
+        synchronized (WRITE_LOCK) {
+            // First we clean up the cipher storage (using the cipher storage that was used to store the entry)
+            final ResultSet resultSet = storage.getEncryptedEntry(alias);
 
-        if (resultSet != null) {
-            final CipherStorage cipherStorage = getCipherStorageByName(resultSet.cipherStorageName);
-            cipherStorage.removeKey(alias);
+            if (resultSet != null) {
+                final CipherStorage cipherStorage = getCipherStorageByName(resultSet.cipherStorageName);
+                cipherStorage.removeKey(alias);
+            }
+
+            // And then we remove the entry in the storage
+            storage.removeEntry(alias);
         }
+    }
 
-        // And then we remove the entry in the shared preferences
-        prefsStorage.removeEntry(alias);
+    /**
+     * Delete all provided items at once
+     * Entries are read from the storage in a single read, the Keystore keys of items stored with older cipher storages
+     * are removed on the worker pool, and the entries are removed from the storage in a single write
+     * NOTE: never call from a task running in the worker pool
+     */
+    public void deleteItems(@NonNull final Collection<String> aliases) throws KeyStoreAccessException {
+        synchronized (WRITE_LOCK) {
+            final Map<String, ResultSet> resultSets = storage.getEncryptedEntries(aliases);
+
+            // envelope data keys are removed with the entries, only older cipher storages have a key per item
+            final List<Callable<Void>> tasks = new ArrayList<>();
+            for (Map.Entry<String, ResultSet> entry : resultSets.entrySet()) {
+                final String alias = entry.getKey();
+                final CipherStorage cipherStorage = getCipherStorageByName(entry.getValue().cipherStorageName);
+
+                if (!(cipherStorage instanceof CipherStorageKeystoreEnvelope)) {
+                    tasks.add(() -> {
+                        cipherStorage.removeKey(alias);
+                        return null;
+                    });
+                }
+            }
+
+            if (!tasks.isEmpty()) {
+                try {
+                    WorkerPool.sharedInstance().invokeAll(tasks);
+                } catch (KeyStoreAccessException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new KeyStoreAccessException("Unable to remove keys", e);
+                }
+            }
+
+            storage.removeEntries(aliases);
+        }
     }
 
     public boolean itemExist(@NonNull final String alias) {
-        final ResultSet resultSet = prefsStorage.getEncryptedEntry(alias);
-        return resultSet != null;
+        return storage.hasEntry(alias);
+    }
+
+    /**
+     * Get the item metadata without decrypting the item, null if the item has been stored without metadata
+     * NOTE: items stored without metadata and migrated to a newer cipher storage since are not indexed yet
+     * ({@link VaultMetadata#isIndexed()})
+     */
+    @Nullable
+    public VaultMetadata getMetadata(@NonNull final String alias) {
+        return storage.getMetadata(alias);
+    }
+
+    /**
+     * Store metadata for an existing item which has been stored without metadata, or is not indexed yet
+     * NOTE: created and updated time are unknown for these items
+     */
+    public void indexItem(@NonNull final String alias, final int cipherVersion) throws JSONException {
+        synchronized (WRITE_LOCK) {
+            final ResultSet resultSet = storage.getEncryptedEntry(alias);
+
+            // item has been removed in the meantime
+            if (resultSet == null) {
+                return;
+            }
+
+            storage.storeMetadata(alias, new VaultMetadata(
+                    alias,
+                    cipherVersion,
+                    VaultMetadata.UNKNOWN_TIME,
+                    VaultMetadata.UNKNOWN_TIME,
+                    resultSet.cipherStorageName
+            ));
+        }
+    }
+
+    /**
+     * Get all item aliases in the keychain
+     */
+    @NonNull
+    public Set<String> getAllItems() {
+        return storage.getAllEntries();
     }
 
     /*
       Note: this will clear the entire keychain storage, including the generated keys
      */
     public void clear() throws KeyStoreAccessException {
-        final Set<String> entries = prefsStorage.getAllEntries();
+        synchronized (WRITE_LOCK) {
+            // entries are removed from the storage in a single write, data keys are removed with them
+            deleteItems(storage.getAllEntries());
 
-        for (String entry : entries) {
-            deleteItem(entry);
+            // a single Keystore operation for all envelope items
+            ((CipherStorageKeystoreEnvelope) getCipherStorageByName(KnownCiphers.ENVELOPE)).removeMasterKey();
+        }
+    }
+
+    /**
+     * Encrypt and store the item with the latest cipher storage, removes the key of the previous cipher storage
+     */
+    private void storeItem(@NonNull final String alias,
+                           @NonNull final String username,
+                           @NonNull final String password,
+                           final int cipherVersion,
+                           final long createdAt,
+                           final long updatedAt,
+                           @Nullable final String previousStorageName) throws CryptoFailedException {
+        final VaultMetrics metrics = VaultMetrics.sharedInstance();
+
+        // get latest cipher storage
+        final CipherStorage cipherStorage = getCipherStorageForEncryption();
+
+        // encrypt with cipher storage
+        long stage = metrics.begin();
+        final EncryptionResult result = cipherStorage.encrypt(alias, username, password);
+        metrics.end(VaultMetrics.label("keystore_encrypt", cipherStorage.getCipherStorageName()), stage);
+
+        final VaultMetadata metadata = new VaultMetadata(
+                alias,
+                cipherVersion,
+                createdAt,
+                updatedAt,
+                result.cipherName
+        );
+
+        // set in storage
+        stage = metrics.begin();
+        try {
+            storage.storeEncryptedEntry(alias, result, metadata);
+            metrics.end(VaultMetrics.label("storage_write", storage.getStorageName()), stage);
+        } catch (JSONException e) {
+            throw new CryptoFailedException("Unable to store item metadata", e);
+        }
+
+        // item has been stored with an older cipher storage before, its key is not used anymore
+        if (previousStorageName != null && !previousStorageName.equals(result.cipherName)) {
+            try {
+                getCipherStorageByName(previousStorageName).removeKey(alias);
+            } catch (KeyStoreAccessException ignored) {
+                // unused key only, the item itself has been stored
+            }
+        }
+    }
+
+    /**
+     * Store a decrypted item again with the latest cipher storage, keeps the item metadata
+     * NOTE: items stored before the index (e.g. device id) are migrated as well, with an unknown cipher version
+     */
+    private void migrateItem(@NonNull final String alias,
+                             @NonNull final DecryptionResult decryptionResult,
+                             @NonNull final String storageName) {
+        synchronized (WRITE_LOCK) {
+            VaultMetadata metadata = storage.getMetadata(alias);
+
+            // stored before the index, every write stores metadata so the item has not been stored again since
+            if (metadata == null) {
+                final ResultSet resultSet = storage.getEncryptedEntry(alias);
+
+                // removed in the meantime
+                if (resultSet == null) {
+                    return;
+                }
+
+                metadata = new VaultMetadata(
+                        alias,
+                        VaultMetadata.UNKNOWN_CIPHER_VERSION,
+                        VaultMetadata.UNKNOWN_TIME,
+                        VaultMetadata.UNKNOWN_TIME,
+                        resultSet.cipherStorageName
+                );
+            }
+
+            // item has been stored again (or migrated) since it has been read, never overwrite it with the read value
+            if (!storageName.equals(metadata.cipherStorageName)) {
+                return;
+            }
+
+            try {
+                storeItem(
+                        alias,
+                        decryptionResult.username,
+                        decryptionResult.password,
+                        metadata.cipherVersion,
+                        metadata.createdAt,
+                        metadata.updatedAt,
+                        storageName
+                );
+            } catch (CryptoFailedException e) {
+                // item is still readable with the old cipher storage, try again on next read
+                Log.w(LOG_TAG, "Unable to migrate item " + alias, e);
+            }
         }
     }
 
@@ -147,12 +458,19 @@ public class Keychain {
         return storage.decrypt(alias, resultSet.username, resultSet.password);
     }
 
+    @Nullable
+    private String getStoredCipherStorageName(@NonNull final String alias) {
+        final ResultSet resultSet = storage.getEncryptedEntry(alias);
+        return resultSet != null ? resultSet.cipherStorageName : null;
+    }
+
     /**
      * use the most strong cipher storage encryption
+     * NOTE: items stored with older cipher storages are moved to this one when they are stored again
      */
     @NonNull
     CipherStorage getCipherStorageForEncryption() {
-        return getCipherStorageByName(KnownCiphers.AESGCM);
+        return getCipherStorageByName(KnownCiphers.ENVELOPE_FRAMED);
     }
 
     /**
@@ -0,0 +1,79 @@
+package libs.security.vault.storage;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import libs.security.vault.storage.Keychain.KnownCiphers;
+import libs.security.vault.storage.cipherStorage.CipherStorage;
+import libs.security.vault.storage.cipherStorage.CipherStorage.EncryptionResult;
+
+/**
+ * Storage backend of the keychain, keeps the encrypted entries and their metadata by alias
+ * NOTE: entries are already encrypted by the cipher storage, backends never see any clear text
+ */
+public interface KeychainStorage {
+    class ResultSet extends CipherStorage.CipherResult<byte[]> {
+        @KnownCiphers
+        public final String cipherStorageName;
+
+        public ResultSet(@KnownCiphers final String cipherStorageName, final byte[] usernameBytes, final byte[] passwordBytes) {
+            super(usernameBytes, passwordBytes);
+
+            this.cipherStorageName = cipherStorageName;
+        }
+    }
+
+    /**
+     * Name of the backend, used as label of the storage stages in the vault metrics
+     */
+    @NonNull
+    String getStorageName();
+
+    @Nullable
+    ResultSet getEncryptedEntry(@NonNull String service);
+
+    /**
+     * Read all provided entries at once, entries which not exist are left out
+     */
+    @NonNull
+    Map<String, ResultSet> getEncryptedEntries(@NonNull Collection<String> services);
+
+    /**
+     * Store the encrypted entry, metadata is stored in the same write so entry and metadata never get out of sync
+     */
+    void storeEncryptedEntry(@NonNull String service,
+                             @NonNull EncryptionResult encryptionResult,
+                             @NonNull VaultMetadata metadata) throws JSONException;
+
+    /**
+     * Store metadata for an entry which has been stored without metadata
+     */
+    void storeMetadata(@NonNull String service, @NonNull VaultMetadata metadata) throws JSONException;
+
+    /**
+     * Get the metadata of the entry, null if entry has been stored without metadata or not exist
+     */
+    @Nullable
+    VaultMetadata getMetadata(@NonNull String service);
+
+    /**
+     * Check the entry exist without reading it
+     */
+    boolean hasEntry(@NonNull String service);
+
+    void removeEntry(@NonNull String service);
+
+    /**
+     * Remove all provided entries in a single write
+     */
+    void removeEntries(@NonNull Collection<String> services);
+
+    @NonNull
+    Set<String> getAllEntries();
+}
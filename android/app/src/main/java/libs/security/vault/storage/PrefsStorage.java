@@ -8,41 +8,52 @@ package libs.security.vault.storage;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Base64;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.facebook.react.bridge.ReactApplicationContext;
 
+import org.json.JSONException;
+
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
-import libs.security.vault.storage.Keychain.KnownCiphers;
-import libs.security.vault.storage.cipherStorage.CipherStorage;
 import libs.security.vault.storage.cipherStorage.CipherStorage.EncryptionResult;
 
-public class PrefsStorage {
+/**
+ * Legacy keychain storage, every entry is stored as separate keys in the shared preferences file
+ * NOTE: the whole file is parsed on first access and rewritten on every write, entries are migrated to the
+ * {@link SqliteStorage} by the {@link StorageMigrator}
+ */
+public class PrefsStorage implements KeychainStorage {
     public static final String KEYCHAIN_DATA = "RN_KEYCHAIN";
+    public static final String STORAGE_NAME = "prefs";
+    private static final String LOG_TAG = PrefsStorage.class.getSimpleName();
 
-    static public class ResultSet extends CipherStorage.CipherResult<byte[]> {
-        @KnownCiphers
-        public final String cipherStorageName;
+    @NonNull
+    private final SharedPreferences prefs;
 
-        public ResultSet(@KnownCiphers final String cipherStorageName, final byte[] usernameBytes, final byte[] passwordBytes) {
-            super(usernameBytes, passwordBytes);
+    public PrefsStorage(@NonNull final ReactApplicationContext reactContext) {
+        this(reactContext, KEYCHAIN_DATA);
+    }
 
-            this.cipherStorageName = cipherStorageName;
-        }
+    PrefsStorage(@NonNull final Context context, @NonNull final String prefsName) {
+        this.prefs = context.getSharedPreferences(prefsName, Context.MODE_PRIVATE);
     }
 
     @NonNull
-    private final SharedPreferences prefs;
-
-    public PrefsStorage(@NonNull final ReactApplicationContext reactContext) {
-        this.prefs = reactContext.getSharedPreferences(KEYCHAIN_DATA, Context.MODE_PRIVATE);
+    @Override
+    public String getStorageName() {
+        return STORAGE_NAME;
     }
 
     @Nullable
+    @Override
     public ResultSet getEncryptedEntry(@NonNull final String service) {
         byte[] bytesForUsername = getBytesForUsername(service);
         byte[] bytesForPassword = getBytesForPassword(service);
@@ -61,31 +72,116 @@ public class PrefsStorage {
 
     }
 
+    /**
+     * NOTE: all entries are in memory once the file has been parsed, so entries are read one by one
+     */
+    @NonNull
+    @Override
+    public Map<String, ResultSet> getEncryptedEntries(@NonNull final Collection<String> services) {
+        final Map<String, ResultSet> result = new HashMap<>();
+
+        for (String service : services) {
+            final ResultSet resultSet = getEncryptedEntry(service);
+            if (resultSet != null) {
+                result.put(service, resultSet);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
     public void removeEntry(@NonNull final String service) {
         final String keyForUsername = getKeyForUsername(service);
         final String keyForPassword = getKeyForPassword(service);
         final String keyForCipherStorage = getKeyForCipherStorage(service);
+        final String keyForMetadata = getKeyForMetadata(service);
 
         prefs.edit()
                 .remove(keyForUsername)
                 .remove(keyForPassword)
                 .remove(keyForCipherStorage)
+                .remove(keyForMetadata)
                 .apply();
     }
 
-    public void storeEncryptedEntry(@NonNull final String service, @NonNull final EncryptionResult encryptionResult) {
+    /**
+     * Remove all provided entries in a single edit
+     * NOTE: committed synchronously, throws if the edit could not be written so entries are never reported as removed
+     * while they are still on disk
+     */
+    @Override
+    public void removeEntries(@NonNull final Collection<String> services) {
+        final SharedPreferences.Editor editor = prefs.edit();
+
+        for (String service : services) {
+            editor.remove(getKeyForUsername(service))
+                    .remove(getKeyForPassword(service))
+                    .remove(getKeyForCipherStorage(service))
+                    .remove(getKeyForMetadata(service));
+        }
+
+        if (!editor.commit()) {
+            throw new IllegalStateException("UNABLE_TO_COMMIT_PREFS");
+        }
+    }
+
+    @Override
+    public void storeEncryptedEntry(@NonNull final String service,
+                                    @NonNull final EncryptionResult encryptionResult,
+                                    @NonNull final VaultMetadata metadata) throws JSONException {
         final String keyForUsername = getKeyForUsername(service);
         final String keyForPassword = getKeyForPassword(service);
         final String keyForCipherStorage = getKeyForCipherStorage(service);
+        final String keyForMetadata = getKeyForMetadata(service);
 
         prefs.edit()
                 .putString(keyForUsername, Base64.encodeToString(encryptionResult.username, Base64.DEFAULT))
                 .putString(keyForPassword, Base64.encodeToString(encryptionResult.password, Base64.DEFAULT))
                 .putString(keyForCipherStorage, encryptionResult.cipherName)
+                .putString(keyForMetadata, metadata.toJSONString())
+                .apply();
+    }
+
+    @Override
+    public void storeMetadata(@NonNull final String service, @NonNull final VaultMetadata metadata) throws JSONException {
+        prefs.edit()
+                .putString(getKeyForMetadata(service), metadata.toJSONString())
                 .apply();
     }
 
+    @Nullable
+    @Override
+    public VaultMetadata getMetadata(@NonNull final String service) {
+        final String value = prefs.getString(getKeyForMetadata(service), null);
 
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            return VaultMetadata.fromJSONString(service, value);
+        } catch (JSONException e) {
+            // corrupted metadata, will be indexed again
+            Log.w(LOG_TAG, "Unable to parse metadata for " + service, e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasEntry(@NonNull final String service) {
+        // metadata is only stored together with the entry
+        if (prefs.contains(getKeyForMetadata(service))) {
+            return true;
+        }
+
+        return prefs.contains(getKeyForUsername(service))
+                && prefs.contains(getKeyForPassword(service))
+                && prefs.contains(getKeyForCipherStorage(service));
+    }
+
+    @NonNull
+    @Override
     public Set<String> getAllEntries() {
         Set<String> result = new HashSet<>();
         Set<String> keys = prefs.getAll().keySet();
@@ -134,6 +230,11 @@ public class PrefsStorage {
         return service + ":" + "c";
     }
 
+    @NonNull
+    public static String getKeyForMetadata(@NonNull final String service) {
+        return service + ":" + "m";
+    }
+
     public static boolean isKeyForUsername(@NonNull final String key) {
         return key.endsWith(":u");
     }
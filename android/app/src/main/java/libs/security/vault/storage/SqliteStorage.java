@@ -0,0 +1,339 @@
+package libs.security.vault.storage;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import libs.security.vault.storage.cipherStorage.CipherStorage.EncryptionResult;
+
+/**
+ * Keychain storage backed by a SQLite database, one row per entry keyed by alias
+ * <p>
+ * Lookups go through the primary key index and only read the requested row, writes only touch the rows they change.
+ * Multi row writes run in a single transaction, so they are applied completely or not at all.
+ * NOTE: the database is opened in WAL mode, so reads don't wait for a running write
+ */
+public class SqliteStorage implements KeychainStorage {
+    public static final String DATABASE_NAME = "RN_KEYCHAIN.db";
+    public static final String STORAGE_NAME = "sqlite";
+
+    public static final String TABLE_ENTRIES = "entries";
+    public static final String COLUMN_ALIAS = "alias";
+    public static final String COLUMN_USERNAME = "username";
+    public static final String COLUMN_PASSWORD = "password";
+    public static final String COLUMN_CIPHER_STORAGE = "cipher_storage";
+    public static final String COLUMN_METADATA = "metadata";
+
+    public static final String TABLE_MIGRATED = "migrated_entries";
+
+    private static final int DATABASE_VERSION = 1;
+    private static final String LOG_TAG = SqliteStorage.class.getSimpleName();
+    private static final String WHERE_ALIAS = COLUMN_ALIAS + " = ?";
+    // below the lowest SQLite limit of bound arguments (999)
+    private static final int MAX_QUERY_ARGS = 500;
+
+    private static volatile SqliteStorage instance;
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper(@NonNull final Context context, @NonNull final String databaseName) {
+            super(context, databaseName, null, DATABASE_VERSION);
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onCreate(final SQLiteDatabase db) {
+            // alias is the primary key, WITHOUT ROWID stores the rows in the primary key index itself
+            db.execSQL("CREATE TABLE " + TABLE_ENTRIES + " ("
+                    + COLUMN_ALIAS + " TEXT PRIMARY KEY NOT NULL, "
+                    + COLUMN_USERNAME + " BLOB NOT NULL, "
+                    + COLUMN_PASSWORD + " BLOB NOT NULL, "
+                    + COLUMN_CIPHER_STORAGE + " TEXT NOT NULL, "
+                    + COLUMN_METADATA + " TEXT"
+                    + ") WITHOUT ROWID");
+
+            // aliases which have been imported from the legacy storage, never imported again
+            db.execSQL("CREATE TABLE " + TABLE_MIGRATED + " ("
+                    + COLUMN_ALIAS + " TEXT PRIMARY KEY NOT NULL"
+                    + ") WITHOUT ROWID");
+        }
+
+        @Override
+        public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion) {
+            // first version of the schema, nothing to upgrade yet
+        }
+    }
+
+    @NonNull
+    private final DatabaseHelper helper;
+
+    /**
+     * Storage shared by all keychains in the process, so there is a single connection pool to the database
+     */
+    public static SqliteStorage sharedInstance(@NonNull final Context context) {
+        if (instance == null) {
+            synchronized (SqliteStorage.class) {
+                if (instance == null) {
+                    instance = new SqliteStorage(context.getApplicationContext(), DATABASE_NAME);
+                }
+            }
+        }
+        return instance;
+    }
+
+    SqliteStorage(@NonNull final Context context, @NonNull final String databaseName) {
+        this.helper = new DatabaseHelper(context, databaseName);
+    }
+
+    @NonNull
+    @Override
+    public String getStorageName() {
+        return STORAGE_NAME;
+    }
+
+    @Nullable
+    @Override
+    public ResultSet getEncryptedEntry(@NonNull final String service) {
+        try (Cursor cursor = helper.getReadableDatabase().query(
+                TABLE_ENTRIES,
+                new String[]{COLUMN_USERNAME, COLUMN_PASSWORD, COLUMN_CIPHER_STORAGE},
+                WHERE_ALIAS,
+                new String[]{service},
+                null, null, null
+        )) {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+
+            return new ResultSet(cursor.getString(2), cursor.getBlob(0), cursor.getBlob(1));
+        }
+    }
+
+    @NonNull
+    @Override
+    public Map<String, ResultSet> getEncryptedEntries(@NonNull final Collection<String> services) {
+        final Map<String, ResultSet> result = new HashMap<>();
+        final List<String> aliases = new ArrayList<>(new LinkedHashSet<>(services));
+        final SQLiteDatabase db = helper.getReadableDatabase();
+
+        // one query per chunk, SQLite limits the number of bound arguments
+        for (int start = 0; start < aliases.size(); start += MAX_QUERY_ARGS) {
+            final List<String> chunk = aliases.subList(start, Math.min(start + MAX_QUERY_ARGS, aliases.size()));
+            final String placeholders = TextUtils.join(",", Collections.nCopies(chunk.size(), "?"));
+
+            try (Cursor cursor = db.query(
+                    TABLE_ENTRIES,
+                    new String[]{COLUMN_ALIAS, COLUMN_USERNAME, COLUMN_PASSWORD, COLUMN_CIPHER_STORAGE},
+                    COLUMN_ALIAS + " IN (" + placeholders + ")",
+                    chunk.toArray(new String[0]),
+                    null, null, null
+            )) {
+                while (cursor.moveToNext()) {
+                    result.put(
+                            cursor.getString(0),
+                            new ResultSet(cursor.getString(3), cursor.getBlob(1), cursor.getBlob(2))
+                    );
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public void storeEncryptedEntry(@NonNull final String service,
+                                    @NonNull final EncryptionResult encryptionResult,
+                                    @NonNull final VaultMetadata metadata) throws JSONException {
+        final ContentValues values = getEntryValues(
+                service,
+                encryptionResult.username,
+                encryptionResult.password,
+                encryptionResult.cipherName,
+                metadata.toJSONString()
+        );
+
+        helper.getWritableDatabase().insertWithOnConflict(TABLE_ENTRIES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    @Override
+    public void storeMetadata(@NonNull final String service, @NonNull final VaultMetadata metadata) throws JSONException {
+        final ContentValues values = new ContentValues();
+        values.put(COLUMN_METADATA, metadata.toJSONString());
+
+        helper.getWritableDatabase().update(TABLE_ENTRIES, values, WHERE_ALIAS, new String[]{service});
+    }
+
+    @Nullable
+    @Override
+    public VaultMetadata getMetadata(@NonNull final String service) {
+        final String value;
+
+        try (Cursor cursor = helper.getReadableDatabase().query(
+                TABLE_ENTRIES,
+                new String[]{COLUMN_METADATA},
+                WHERE_ALIAS,
+                new String[]{service},
+                null, null, null
+        )) {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                return null;
+            }
+            value = cursor.getString(0);
+        }
+
+        try {
+            return VaultMetadata.fromJSONString(service, value);
+        } catch (JSONException e) {
+            // corrupted metadata, will be indexed again
+            Log.w(LOG_TAG, "Unable to parse metadata for " + service, e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean hasEntry(@NonNull final String service) {
+        return DatabaseUtils.queryNumEntries(
+                helper.getReadableDatabase(),
+                TABLE_ENTRIES,
+                WHERE_ALIAS,
+                new String[]{service}
+        ) > 0;
+    }
+
+    @Override
+    public void removeEntry(@NonNull final String service) {
+        helper.getWritableDatabase().delete(TABLE_ENTRIES, WHERE_ALIAS, new String[]{service});
+    }
+
+    @Override
+    public void removeEntries(@NonNull final Collection<String> services) {
+        final SQLiteDatabase db = helper.getWritableDatabase();
+
+        db.beginTransaction();
+        try {
+            for (String service : services) {
+                db.delete(TABLE_ENTRIES, WHERE_ALIAS, new String[]{service});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @NonNull
+    @Override
+    public Set<String> getAllEntries() {
+        final Set<String> result = new HashSet<>();
+
+        try (Cursor cursor = helper.getReadableDatabase().query(
+                TABLE_ENTRIES,
+                new String[]{COLUMN_ALIAS},
+                null, null, null, null, null
+        )) {
+            while (cursor.moveToNext()) {
+                result.add(cursor.getString(0));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Copy the provided entries from another storage in a single transaction
+     * <p>
+     * Every imported alias is recorded in the same transaction and never imported again, so entries which are left
+     * in the source after an earlier import can't overwrite newer rows or bring back deleted ones. Existing rows are
+     * never replaced.
+     * NOTE: entries which are stored without metadata are copied without metadata, they will be indexed on access
+     *
+     * @return number of copied entries
+     */
+    public int importEntries(@NonNull final KeychainStorage source, @NonNull final Collection<String> services) throws JSONException {
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        int imported = 0;
+
+        db.beginTransaction();
+        try {
+            for (String service : services) {
+                // already imported on an earlier run, the row in this storage (or its removal) is newer
+                if (isMigrated(db, service)) {
+                    continue;
+                }
+
+                final ResultSet resultSet = source.getEncryptedEntry(service);
+
+                // incomplete entry, not readable from the source either
+                if (resultSet == null) {
+                    continue;
+                }
+
+                final VaultMetadata metadata = source.getMetadata(service);
+                final ContentValues values = getEntryValues(
+                        service,
+                        resultSet.username,
+                        resultSet.password,
+                        resultSet.cipherStorageName,
+                        metadata != null ? metadata.toJSONString() : null
+                );
+
+                if (db.insertWithOnConflict(TABLE_ENTRIES, null, values, SQLiteDatabase.CONFLICT_IGNORE) != -1) {
+                    imported++;
+                }
+
+                final ContentValues migrated = new ContentValues();
+                migrated.put(COLUMN_ALIAS, service);
+                db.insertWithOnConflict(TABLE_MIGRATED, null, migrated, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return imported;
+    }
+
+    private static boolean isMigrated(@NonNull final SQLiteDatabase db, @NonNull final String service) {
+        return DatabaseUtils.queryNumEntries(db, TABLE_MIGRATED, WHERE_ALIAS, new String[]{service}) > 0;
+    }
+
+    @NonNull
+    private static ContentValues getEntryValues(@NonNull final String service,
+                                                @NonNull final byte[] username,
+                                                @NonNull final byte[] password,
+                                                @NonNull final String cipherStorageName,
+                                                @Nullable final String metadata) {
+        final ContentValues values = new ContentValues();
+        values.put(COLUMN_ALIAS, service);
+        values.put(COLUMN_USERNAME, username);
+        values.put(COLUMN_PASSWORD, password);
+        values.put(COLUMN_CIPHER_STORAGE, cipherStorageName);
+        values.put(COLUMN_METADATA, metadata);
+        return values;
+    }
+
+    /**
+     * Close the database, used by tests to release the database file
+     */
+    void close() {
+        helper.close();
+    }
+}
@@ -0,0 +1,75 @@
+package libs.security.vault.storage;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import java.util.Set;
+
+/**
+ * One-time migration of the keychain entries from the shared preferences file to the SQLite storage
+ * <p>
+ * Entries are copied in a single transaction and only removed from the shared preferences once the transaction
+ * has been committed, an interrupted migration is retried on next launch. The SQLite storage records every imported
+ * alias, entries which are left in the shared preferences after an import (failed removal) are never imported again
+ * and only removed on retry.
+ * <p>
+ * If the import fails the shared preferences storage is used until the next launch, so no entry gets unreachable.
+ * Once the import has been committed the SQLite storage holds the entries, even if they could not be removed from
+ * the shared preferences.
+ */
+public class StorageMigrator {
+    private static final String LOG_TAG = StorageMigrator.class.getSimpleName();
+
+    private static KeychainStorage storage;
+
+    private StorageMigrator() {
+    }
+
+    /**
+     * Storage backend to be used by the keychain, migrates the legacy entries on first call in the process
+     */
+    @NonNull
+    public static synchronized KeychainStorage getStorage(@NonNull final ReactApplicationContext reactContext) {
+        if (storage == null) {
+            storage = migrate(new PrefsStorage(reactContext), SqliteStorage.sharedInstance(reactContext));
+        }
+        return storage;
+    }
+
+    /**
+     * Move all entries from the legacy storage to the SQLite storage
+     *
+     * @return storage which holds the entries after the migration
+     */
+    @NonNull
+    static KeychainStorage migrate(@NonNull final PrefsStorage from, @NonNull final SqliteStorage to) {
+        final Set<String> entries = from.getAllEntries();
+
+        // nothing to migrate, already migrated or fresh install
+        if (entries.isEmpty()) {
+            return to;
+        }
+
+        final int migrated;
+        try {
+            migrated = to.importEntries(from, entries);
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Unable to migrate keychain entries, keep using prefs storage", e);
+            return from;
+        }
+
+        Log.i(LOG_TAG, String.format("Migrated %s of %s keychain entries", migrated, entries.size()));
+
+        try {
+            from.removeEntries(entries);
+        } catch (Exception e) {
+            // imported entries are skipped on next launch, only their removal is retried
+            Log.w(LOG_TAG, "Unable to remove migrated keychain entries from prefs storage", e);
+        }
+
+        return to;
+    }
+}
@@ -0,0 +1,73 @@
+package libs.security.vault.storage;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Plain metadata of a keychain item, stored next to the encrypted entry so it can be read without any crypto work
+ */
+public class VaultMetadata {
+    /**
+     * Cipher version of items which are not vaults (e.g. device id, storage encryption key)
+     */
+    public static final int NO_CIPHER_VERSION = 0;
+    /**
+     * Cipher version of items which have been stored before the index and moved to a newer cipher storage on read,
+     * the owner of the item fills it in when indexing the item
+     */
+    public static final int UNKNOWN_CIPHER_VERSION = -1;
+    /**
+     * Created/Updated time of items which have been indexed after they were stored
+     */
+    public static final long UNKNOWN_TIME = 0;
+
+    public final String alias;
+    public final int cipherVersion;
+    public final long createdAt;
+    public final long updatedAt;
+    @Keychain.KnownCiphers
+    public final String cipherStorageName;
+
+    public VaultMetadata(@NonNull final String alias,
+                         final int cipherVersion,
+                         final long createdAt,
+                         final long updatedAt,
+                         @NonNull @Keychain.KnownCiphers final String cipherStorageName) {
+        this.alias = alias;
+        this.cipherVersion = cipherVersion;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+        this.cipherStorageName = cipherStorageName;
+    }
+
+    public boolean isVault() {
+        return cipherVersion > NO_CIPHER_VERSION;
+    }
+
+    public boolean isIndexed() {
+        return cipherVersion != UNKNOWN_CIPHER_VERSION;
+    }
+
+    public String toJSONString() throws JSONException {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("cipher_version", cipherVersion);
+        jsonObject.put("created_at", createdAt);
+        jsonObject.put("updated_at", updatedAt);
+        jsonObject.put("cipher_storage", cipherStorageName);
+        return jsonObject.toString();
+    }
+
+    @NonNull
+    public static VaultMetadata fromJSONString(@NonNull final String alias, @NonNull final String value) throws JSONException {
+        JSONObject jsonObject = new JSONObject(value);
+        return new VaultMetadata(
+                alias,
+                jsonObject.getInt("cipher_version"),
+                jsonObject.getLong("created_at"),
+                jsonObject.getLong("updated_at"),
+                jsonObject.getString("cipher_storage")
+        );
+    }
+}
@@ -14,9 +14,11 @@ import androidx.annotation.Nullable;
 
 import libs.security.vault.exceptions.KeyStoreAccessException;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -27,6 +29,7 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -49,10 +52,33 @@ abstract public class CipherStorageBase implements CipherStorage {
   protected final Object _syncStrongbox = new Object();
   /** Try to resolve support of the strongbox and cache result for future calls. */
   protected transient AtomicBoolean isStrongboxAvailable;
-  /** Get cached instance of cipher. Get instance operation is slow. */
-  protected transient Cipher cachedCipher;
+  /** Cached instance of cipher per thread. Get instance operation is slow and a cipher is not thread-safe. */
+  protected final transient ThreadLocal<Cipher> cachedCipher = new ThreadLocal<>();
   /** Cached instance of the Keystore. */
   protected transient KeyStore cachedKeyStore;
+  /**
+   * Key handles by alias, shared by all cipher storages as aliases are unique in the Keystore.
+   * Saves the Keystore lookups of every operation, invalidated when the key is removed.
+   */
+  private static final ConcurrentHashMap<String, Key> cachedKeys = new ConcurrentHashMap<>();
+  /**
+   * Guards for key generation and removal, striped by alias. Concurrent operations never generate a key for the same
+   * alias twice, while keys of different aliases are handled in parallel.
+   */
+  private static final Object[] _syncKeys = new Object[16];
+
+  static {
+    for (int i = 0; i < _syncKeys.length; i++) {
+      _syncKeys[i] = new Object();
+    }
+  }
+  //endregion
+
+  //region Key operations
+  /** Operation which uses a Keystore key handle. */
+  protected interface KeyOperation<T> {
+    T run(@NonNull final Key key) throws GeneralSecurityException, IOException;
+  }
 
 
   /** Remove key with provided name from security storage. */
@@ -60,12 +86,16 @@ abstract public class CipherStorageBase implements CipherStorage {
   public void removeKey(@NonNull final String alias) throws KeyStoreAccessException {
     final KeyStore ks = getKeyStoreAndLoad();
 
-    try {
-      if (ks.containsAlias(alias)) {
-        ks.deleteEntry(alias);
+    synchronized (getKeyLock(alias)) {
+      cachedKeys.remove(alias);
+
+      try {
+        if (ks.containsAlias(alias)) {
+          ks.deleteEntry(alias);
+        }
+      } catch (GeneralSecurityException ignored) {
+        /* only one exception can be raised by code: 'KeyStore is not loaded' */
       }
-    } catch (GeneralSecurityException ignored) {
-      /* only one exception can be raised by code: 'KeyStore is not loaded' */
     }
   }
 
@@ -102,18 +132,17 @@ abstract public class CipherStorageBase implements CipherStorage {
 
   //region Implementation
 
-  /** Get cipher instance and cache it for any next call. */
+  /** Get cipher instance of the current thread and cache it for any next call on this thread. */
   @NonNull
   public Cipher getCachedInstance() throws NoSuchAlgorithmException, NoSuchPaddingException {
-    if (null == cachedCipher) {
-      synchronized (this) {
-        if (null == cachedCipher) {
-          cachedCipher = Cipher.getInstance(getEncryptionTransformation());
-        }
-      }
+    Cipher cipher = cachedCipher.get();
+
+    if (null == cipher) {
+      cipher = Cipher.getInstance(getEncryptionTransformation());
+      cachedCipher.set(cipher);
     }
 
-    return cachedCipher;
+    return cipher;
   }
 
   /**
@@ -133,23 +162,64 @@ abstract public class CipherStorageBase implements CipherStorage {
   @NonNull
   protected Key extractGeneratedKey(@NonNull final String safeAlias, @NonNull final AtomicInteger retries)
     throws GeneralSecurityException {
-    Key key;
+    Key key = cachedKeys.get(safeAlias);
 
-    do {
-      final KeyStore keyStore = getKeyStoreAndLoad();
+    if (null != key) {
+      return key;
+    }
 
-      // if key is not available yet, try to generate the strongest possible
-      if (!keyStore.containsAlias(safeAlias)) {
-        generateKeyAndStoreUnderAlias(safeAlias);
-      }
+    synchronized (getKeyLock(safeAlias)) {
+      do {
+        final KeyStore keyStore = getKeyStoreAndLoad();
 
-      // throw exception if cannot extract key in several retries
-      key = extractKey(keyStore, safeAlias, retries);
-    } while (null == key);
+        // if key is not available yet, try to generate the strongest possible
+        if (!keyStore.containsAlias(safeAlias)) {
+          generateKeyAndStoreUnderAlias(safeAlias);
+        }
+
+        // throw exception if cannot extract key in several retries
+        key = extractKey(keyStore, safeAlias, retries);
+      } while (null == key);
+
+      cachedKeys.put(safeAlias, key);
+    }
 
     return key;
   }
 
+  @NonNull
+  private static Object getKeyLock(@NonNull final String alias) {
+    return _syncKeys[Math.floorMod(alias.hashCode(), _syncKeys.length)];
+  }
+
+  /** Drop the cached key handle, e.g. when the key turns out to be unusable. Next operation loads it again. */
+  protected void invalidateKey(@NonNull final String alias) {
+    cachedKeys.remove(alias);
+  }
+
+  /**
+   * Run the operation with the key of the alias. A cached handle can become unusable while cached (key invalidated
+   * or removed from the Keystore), in that case the handle is dropped and the operation retried once with a freshly
+   * loaded key, so the dead handle never outlives a single failure.
+   */
+  protected <T> T withKey(@NonNull final String alias,
+                          @NonNull final AtomicInteger retries,
+                          @NonNull final KeyOperation<T> operation)
+    throws GeneralSecurityException, IOException {
+    final Key key = extractGeneratedKey(alias, retries);
+
+    try {
+      return operation.run(key);
+    } catch (InvalidKeyException | UnrecoverableKeyException ex) {
+      Log.w(LOG_TAG, "Unusable key handle with alias: " + alias + ", reloading key", ex);
+
+      // only drop the failed handle, another thread may have loaded a fresh one already
+      cachedKeys.remove(alias, key);
+
+      return operation.run(extractGeneratedKey(alias, retries));
+    }
+  }
+
   /** Try to extract key by alias from keystore, in case of 'known android bug' reduce retry counter. */
   @Nullable
   protected Key extractKey(@NonNull final KeyStore keyStore,
@@ -163,6 +233,8 @@ abstract public class CipherStorageBase implements CipherStorage {
     try {
       key = keyStore.getKey(safeAlias, null);
     } catch (final UnrecoverableKeyException ex) {
+      invalidateKey(safeAlias);
+
       // try one more time
       if (retry.getAndDecrement() > 0) {
         keyStore.deleteEntry(safeAlias);
@@ -96,12 +96,10 @@ public class CipherStorageKeystoreAesGcm extends CipherStorageBase {
         final AtomicInteger retries = new AtomicInteger(1);
 
         try {
-            final Key key = extractGeneratedKey(alias, retries);
-
-            return new EncryptionResult(
+            return withKey(alias, retries, key -> new EncryptionResult(
                     encryptString(key, username),
                     encryptString(key, password),
-                    this);
+                    this));
         } catch (GeneralSecurityException e) {
             throw new CryptoFailedException("Could not encrypt data with alias: " + alias, e);
         } catch (Throwable fail) {
@@ -119,9 +117,7 @@ public class CipherStorageKeystoreAesGcm extends CipherStorageBase {
         final AtomicInteger retries = new AtomicInteger(1);
 
         try {
-            final Key key = extractGeneratedKey(alias, retries);
-
-            return new DecryptionResult(decryptBytes(key, username), decryptBytes(key, password));
+            return withKey(alias, retries, key -> new DecryptionResult(decryptBytes(key, username), decryptBytes(key, password)));
         } catch (GeneralSecurityException e) {
             throw new CryptoFailedException("Could not decrypt data with alias: " + alias, e);
         } catch (Throwable fail) {
@@ -0,0 +1,263 @@
+package libs.security.vault.storage.cipherStorage;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import libs.security.vault.exceptions.CryptoFailedException;
+import libs.security.vault.exceptions.KeyStoreAccessException;
+import libs.security.vault.storage.Keychain;
+
+/**
+ * Envelope encryption with a single Keystore master key
+ * <p>
+ * Every item is encrypted with its own random AES-256 data key in software, the data key is wrapped by the master
+ * key (AES/GCM, alias as associated data) and stored in front of the encrypted username, so it's removed together
+ * with the entry. Creating or removing an item needs no Keystore key generation or deletion, and encrypt/decrypt
+ * need a single Keystore operation (wrap/unwrap of the data key) instead of one per field.
+ * <p>
+ * username: [FORMAT_VERSION][wrapped data key: iv | key | tag][iv | encrypted username | tag]
+ * password: [iv | encrypted password | tag]
+ * <p>
+ * NOTE: the master key is shared by all instances in the process and generated once, removing it makes all items
+ * stored with this storage unreadable, only do it when clearing the keychain
+ */
+public class CipherStorageKeystoreEnvelope extends CipherStorageKeystoreAesGcm {
+    //region Constants
+    /**
+     * Keystore alias of the master key.
+     */
+    public static final String MASTER_KEY_ALIAS = "RN_KEYCHAIN_MASTER_KEY";
+    /**
+     * Version of the stored format.
+     */
+    public static final byte FORMAT_VERSION = 1;
+    /**
+     * Data key size in bytes.
+     */
+    public static final int DATA_KEY_SIZE = ENCRYPTION_KEY_SIZE / Byte.SIZE;
+    /**
+     * Wrapped data key size, iv + key + tag.
+     */
+    public static final int WRAPPED_KEY_SIZE = IV_SIZE + DATA_KEY_SIZE + TAG_SIZE / Byte.SIZE;
+    //endregion
+
+    //region Members
+    private final SecureRandom secureRandom = new SecureRandom();
+    /**
+     * Software cipher per thread for the data keys, a cipher bound to the Keystore provider can't be used with them.
+     */
+    private final transient ThreadLocal<Cipher> cachedDataCipher = new ThreadLocal<>();
+    /**
+     * Keystore alias of the master key used by this instance.
+     */
+    private final String masterKeyAlias;
+    //endregion
+
+    //region Initialization
+    public CipherStorageKeystoreEnvelope() {
+        this(MASTER_KEY_ALIAS);
+    }
+
+    /**
+     * Storage with another master key, e.g. for tests which should never touch the master key of the app
+     */
+    public CipherStorageKeystoreEnvelope(@NonNull final String masterKeyAlias) {
+        this.masterKeyAlias = masterKeyAlias;
+    }
+    //endregion
+
+    //region Configuration
+    @Override
+    public String getCipherStorageName() {
+        return Keychain.KnownCiphers.ENVELOPE;
+    }
+    //endregion
+
+    //region Overrides
+    @Override
+    @NonNull
+    public EncryptionResult encrypt(@NonNull final String alias,
+                                    @NonNull final String username,
+                                    @NonNull final String password)
+            throws CryptoFailedException {
+        final byte[] dataKeyBytes = new byte[DATA_KEY_SIZE];
+
+        try {
+            generateDataKey(dataKeyBytes);
+            final Key dataKey = new SecretKeySpec(dataKeyBytes, ALGORITHM_AES);
+
+            final byte[] wrappedKey = wrapDataKey(alias, dataKeyBytes);
+            final byte[] encryptedUsername = encryptData(dataKey, username.getBytes(UTF8));
+            final byte[] encryptedPassword = encryptData(dataKey, password.getBytes(UTF8));
+
+            final byte[] usernameBytes = ByteBuffer.allocate(1 + wrappedKey.length + encryptedUsername.length)
+                    .put(FORMAT_VERSION)
+                    .put(wrappedKey)
+                    .put(encryptedUsername)
+                    .array();
+
+            return new EncryptionResult(usernameBytes, encryptedPassword, this);
+        } catch (GeneralSecurityException e) {
+            throw new CryptoFailedException("Could not encrypt data with alias: " + alias, e);
+        } catch (Throwable fail) {
+            throw new CryptoFailedException("Unknown error with alias: " + alias +
+                    ", error: " + fail.getMessage(), fail);
+        } finally {
+            Arrays.fill(dataKeyBytes, (byte) 0);
+        }
+    }
+
+    @Override
+    @NonNull
+    public DecryptionResult decrypt(@NonNull final String alias,
+                                    @NonNull final byte[] username,
+                                    @NonNull final byte[] password)
+            throws CryptoFailedException {
+        if (username.length < 1 + WRAPPED_KEY_SIZE || username[0] != FORMAT_VERSION) {
+            throw new CryptoFailedException("Unknown envelope format with alias: " + alias);
+        }
+
+        byte[] dataKeyBytes = null;
+
+        try {
+            dataKeyBytes = unwrapDataKey(alias, Arrays.copyOfRange(username, 1, 1 + WRAPPED_KEY_SIZE));
+            final Key dataKey = new SecretKeySpec(dataKeyBytes, ALGORITHM_AES);
+
+            return new DecryptionResult(
+                    new String(decryptData(dataKey, Arrays.copyOfRange(username, 1 + WRAPPED_KEY_SIZE, username.length)), UTF8),
+                    new String(decryptData(dataKey, password), UTF8)
+            );
+        } catch (GeneralSecurityException e) {
+            throw new CryptoFailedException("Could not decrypt data with alias: " + alias, e);
+        } catch (Throwable fail) {
+            throw new CryptoFailedException("Unknown error with alias: " + alias +
+                    ", error: " + fail.getMessage(), fail);
+        } finally {
+            if (dataKeyBytes != null) {
+                Arrays.fill(dataKeyBytes, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Data keys are removed together with the entry, nothing to remove from the Keystore
+     */
+    @Override
+    public void removeKey(@NonNull final String alias) {
+    }
+    //endregion
+
+    //region Implementation
+
+    /**
+     * Remove the master key from the Keystore, a new one is generated on next use
+     */
+    public void removeMasterKey() throws KeyStoreAccessException {
+        super.removeKey(masterKeyAlias);
+    }
+
+    /**
+     * Fill the provided array with a new random data key
+     */
+    protected void generateDataKey(@NonNull final byte[] dataKey) {
+        secureRandom.nextBytes(dataKey);
+    }
+
+    /**
+     * Run the operation with the master key, generated once and its handle shared by all instances in the process
+     */
+    protected <T> T withMasterKey(@NonNull final KeyOperation<T> operation) throws GeneralSecurityException, IOException {
+        return withKey(masterKeyAlias, new AtomicInteger(1), operation);
+    }
+
+    @NonNull
+    protected byte[] wrapDataKey(@NonNull final String alias, @NonNull final byte[] dataKey)
+            throws GeneralSecurityException, IOException {
+        final Cipher cipher = getCachedInstance();
+
+        return withMasterKey(masterKey -> {
+            cipher.init(Cipher.ENCRYPT_MODE, masterKey);
+            cipher.updateAAD(alias.getBytes(UTF8));
+
+            final byte[] iv = cipher.getIV();
+            final byte[] encrypted = cipher.doFinal(dataKey);
+
+            return ByteBuffer.allocate(iv.length + encrypted.length).put(iv).put(encrypted).array();
+        });
+    }
+
+    @NonNull
+    protected byte[] unwrapDataKey(@NonNull final String alias, @NonNull final byte[] wrappedKey)
+            throws GeneralSecurityException, IOException {
+        final Cipher cipher = getCachedInstance();
+
+        try {
+            return withMasterKey(masterKey -> {
+                cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(TAG_SIZE, wrappedKey, 0, IV_SIZE));
+                cipher.updateAAD(alias.getBytes(UTF8));
+
+                return cipher.doFinal(wrappedKey, IV_SIZE, wrappedKey.length - IV_SIZE);
+            });
+        } catch (Throwable fail) {
+            Log.w(LOG_TAG, fail.getMessage(), fail);
+            throw fail;
+        }
+    }
+
+    /**
+     * Encrypt the bytes with the data key, iv is prepended to the output
+     */
+    @NonNull
+    protected byte[] encryptData(@NonNull final Key dataKey, @NonNull final byte[] value)
+            throws GeneralSecurityException {
+        final Cipher cipher = getDataCipher();
+
+        final byte[] iv = new byte[IV_SIZE];
+        secureRandom.nextBytes(iv);
+
+        cipher.init(Cipher.ENCRYPT_MODE, dataKey, new GCMParameterSpec(TAG_SIZE, iv));
+        final byte[] encrypted = cipher.doFinal(value);
+
+        return ByteBuffer.allocate(iv.length + encrypted.length).put(iv).put(encrypted).array();
+    }
+
+    /**
+     * Decrypt the bytes with the data key, iv is read from the start of the bytes
+     */
+    @NonNull
+    protected byte[] decryptData(@NonNull final Key dataKey, @NonNull final byte[] bytes)
+            throws GeneralSecurityException {
+        final Cipher cipher = getDataCipher();
+
+        cipher.init(Cipher.DECRYPT_MODE, dataKey, new GCMParameterSpec(TAG_SIZE, bytes, 0, IV_SIZE));
+        return cipher.doFinal(bytes, IV_SIZE, bytes.length - IV_SIZE);
+    }
+
+    @NonNull
+    private Cipher getDataCipher() throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Cipher cipher = cachedDataCipher.get();
+
+        if (null == cipher) {
+            cipher = Cipher.getInstance(ENCRYPTION_TRANSFORMATION);
+            cachedDataCipher.set(cipher);
+        }
+
+        return cipher;
+    }
+    //endregion
+}
@@ -0,0 +1,140 @@
+package libs.security.vault.storage.cipherStorage;
+
+import androidx.annotation.NonNull;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import libs.security.vault.exceptions.CryptoFailedException;
+import libs.security.vault.storage.Keychain;
+
+/**
+ * Envelope encryption with both fields packed into a single frame
+ * <p>
+ * Same as {@link CipherStorageKeystoreEnvelope}, but username and password are encrypted together with one iv in a
+ * single operation, so storing or reading an item is one Keystore round trip (data key wrap/unwrap) plus one cipher
+ * operation, no matter how many fields.
+ * <p>
+ * username: [FORMAT_VERSION][wrapped data key: iv | key | tag][iv | encrypted frame | tag]
+ * password: empty
+ * frame: [username length (int)][username][password]
+ */
+public class CipherStorageKeystoreEnvelopeFramed extends CipherStorageKeystoreEnvelope {
+    //region Constants
+    /**
+     * Size of the username length prefix in the frame.
+     */
+    private static final int LENGTH_SIZE = Integer.SIZE / Byte.SIZE;
+    //endregion
+
+    //region Initialization
+    public CipherStorageKeystoreEnvelopeFramed() {
+        super();
+    }
+
+    public CipherStorageKeystoreEnvelopeFramed(@NonNull final String masterKeyAlias) {
+        super(masterKeyAlias);
+    }
+    //endregion
+
+    //region Configuration
+    @Override
+    public String getCipherStorageName() {
+        return Keychain.KnownCiphers.ENVELOPE_FRAMED;
+    }
+    //endregion
+
+    //region Overrides
+    @Override
+    @NonNull
+    public EncryptionResult encrypt(@NonNull final String alias,
+                                    @NonNull final String username,
+                                    @NonNull final String password)
+            throws CryptoFailedException {
+        final byte[] dataKeyBytes = new byte[DATA_KEY_SIZE];
+        final byte[] usernameBytes = username.getBytes(UTF8);
+        final byte[] passwordBytes = password.getBytes(UTF8);
+        final byte[] frame = ByteBuffer.allocate(LENGTH_SIZE + usernameBytes.length + passwordBytes.length)
+                .putInt(usernameBytes.length)
+                .put(usernameBytes)
+                .put(passwordBytes)
+                .array();
+
+        try {
+            generateDataKey(dataKeyBytes);
+            final Key dataKey = new SecretKeySpec(dataKeyBytes, ALGORITHM_AES);
+
+            final byte[] wrappedKey = wrapDataKey(alias, dataKeyBytes);
+            final byte[] encryptedFrame = encryptData(dataKey, frame);
+
+            final byte[] result = ByteBuffer.allocate(1 + wrappedKey.length + encryptedFrame.length)
+                    .put(FORMAT_VERSION)
+                    .put(wrappedKey)
+                    .put(encryptedFrame)
+                    .array();
+
+            return new EncryptionResult(result, new byte[0], this);
+        } catch (GeneralSecurityException e) {
+            throw new CryptoFailedException("Could not encrypt data with alias: " + alias, e);
+        } catch (Throwable fail) {
+            throw new CryptoFailedException("Unknown error with alias: " + alias +
+                    ", error: " + fail.getMessage(), fail);
+        } finally {
+            Arrays.fill(dataKeyBytes, (byte) 0);
+            Arrays.fill(frame, (byte) 0);
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+
+    @Override
+    @NonNull
+    public DecryptionResult decrypt(@NonNull final String alias,
+                                    @NonNull final byte[] username,
+                                    @NonNull final byte[] password)
+            throws CryptoFailedException {
+        if (username.length < 1 + WRAPPED_KEY_SIZE || username[0] != FORMAT_VERSION) {
+            throw new CryptoFailedException("Unknown envelope format with alias: " + alias);
+        }
+
+        byte[] dataKeyBytes = null;
+        byte[] frame = null;
+
+        try {
+            dataKeyBytes = unwrapDataKey(alias, Arrays.copyOfRange(username, 1, 1 + WRAPPED_KEY_SIZE));
+            final Key dataKey = new SecretKeySpec(dataKeyBytes, ALGORITHM_AES);
+
+            frame = decryptData(dataKey, Arrays.copyOfRange(username, 1 + WRAPPED_KEY_SIZE, username.length));
+
+            final ByteBuffer buffer = ByteBuffer.wrap(frame);
+            final int usernameLength = buffer.getInt();
+            if (usernameLength < 0 || usernameLength > buffer.remaining()) {
+                throw new CryptoFailedException("Invalid frame with alias: " + alias);
+            }
+
+            return new DecryptionResult(
+                    new String(frame, LENGTH_SIZE, usernameLength, UTF8),
+                    new String(frame, LENGTH_SIZE + usernameLength, frame.length - LENGTH_SIZE - usernameLength, UTF8)
+            );
+        } catch (GeneralSecurityException e) {
+            throw new CryptoFailedException("Could not decrypt data with alias: " + alias, e);
+        } catch (BufferUnderflowException e) {
+            throw new CryptoFailedException("Invalid frame with alias: " + alias, e);
+        } catch (Throwable fail) {
+            throw new CryptoFailedException("Unknown error with alias: " + alias +
+                    ", error: " + fail.getMessage(), fail);
+        } finally {
+            if (dataKeyBytes != null) {
+                Arrays.fill(dataKeyBytes, (byte) 0);
+            }
+            if (frame != null) {
+                Arrays.fill(frame, (byte) 0);
+            }
+        }
+    }
+    //endregion
+}
@@ -3,6 +3,9 @@
 const ReactNative = require('react-native');
 const crypto = require('crypto');
 
+const hashSessions = new Map<string, any>();
+let hashSessionCounter = 0;
+
 ReactNative.NativeModules.CryptoModule = {
     randomKeySync: jest.fn((len: number) => crypto.randomBytes(len).toString('hex').toUpperCase()),
     randomKey: jest.fn((len: number) => Promise.resolve(crypto.randomBytes(len).toString('hex').toUpperCase())),
@@ -12,6 +15,66 @@ ReactNative.NativeModules.CryptoModule = {
     hmac256: jest.fn((value, key) =>
         Promise.resolve(crypto.createHmac('sha256', Buffer.from(key, 'hex')).update(value).digest('hex')),
     ),
+    sha512Batch: jest.fn((values: string[]) =>
+        Promise.resolve(values.map((value) => crypto.createHash('sha512').update(value).digest('hex'))),
+    ),
+    sha256Batch: jest.fn((values: string[]) =>
+        Promise.resolve(values.map((value) => crypto.createHash('sha256').update(value).digest('hex'))),
+    ),
+    hmac256Batch: jest.fn((values: string[], key: string) =>
+        Promise.resolve(
+            values.map((value) => crypto.createHmac('sha256', Buffer.from(key, 'hex')).update(value).digest('hex')),
+        ),
+    ),
+    sha256Sync: jest.fn((data: string) =>
+        crypto.createHash('sha256').update(Buffer.from(data, 'base64')).digest('base64'),
+    ),
+    sha512Sync: jest.fn((data: string) =>
+        crypto.createHash('sha512').update(Buffer.from(data, 'base64')).digest('base64'),
+    ),
+    hmac256Sync: jest.fn((data: string, key: string) =>
+        crypto.createHmac('sha256', Buffer.from(key, 'base64')).update(Buffer.from(data, 'base64')).digest('base64'),
+    ),
+    randomBytesSync: jest.fn((len: number) => crypto.randomBytes(len).toString('base64')),
+    pbkdf2Sync: jest.fn((password: string, salt: string, iterations: number) => {
+        if (iterations > 2048) {
+            throw new Error('TOO_MANY_ITERATIONS');
+        }
+        return crypto.pbkdf2Sync(password, Buffer.from(salt, 'base64'), iterations, 32, 'sha512').toString('base64');
+    }),
+    pbkdf2: jest.fn((password: string, salt: string, iterations: number) =>
+        Promise.resolve(
+            crypto.pbkdf2Sync(password, Buffer.from(salt, 'base64'), iterations, 32, 'sha512').toString('base64'),
+        ),
+    ),
+    createHash: jest.fn((algorithm: string) => {
+        hashSessionCounter += 1;
+        hashSessions.set(String(hashSessionCounter), crypto.createHash(algorithm));
+        return Promise.resolve(String(hashSessionCounter));
+    }),
+    createHmac: jest.fn((algorithm: string, key: string) => {
+        hashSessionCounter += 1;
+        hashSessions.set(String(hashSessionCounter), crypto.createHmac(algorithm, Buffer.from(key, 'hex')));
+        return Promise.resolve(String(hashSessionCounter));
+    }),
+    update: jest.fn((handle: string, chunk: string, encoding: BufferEncoding) => {
+        if (!hashSessions.has(handle)) {
+            return Promise.reject(new Error('HASH_SESSION_NOT_EXIST'));
+        }
+        hashSessions.get(handle).update(Buffer.from(chunk, encoding));
+        return Promise.resolve(true);
+    }),
+    digest: jest.fn((handle: string) => {
+        if (!hashSessions.has(handle)) {
+            return Promise.reject(new Error('HASH_SESSION_NOT_EXIST'));
+        }
+        const result = hashSessions.get(handle).digest('hex');
+        hashSessions.delete(handle);
+        return Promise.resolve(result);
+    }),
+    destroyHash: jest.fn((handle: string) => Promise.resolve(hashSessions.delete(handle))),
+    hashFile: jest.fn(() => Promise.reject(new Error('UNABLE_TO_OPEN_FILE'))),
+    getEngineStats: jest.fn(() => Promise.resolve({})),
 };
 
 ReactNative.NativeModules.UtilsModule = {
@@ -76,6 +139,50 @@ ReactNative.NativeModules.UniqueIdProviderModule = {
     getDeviceUniqueId: jest.fn(() => 'e988b7a9-f685-4674-87bc-0ad52a52faa5'),
 };
 
+ReactNative.NativeModules.SecurityExecutorModule = {
+    cancel: jest.fn((operation: string) => Promise.resolve(0)),
+    getMetrics: jest.fn(() =>
+        Promise.resolve({
+            interactive: {
+                queued: 0,
+                running: false,
+                completed: 0,
+                cancelled: 0,
+                last_wait: 0,
+                max_wait: 0,
+                average_wait: 0,
+            },
+            user_initiated: {
+                queued: 0,
+                running: false,
+                completed: 0,
+                cancelled: 0,
+                last_wait: 0,
+                max_wait: 0,
+                average_wait: 0,
+            },
+            background: {
+                queued: 0,
+                running: false,
+                completed: 0,
+                cancelled: 0,
+                last_wait: 0,
+                max_wait: 0,
+                average_wait: 0,
+            },
+            vault: {
+                queued: 0,
+                running: false,
+                completed: 0,
+                cancelled: 0,
+                last_wait: 0,
+                max_wait: 0,
+                average_wait: 0,
+            },
+        }),
+    ),
+};
+
 ReactNative.NativeModules.HapticFeedbackModule = {
     trigger: jest.fn((type) => {}),
 };
@@ -90,11 +197,38 @@ ReactNative.NativeModules.VaultManagerModule = {
     isStorageEncryptionKeyExist: jest.fn(() => Promise.resolve(true)),
     createVault: jest.fn((vaultName: string, entry: string, key: string) => Promise.resolve(true)),
     openVault: jest.fn((vaultName: string, key: string) => Promise.resolve('clearText')),
+    openVaults: jest.fn((vaultNames: string[], key: string, token: string | null) =>
+        Promise.resolve(
+            vaultNames.reduce((results, vaultName) => ({ ...results, [vaultName]: { clear_text: 'clearText' } }), {}),
+        ),
+    ),
     vaultExist: jest.fn((vaultName: string) => Promise.resolve(true)),
     purgeVault: jest.fn((vaultName: string) => Promise.resolve(true)),
     reKeyVault: jest.fn((vaultName: string, oldKey: string, newKey: string) => Promise.resolve(true)),
     reKeyBatchVaults: jest.fn((vaultNames: string[], oldKey: string, newKey: string) => Promise.resolve(true)),
     clearStorage: jest.fn(() => Promise.resolve(true)),
+    lockSession: jest.fn(() => Promise.resolve(true)),
+    calibrateKdf: jest.fn(() =>
+        Promise.resolve({
+            iterations: 91337,
+            sample_iterations: 10000,
+            sample_durations: [40, 40, 40, 40, 40],
+            median_duration: 40,
+            estimated_duration: 365,
+            target_duration: 500,
+            calibrated_at: 0,
+        }),
+    ),
+    getKdfCalibration: jest.fn(() => Promise.resolve(null)),
+    getOperationTimings: jest.fn(() => Promise.resolve({})),
+    listVaults: jest.fn(() => Promise.resolve([])),
+    getVaultMetrics: jest.fn(() => Promise.resolve({ bucket_bounds: [], stages: {} })),
+    resetVaultMetrics: jest.fn(() => Promise.resolve(true)),
+    setVaultMetricsEvents: jest.fn((enabled: boolean) => Promise.resolve(true)),
+    migrateAllVaults: jest.fn((key: string, token: string | null) => Promise.resolve({ migrated: 0, skipped: 0, failed: 0, total: 0, started_at: 0 })),
+    getMigrationStatus: jest.fn(() => Promise.resolve(null)),
+    addListener: jest.fn(),
+    removeListeners: jest.fn(),
     isMigrationRequired: jest.fn((vaultName: string) =>
         Promise.resolve({
             vault: vaultName,
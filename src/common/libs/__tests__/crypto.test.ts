@@ -1,6 +1,25 @@
 /* eslint-disable max-len */
 
-import { randomKey, HMAC256, SHA1, SHA256, SHA512 } from '../crypto';
+import { NativeModules } from 'react-native';
+
+import {
+    randomKey,
+    HMAC256,
+    SHA1,
+    SHA256,
+    SHA512,
+    HMAC256Batch,
+    SHA256Batch,
+    SHA512Batch,
+    HMAC256Sync,
+    SHA256Sync,
+    SHA512Sync,
+    PBKDF2Sync,
+    PBKDF2,
+    randomBytesSync,
+    createHash,
+    createHmac,
+} from '../crypto';
 
 describe('Crypto', () => {
     it('randomKey', async () => {
@@ -30,4 +49,99 @@ describe('Crypto', () => {
         const result = await HMAC256('thisisatest', 'b1ebcf12f5ff0a48b8f76604156a8d52e748');
         expect(result).toBe('2c5808c4833446895070b2946e6db446fc337a916730b63f46213684e38b4415');
     });
+
+    it('SHA256Batch', async () => {
+        const result = await SHA256Batch(['thisisatest', 'thisisatest']);
+        expect(result).toEqual([
+            'a7c96262c21db9a06fd49e307d694fd95f624569f9b35bb3ffacd880440f9787',
+            'a7c96262c21db9a06fd49e307d694fd95f624569f9b35bb3ffacd880440f9787',
+        ]);
+    });
+
+    it('SHA512Batch', async () => {
+        const result = await SHA512Batch(['thisisatest']);
+        expect(result).toEqual([
+            'd44edf261feb71975ee9275259b2eab75920d312cb1481a024306002dc57bf680e0c3b5a00edb6ffd15969369d8a714ccce1396937a57fd057ab312cb6c6d8b6',
+        ]);
+    });
+
+    it('HMAC256Batch', async () => {
+        const result = await HMAC256Batch(['thisisatest'], 'b1ebcf12f5ff0a48b8f76604156a8d52e748');
+        expect(result).toEqual(['2c5808c4833446895070b2946e6db446fc337a916730b63f46213684e38b4415']);
+    });
+
+    it('should fallback to per entry calls when batch is not available', async () => {
+        const { sha256Batch } = NativeModules.CryptoModule;
+        NativeModules.CryptoModule.sha256Batch = undefined;
+
+        const result = await SHA256Batch(['thisisatest']);
+        expect(result).toEqual(['a7c96262c21db9a06fd49e307d694fd95f624569f9b35bb3ffacd880440f9787']);
+
+        NativeModules.CryptoModule.sha256Batch = sha256Batch;
+    });
+
+    it('SHA256Sync', () => {
+        const result = SHA256Sync(Buffer.from('thisisatest'));
+        expect(Buffer.from(result).toString('hex')).toBe(
+            'a7c96262c21db9a06fd49e307d694fd95f624569f9b35bb3ffacd880440f9787',
+        );
+    });
+
+    it('SHA512Sync', () => {
+        const result = SHA512Sync(new Uint8Array(Buffer.from('thisisatest')).buffer);
+        expect(Buffer.from(result).toString('hex')).toBe(
+            'd44edf261feb71975ee9275259b2eab75920d312cb1481a024306002dc57bf680e0c3b5a00edb6ffd15969369d8a714ccce1396937a57fd057ab312cb6c6d8b6',
+        );
+    });
+
+    it('HMAC256Sync', () => {
+        const result = HMAC256Sync(Buffer.from('thisisatest'), Buffer.from('b1ebcf12f5ff0a48b8f76604156a8d52e748', 'hex'));
+        expect(Buffer.from(result).toString('hex')).toBe(
+            '2c5808c4833446895070b2946e6db446fc337a916730b63f46213684e38b4415',
+        );
+    });
+
+    it('PBKDF2Sync', () => {
+        const salt = Buffer.from('e263d5ca3f8664326a453b6f6f34c67551ed9ea9e67e4fb1bfe51010f3dc5354', 'hex');
+        const result = PBKDF2Sync('Hello World', salt, 2048);
+        expect(Buffer.from(result).toString('hex')).toBe(
+            '5ec9324e04e4a132675b9216e0847c52c9f5ba5383e2e761a6de819ce1c317ee',
+        );
+
+        // high work factors should not block the JS thread
+        expect(() => PBKDF2Sync('Hello World', salt, 91337)).toThrow('TOO_MANY_ITERATIONS');
+    });
+
+    it('PBKDF2', async () => {
+        const result = await PBKDF2(
+            'Hello World',
+            Buffer.from('e263d5ca3f8664326a453b6f6f34c67551ed9ea9e67e4fb1bfe51010f3dc5354', 'hex'),
+            91337,
+        );
+        expect(Buffer.from(result).toString('hex')).toBe(
+            '3f6baa35c545b1815761d32e26fe381d53a1673518f9880e9258280c5e25b632',
+        );
+    });
+
+    it('randomBytesSync', () => {
+        expect(randomBytesSync(16)).toHaveLength(16);
+    });
+
+    it('createHash', async () => {
+        const hash = await createHash('sha256');
+        await hash.update('this');
+        await hash.update(Buffer.from('isa').toString('base64'), 'base64');
+        await hash.update(Buffer.from('test').toString('hex'), 'hex');
+        expect(await hash.digest()).toBe('a7c96262c21db9a06fd49e307d694fd95f624569f9b35bb3ffacd880440f9787');
+
+        // session should be closed after digest
+        await expect(hash.digest()).rejects.toThrow();
+    });
+
+    it('createHmac', async () => {
+        const hmac = await createHmac('sha256', 'b1ebcf12f5ff0a48b8f76604156a8d52e748');
+        await hmac.update('thisis');
+        await hmac.update('atest');
+        expect(await hmac.digest()).toBe('2c5808c4833446895070b2946e6db446fc337a916730b63f46213684e38b4415');
+    });
 });
@@ -27,6 +27,42 @@ describe('Vault', () => {
         });
     });
 
+    describe('Open many', () => {
+        it('should call openVaults method on VaultModule', async () => {
+            const result = await Vault.openMany([name, `${name}2`], key);
+            expect(VaultManagerModule.openVaults).toHaveBeenCalledWith([name, `${name}2`], key, null);
+            expect(result).toEqual({ [name]: 'clearText', [`${name}2`]: 'clearText' });
+        });
+
+        it('should resolve undefined for vaults which cannot be opened', async () => {
+            VaultManagerModule.openVaults.mockImplementationOnce(() =>
+                Promise.resolve({ [name]: { clear_text: 'clearText' }, [`${name}2`]: { error: 'VAULT_NOT_EXIST' } }),
+            );
+            const result = await Vault.openMany([name, `${name}2`], key);
+            expect(result).toEqual({ [name]: 'clearText', [`${name}2`]: undefined });
+        });
+    });
+
+    describe('Migrate all', () => {
+        it('should call migrateAllVaults method on VaultModule', async () => {
+            const result = await Vault.migrateAll(key);
+            expect(VaultManagerModule.migrateAllVaults).toHaveBeenCalledWith(key, null);
+            expect(result).toEqual({ migrated: 0, total: 0, started_at: 0 });
+        });
+
+        it('should pass the cancellation token', async () => {
+            await Vault.migrateAll(key, undefined, 'token');
+            expect(VaultManagerModule.migrateAllVaults).toHaveBeenCalledWith(key, 'token');
+        });
+    });
+
+    describe('Cancel', () => {
+        it('should call cancel method on SecurityExecutorModule', async () => {
+            await Vault.cancel('token');
+            expect(NativeModules.SecurityExecutorModule.cancel).toHaveBeenCalledWith('token');
+        });
+    });
+
     describe('Purge', () => {
         it('should call purgeVault method on VaultModule', async () => {
             await Vault.purge(name).then(() => {
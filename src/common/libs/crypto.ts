@@ -20,9 +20,146 @@ const HMAC256 = (entry: string, key: string): Promise<string> => {
     return CryptoModule.hmac256(entry, key);
 };
 
+/* Batch Hash ==================================================================== */
+// NOTE: batch methods are only available on Android, fallback to per entry calls if not available
+const SHA512Batch = (entries: string[]): Promise<string[]> => {
+    if (typeof CryptoModule.sha512Batch === 'function') {
+        return CryptoModule.sha512Batch(entries);
+    }
+    return Promise.all(entries.map(SHA512));
+};
+
+const SHA256Batch = (entries: string[]): Promise<string[]> => {
+    if (typeof CryptoModule.sha256Batch === 'function') {
+        return CryptoModule.sha256Batch(entries);
+    }
+    return Promise.all(entries.map(SHA256));
+};
+
+const HMAC256Batch = (entries: string[], key: string): Promise<string[]> => {
+    if (typeof CryptoModule.hmac256Batch === 'function') {
+        return CryptoModule.hmac256Batch(entries, key);
+    }
+    return Promise.all(entries.map((entry) => HMAC256(entry, key)));
+};
+
+/* Streaming Hash ==================================================================== */
+// NOTE: streaming hash is only available on Android
+type HashAlgorithm = 'sha1' | 'sha256' | 'sha512';
+type ChunkEncoding = 'utf8' | 'base64' | 'hex';
+
+class HashStream {
+    private readonly handle: string;
+
+    constructor(handle: string) {
+        this.handle = handle;
+    }
+
+    update = async (chunk: string, encoding: ChunkEncoding = 'utf8'): Promise<HashStream> => {
+        await CryptoModule.update(this.handle, chunk, encoding);
+        return this;
+    };
+
+    digest = (): Promise<string> => {
+        return CryptoModule.digest(this.handle);
+    };
+
+    destroy = (): Promise<boolean> => {
+        return CryptoModule.destroyHash(this.handle);
+    };
+}
+
+const createHash = async (algorithm: HashAlgorithm): Promise<HashStream> => {
+    return new HashStream(await CryptoModule.createHash(algorithm));
+};
+
+const createHmac = async (algorithm: Exclude<HashAlgorithm, 'sha1'>, key: string): Promise<HashStream> => {
+    return new HashStream(await CryptoModule.createHmac(algorithm, key));
+};
+
+const hashFile = (uri: string, algorithm: HashAlgorithm = 'sha256'): Promise<string> => {
+    return CryptoModule.hashFile(uri, algorithm);
+};
+
+/* Sync ==================================================================== */
+// NOTE: sync methods block the JS thread and are only available on Android, binary values are passed as base64
+const toBase64 = (data: Uint8Array | ArrayBuffer): string => {
+    return Buffer.from(data instanceof ArrayBuffer ? new Uint8Array(data) : data).toString('base64');
+};
+
+const fromBase64 = (data: string): Uint8Array => {
+    return new Uint8Array(Buffer.from(data, 'base64'));
+};
+
+const notAvailable = (method: string): Error => {
+    return new Error(`CryptoModule.${method} is not available on this platform`);
+};
+
+const SHA256Sync = (data: Uint8Array | ArrayBuffer): Uint8Array => {
+    if (typeof CryptoModule.sha256Sync !== 'function') {
+        throw notAvailable('sha256Sync');
+    }
+    return fromBase64(CryptoModule.sha256Sync(toBase64(data)));
+};
+
+const SHA512Sync = (data: Uint8Array | ArrayBuffer): Uint8Array => {
+    if (typeof CryptoModule.sha512Sync !== 'function') {
+        throw notAvailable('sha512Sync');
+    }
+    return fromBase64(CryptoModule.sha512Sync(toBase64(data)));
+};
+
+const HMAC256Sync = (data: Uint8Array | ArrayBuffer, key: Uint8Array | ArrayBuffer): Uint8Array => {
+    if (typeof CryptoModule.hmac256Sync !== 'function') {
+        throw notAvailable('hmac256Sync');
+    }
+    return fromBase64(CryptoModule.hmac256Sync(toBase64(data), toBase64(key)));
+};
+
+const randomBytesSync = (length: number): Uint8Array => {
+    if (typeof CryptoModule.randomBytesSync !== 'function') {
+        throw notAvailable('randomBytesSync');
+    }
+    return fromBase64(CryptoModule.randomBytesSync(length));
+};
+
+// NOTE: only for low iteration counts (max 2048, e.g. BIP39 seed), use PBKDF2 for higher work factors
+const PBKDF2Sync = (password: string, salt: Uint8Array | ArrayBuffer, iterations: number): Uint8Array => {
+    if (typeof CryptoModule.pbkdf2Sync !== 'function') {
+        throw notAvailable('pbkdf2Sync');
+    }
+    return fromBase64(CryptoModule.pbkdf2Sync(password, toBase64(salt), iterations));
+};
+
+/* Key Derivation ==================================================================== */
+const PBKDF2 = async (password: string, salt: Uint8Array | ArrayBuffer, iterations: number): Promise<Uint8Array> => {
+    if (typeof CryptoModule.pbkdf2 !== 'function') {
+        throw notAvailable('pbkdf2');
+    }
+    return fromBase64(await CryptoModule.pbkdf2(password, toBase64(salt), iterations));
+};
+
 /* Crypt ==================================================================== */
 const randomKey = (length: number): Promise<string> => {
     return CryptoModule.randomKey(length);
 };
 
-export { HMAC256, SHA512, SHA256, SHA1, randomKey };
+export {
+    HMAC256,
+    SHA512,
+    SHA256,
+    SHA1,
+    HMAC256Batch,
+    SHA512Batch,
+    SHA256Batch,
+    HMAC256Sync,
+    SHA512Sync,
+    SHA256Sync,
+    PBKDF2Sync,
+    PBKDF2,
+    randomBytesSync,
+    createHash,
+    createHmac,
+    hashFile,
+    randomKey,
+};
@@ -5,7 +5,7 @@
  *
  */
 
-import { NativeModules } from 'react-native';
+import { NativeModules, NativeEventEmitter } from 'react-native';
 import { HexEncoding } from '@common/utils/string';
 
 import LoggerService from '@services/LoggerService';
@@ -16,6 +16,17 @@ const { VaultManagerModule } = NativeModules;
 /* Logger ==================================================================== */
 const logger = LoggerService.createLogger('Vault');
 
+/* Types ==================================================================== */
+type VaultMigrationProgress = {
+    migrated: number;
+    skipped: number;
+    failed: number;
+    total: number;
+    started_at: number;
+    vault?: string;
+    error?: string;
+};
+
 /* Lib ==================================================================== */
 const Vault = {
     /**
@@ -60,6 +71,51 @@ const Vault = {
         });
     },
 
+    /**
+     *  Open multiple vaults using provided key
+     *  NOTE: vaults which cannot be opened resolve to undefined, same as open
+     *  NOTE: pass a token to be able to cancel the call with Vault.cancel
+     */
+    openMany: async (
+        names: string[],
+        key: string,
+        token?: string,
+    ): Promise<{ [name: string]: string | undefined }> => {
+        // not available on this platform, open one by one
+        if (typeof VaultManagerModule.openVaults !== 'function') {
+            const result: { [name: string]: string | undefined } = {};
+            for (const name of names) {
+                // eslint-disable-next-line no-await-in-loop
+                result[name] = await Vault.open(name, key);
+            }
+            return result;
+        }
+
+        return VaultManagerModule.openVaults(names, key, token ?? null)
+            .then((results) => {
+                const result: { [name: string]: string | undefined } = {};
+                names.forEach((name) => {
+                    const vaultResult = results[name];
+
+                    if (!vaultResult?.clear_text) {
+                        logger.error(`openMany [${name}]`, vaultResult?.error);
+                        result[name] = undefined;
+                        return;
+                    }
+
+                    result[name] = vaultResult.clear_text;
+                });
+                return result;
+            })
+            .catch((error) => {
+                logger.error('openMany', error);
+                return names.reduce<{ [name: string]: string | undefined }>(
+                    (result, name) => ({ ...result, [name]: undefined }),
+                    {},
+                );
+            });
+    },
+
     /**
      *  Check key exist in vault
      */
@@ -167,6 +223,48 @@ const Vault = {
         });
     },
 
+    /**
+     *  migrate all outdated vaults to the latest cipher in the background
+     *  NOTE: an interrupted migration continues from its checkpoint when called again
+     *  NOTE: pass a token to be able to cancel the migration with Vault.cancel, the checkpoint is kept
+     */
+    migrateAll: async (
+        key: string,
+        onProgress?: (progress: VaultMigrationProgress) => void,
+        token?: string,
+    ): Promise<VaultMigrationProgress | undefined> => {
+        // not available on this platform, vaults are migrated on re-key
+        if (typeof VaultManagerModule.migrateAllVaults !== 'function') {
+            return undefined;
+        }
+
+        const subscription = onProgress
+            ? new NativeEventEmitter(VaultManagerModule).addListener('Vault.migrationProgress', onProgress)
+            : undefined;
+
+        try {
+            return await VaultManagerModule.migrateAllVaults(key, token ?? null);
+        } catch (error) {
+            logger.error('migrateAll', error);
+            throw error;
+        } finally {
+            subscription?.remove();
+        }
+    },
+
+    /**
+     *  cancel a queued or running vault call by operation name (e.g. reKeyVault) or by the token passed to the call
+     *  NOTE: cancelled calls reject with the CANCELLED code, resolves to the number of cancelled calls
+     */
+    cancel: async (operationOrToken: string): Promise<number> => {
+        // not available on this platform
+        if (typeof NativeModules.SecurityExecutorModule?.cancel !== 'function') {
+            return 0;
+        }
+
+        return NativeModules.SecurityExecutorModule.cancel(operationOrToken);
+    },
+
     // Delete Vault & PrivateKey from keychain
     purge: (name: string): Promise<boolean> => {
         return new Promise((resolve, reject) => {
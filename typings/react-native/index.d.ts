@@ -126,6 +126,133 @@ export interface CryptoModuleInterface extends NativeModule {
      * @returns A Promise that resolves to the hexadecimal HMAC-SHA-256 hash of the input entry with the specified key.
      */
     hmac256: (entry: string, key: string) => Promise<string>;
+
+    /**
+     * Computes the SHA-512 hashes of all entries in a single call.
+     * NOTE: Android only
+     * @param entries The entries to hash.
+     * @returns A Promise that resolves to the hexadecimal SHA-512 hashes, in the same order as the entries.
+     */
+    sha512Batch?: (entries: string[]) => Promise<string[]>;
+
+    /**
+     * Computes the SHA-256 hashes of all entries in a single call.
+     * NOTE: Android only
+     * @param entries The entries to hash.
+     * @returns A Promise that resolves to the hexadecimal SHA-256 hashes, in the same order as the entries.
+     */
+    sha256Batch?: (entries: string[]) => Promise<string[]>;
+
+    /**
+     * Computes the HMAC-SHA-256 hashes of all entries with the same key in a single call.
+     * NOTE: Android only
+     * @param entries The entries to hash.
+     * @param key The HMAC key as a hexadecimal string.
+     * @returns A Promise that resolves to the hexadecimal HMAC-SHA-256 hashes, in the same order as the entries.
+     */
+    hmac256Batch?: (entries: string[], key: string) => Promise<string[]>;
+
+    /**
+     * Synchronously computes the SHA-256 hash of the given bytes.
+     * NOTE: Android only
+     * @param data The bytes to hash as base64.
+     * @returns The SHA-256 hash as base64.
+     */
+    sha256Sync?: (data: string) => string;
+
+    /**
+     * Synchronously computes the SHA-512 hash of the given bytes.
+     * NOTE: Android only
+     * @param data The bytes to hash as base64.
+     * @returns The SHA-512 hash as base64.
+     */
+    sha512Sync?: (data: string) => string;
+
+    /**
+     * Synchronously computes the HMAC-SHA-256 of the given bytes.
+     * NOTE: Android only
+     * @param data The bytes to hash as base64.
+     * @param key The HMAC key as base64.
+     * @returns The HMAC-SHA-256 as base64.
+     */
+    hmac256Sync?: (data: string, key: string) => string;
+
+    /**
+     * Synchronously generates random bytes.
+     * NOTE: Android only
+     * @param length The number of bytes to generate.
+     * @returns The random bytes as base64.
+     */
+    randomBytesSync?: (length: number) => string;
+
+    /**
+     * Synchronously derives a 32 bytes key with PBKDF2-HMAC-SHA512.
+     * NOTE: Android only, blocks the JS thread for the whole derivation
+     * @param password The password.
+     * @param salt The salt as base64.
+     * @param iterations The iteration count.
+     * @returns The derived key as base64.
+     */
+    pbkdf2Sync?: (password: string, salt: string, iterations: number) => string;
+
+    /**
+     * Opens a streaming hash session.
+     * NOTE: Android only
+     * @param algorithm The hash algorithm, `sha1`, `sha256` or `sha512`.
+     * @returns A Promise that resolves to the session handle.
+     */
+    createHash: (algorithm: string) => Promise<string>;
+
+    /**
+     * Opens a streaming HMAC session.
+     * NOTE: Android only
+     * @param algorithm The hash algorithm, `sha256` or `sha512`.
+     * @param key The HMAC key as a hexadecimal string.
+     * @returns A Promise that resolves to the session handle.
+     */
+    createHmac: (algorithm: string, key: string) => Promise<string>;
+
+    /**
+     * Feeds a chunk to an open hash session.
+     * NOTE: Android only
+     * @param handle The session handle.
+     * @param chunk The chunk to hash.
+     * @param encoding The chunk encoding, `utf8`, `base64` or `hex`.
+     * @returns A Promise that resolves to true when the chunk is hashed.
+     */
+    update: (handle: string, chunk: string, encoding: string) => Promise<boolean>;
+
+    /**
+     * Finishes a hash session, the handle cannot be used after this.
+     * NOTE: Android only
+     * @param handle The session handle.
+     * @returns A Promise that resolves to the hexadecimal hash.
+     */
+    digest: (handle: string) => Promise<string>;
+
+    /**
+     * Drops a hash session without finishing it.
+     * NOTE: Android only
+     * @param handle The session handle.
+     * @returns A Promise that resolves to true if the session existed.
+     */
+    destroyHash: (handle: string) => Promise<boolean>;
+
+    /**
+     * Hashes the content of a file Uri natively in fixed size chunks.
+     * NOTE: Android only
+     * @param uri The file or content Uri.
+     * @param algorithm The hash algorithm, `sha1`, `sha256` or `sha512`.
+     * @returns A Promise that resolves to the hexadecimal hash.
+     */
+    hashFile: (uri: string, algorithm: string) => Promise<string>;
+
+    /**
+     * Gets the hit/miss counters of the native cached crypto engine instances.
+     * NOTE: Android only
+     * @returns A Promise that resolves to the counters keyed as `{kind}_hits` and `{kind}_misses`.
+     */
+    getEngineStats: () => Promise<Record<string, number>>;
 }
 
 /**
@@ -323,6 +450,20 @@ interface VaultManagerModuleInterface extends NativeModule {
      */
     openVault(vaultName: string, key: string): Promise<string>;
 
+    /**
+     * Opens and decrypts multiple vaults with the same key, vaults are decrypted in parallel.
+     * NOTE: Android only
+     * @param vaultNames - The names of the vaults to open.
+     * @param key - The key for the vaults.
+     * @param token - Optional cancellation token, see `SecurityExecutorModule.cancel`.
+     * @returns A Promise resolving to the clear text or the error for every vault, keyed by vault name.
+     */
+    openVaults?(
+        vaultNames: string[],
+        key: string,
+        token: string | null,
+    ): Promise<{ [vaultName: string]: { clear_text?: string; error?: string } }>;
+
     /**
      * Checks if a vault exists.
      * @param vaultName - The name of the vault to check.
@@ -372,6 +513,162 @@ interface VaultManagerModuleInterface extends NativeModule {
         latest_cipher_version: number;
         migration_required: boolean;
     }>;
+
+    /**
+     * Lists all vaults with their metadata, read from the vault index without decrypting the vaults.
+     * NOTE: Android only
+     * @returns A Promise resolving to the vaults sorted by name, times are in milliseconds since epoch (0 if unknown).
+     */
+    listVaults?(): Promise<
+        {
+            vault: string;
+            cipher_version: number;
+            migration_required: boolean;
+            created_at: number;
+            updated_at: number;
+            cipher_storage: string;
+        }[]
+    >;
+
+    /**
+     * Invalidates all cached passcode derivations of the current unlock session.
+     * NOTE: Android only
+     * @returns A Promise resolving to true if the session is locked.
+     */
+    lockSession(): Promise<boolean>;
+
+    /**
+     * Benchmarks the key derivation on the device and picks the work factor for new vaults.
+     * NOTE: Android only
+     * @returns A Promise resolving to the chosen iterations and the measured timings (ms).
+     */
+    calibrateKdf(): Promise<KdfCalibration>;
+
+    /**
+     * Gets the current key derivation calibration.
+     * NOTE: Android only
+     * @returns A Promise resolving to the calibration, or null if the device is not calibrated yet.
+     */
+    getKdfCalibration(): Promise<KdfCalibration | null>;
+
+    /**
+     * Gets the stage timings (ms) of the last run of each vault operation.
+     * NOTE: Android only
+     * @returns A Promise resolving to the stage timings keyed by operation, e.g. `open_vault` or `create_vault`.
+     */
+    getOperationTimings(): Promise<{ [operation: string]: { [stage: string]: number } }>;
+
+    /**
+     * Gets the histograms of the vault stage durations (ms) recorded since the app started.
+     * Stage labels contain the variant they ran with, e.g. `aes_gcm_decrypt.v4` or `keystore_decrypt.KeystoreAESGCM`,
+     * operation stages are prefixed with the operation, e.g. `open_vault.keychain_read`.
+     * NOTE: Android only
+     * @returns A Promise resolving to the bucket bounds and the histograms keyed by stage label.
+     */
+    getVaultMetrics?(): Promise<{
+        bucket_bounds: number[];
+        stages: {
+            [stage: string]: {
+                count: number;
+                sum: number;
+                min: number;
+                max: number;
+                mean: number;
+                p50: number;
+                p95: number;
+                // one count per bucket bound, the last one counts the samples above the last bound
+                buckets: number[];
+            };
+        };
+    }>;
+
+    /**
+     * Clears all recorded vault metrics.
+     * NOTE: Android only
+     * @returns A Promise resolving to true when the metrics are cleared.
+     */
+    resetVaultMetrics?(): Promise<boolean>;
+
+    /**
+     * Enables or disables the `Vault.metrics` event, emitted with `{ stage, duration }` for every recorded stage.
+     * NOTE: Android only
+     * @param enabled - Whether the events should be emitted.
+     * @returns A Promise resolving to true when the setting is applied.
+     */
+    setVaultMetricsEvents?(enabled: boolean): Promise<boolean>;
+
+    /**
+     * Migrates all outdated vaults to the latest cipher in the background, one vault at a time.
+     * Progress is emitted with the `Vault.migrationProgress` event after each vault, an interrupted migration
+     * continues from its checkpoint when called again.
+     * NOTE: Android only
+     * @param key - The key used to encrypt the vaults.
+     * @param token - Optional cancellation token, see `SecurityExecutorModule.cancel`.
+     * @returns A Promise resolving to the migration progress when all vaults are migrated.
+     */
+    migrateAllVaults?(key: string, token: string | null): Promise<VaultMigrationProgress>;
+
+    /**
+     * Gets the progress of an interrupted migration.
+     * NOTE: Android only
+     * @returns A Promise resolving to the migration progress, or null if no migration is in progress.
+     */
+    getMigrationStatus?(): Promise<VaultMigrationProgress | null>;
+}
+
+/**
+ * Vault migration progress, `vault` and `error` are only set on the progress event.
+ */
+interface VaultMigrationProgress {
+    migrated: number;
+    total: number;
+    started_at: number;
+    vault?: string;
+    error?: string;
+}
+
+/**
+ * Key derivation calibration result, durations are in milliseconds.
+ */
+interface KdfCalibration {
+    iterations: number;
+    sample_iterations: number;
+    sample_durations: number[];
+    median_duration: number;
+    estimated_duration: number;
+    target_duration: number;
+    calibrated_at: number;
+}
+
+/**
+ * Represents the security executor module interface.
+ * NOTE: Android only
+ */
+interface SecurityExecutorModuleInterface extends NativeModule {
+    /**
+     * Cancels all calls of a security module method, or the calls started with the given cancellation token.
+     * Queued calls are rejected right away, running calls stop at their next check (e.g. between key derivation
+     * rounds or batch steps); both reject with `CANCELLED`. Storage is restored from the recovery vaults when needed.
+     * @param operation - The method name, e.g. `reKeyBatchVaults`, or the token passed to the call.
+     * @returns A Promise resolving to the number of cancelled calls.
+     */
+    cancel(operation: string): Promise<number>;
+
+    /**
+     * Gets the queue metrics of the executor lanes, wait durations are in milliseconds.
+     * @returns A Promise resolving to the metrics of the interactive and background lanes.
+     */
+    getMetrics(): Promise<{ interactive: SecurityExecutorLaneMetrics; background: SecurityExecutorLaneMetrics }>;
+}
+
+interface SecurityExecutorLaneMetrics {
+    queued: number;
+    running: boolean;
+    completed: number;
+    cancelled: number;
+    last_wait: number;
+    max_wait: number;
+    average_wait: number;
 }
 
 /**
@@ -506,6 +803,7 @@ declare module 'react-native' {
         SharedPreferencesModule: SharedPreferencesModuleInterface;
         AppUpdateModule: AppUpdateModuleInterface;
         CryptoModule: CryptoModuleInterface;
+        SecurityExecutorModule: SecurityExecutorModuleInterface;
         AppUtilsModule: AppUtilsModuleInterface;
         LocalNotificationModule: LocalNotificationModuleInterface;
         InAppPurchaseModule: InAppPurchaseModuleInterface;